@@ -0,0 +1,123 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.algorithms.*;
+import com.ermel272.hashes.HashBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       BatchIngestBenchmark.java
+ *
+ * Purpose:     Compares processing precomputed hashes one element at a time
+ *              with processing them a batch at a time.
+ *
+ * Description: The {@link KeyStreamState} stream is hashed once into
+ *              {@link HashBatch}es of batchSize elements during setup, so only
+ *              the estimators' work is measured. Each benchmark processes one
+ *              batch, either element by element through processHashes or whole
+ *              through processBatch, and reports operations per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchIngestBenchmark {
+
+    // Batches precomputed from the stream, a power of two so the cursor can wrap with a mask
+    private static final int BATCHES = 64;
+
+    @Param({"16", "256", "4096"})
+    public int batchSize;
+
+    private HashBatch[] batches;
+    private int cursor;
+
+    private FlajoletMartinAlgorithm fmAlg;
+    private FourByOneFlajoletMartinAlgorithm fourByOneFmAlg;
+    private PcsaFlajoletMartinAlgorithm pcsaFmAlg;
+    private HyperLogLogAlgorithm hyperLogAlg;
+    private HyperLogLogPlusPlusAlgorithm hyperLogPlusAlg;
+
+    @Setup(Level.Trial)
+    public void setUp(KeyStreamState keys) {
+        batches = new HashBatch[BATCHES];
+        for (int i = 0; i < BATCHES; i++) {
+            String[] elements = new String[batchSize];
+            for (int j = 0; j < batchSize; j++) {
+                elements[j] = keys.next();
+            }
+            batches[i] = new HashBatch(batchSize).compute(elements, 0, batchSize);
+        }
+
+        fmAlg = new FlajoletMartinAlgorithm();
+        fourByOneFmAlg = new FourByOneFlajoletMartinAlgorithm();
+        pcsaFmAlg = new PcsaFlajoletMartinAlgorithm();
+        hyperLogAlg = new HyperLogLogAlgorithm();
+        hyperLogPlusAlg = new HyperLogLogPlusPlusAlgorithm();
+    }
+
+    private HashBatch nextBatch() {
+        HashBatch batch = batches[cursor];
+        cursor = (cursor + 1) & (BATCHES - 1);
+        return batch;
+    }
+
+    private static void perElement(DistinctCounter counter, HashBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            counter.processHashes(batch.getBundle(i));
+        }
+    }
+
+    @Benchmark
+    public void flajoletMartinPerElement() {
+        perElement(fmAlg, nextBatch());
+    }
+
+    @Benchmark
+    public void flajoletMartinBatch() {
+        fmAlg.processBatch(nextBatch());
+    }
+
+    @Benchmark
+    public void fourByOneFlajoletMartinPerElement() {
+        perElement(fourByOneFmAlg, nextBatch());
+    }
+
+    @Benchmark
+    public void fourByOneFlajoletMartinBatch() {
+        fourByOneFmAlg.processBatch(nextBatch());
+    }
+
+    @Benchmark
+    public void pcsaFlajoletMartinPerElement() {
+        perElement(pcsaFmAlg, nextBatch());
+    }
+
+    @Benchmark
+    public void pcsaFlajoletMartinBatch() {
+        pcsaFmAlg.processBatch(nextBatch());
+    }
+
+    @Benchmark
+    public void hyperLogLogPerElement() {
+        perElement(hyperLogAlg, nextBatch());
+    }
+
+    @Benchmark
+    public void hyperLogLogBatch() {
+        hyperLogAlg.processBatch(nextBatch());
+    }
+
+    @Benchmark
+    public void hyperLogLogPlusPlusPerElement() {
+        perElement(hyperLogPlusAlg, nextBatch());
+    }
+
+    @Benchmark
+    public void hyperLogLogPlusPlusBatch() {
+        hyperLogPlusAlg.processBatch(nextBatch());
+    }
+}
@@ -0,0 +1,35 @@
+package com.ermel272.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Class:       BenchmarkRunner.java
+ *
+ * Purpose:     Entry point for the benchmark module.
+ *
+ * Description: Runs every benchmark in com.ermel272.benchmarks with the GC
+ *              profiler attached so that allocation rates (gc.alloc.rate.norm)
+ *              are reported alongside throughput and latency. Any standard JMH
+ *              command line options, e.g. a benchmark regex or -p keyLength=8,
+ *              are passed through.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        // Default to every benchmark in the module if no regex was given
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) builder.include("com\\.ermel272\\.benchmarks\\..*");
+
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,52 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.algorithms.ConcurrentHyperLogLogAlgorithm;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       ConcurrentHyperLogLogBenchmark.java
+ *
+ * Purpose:     Measures multi-writer throughput of a single shared sketch.
+ *
+ * Description: Compares the lock-free {@link ConcurrentHyperLogLogAlgorithm}
+ *              against a {@link HyperLogLogPlusPlusAlgorithm} guarded by a lock,
+ *              with four writer threads each walking their own key stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+public class ConcurrentHyperLogLogBenchmark {
+
+    private ConcurrentHyperLogLogAlgorithm concurrentAlg;
+    private HyperLogLogPlusPlusAlgorithm lockedAlg;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        concurrentAlg = new ConcurrentHyperLogLogAlgorithm();
+        lockedAlg = new HyperLogLogPlusPlusAlgorithm();
+    }
+
+    @Benchmark
+    public void lockFree(KeyStreamState keys) {
+        concurrentAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void locked(KeyStreamState keys) {
+        synchronized (lockedAlg) {
+            lockedAlg.processInput(keys.next());
+        }
+    }
+
+    @Benchmark
+    public double lockFreeReport() {
+        return concurrentAlg.reportDistinctElements();
+    }
+}
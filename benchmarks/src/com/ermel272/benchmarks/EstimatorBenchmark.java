@@ -0,0 +1,131 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.algorithms.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       EstimatorBenchmark.java
+ *
+ * Purpose:     Measures processInput throughput of every estimator in
+ *              com.ermel272.algorithms, and of the hash-once dispatcher
+ *              that fans elements out to all of them.
+ *
+ * Description: Each benchmark feeds one element of the {@link KeyStreamState}
+ *              stream into a fresh estimator per trial. Note that String caches
+ *              its hashcode, so after the first pass over the stream estimators
+ *              that only use String.hashCode() see the cached value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EstimatorBenchmark {
+
+    private DeterministicAlgorithm detAlg;
+    private FingerprintSetAlgorithm fingerprintAlg;
+    private RoaringBitmapAlgorithm roaringAlg;
+    private FlajoletMartinAlgorithm fmAlg;
+    private AveragedFlajoletMartinAlgorithm aFmAlg;
+    private FourByOneFlajoletMartinAlgorithm fourByOneFmAlg;
+    private TwoByTwoFlajoletMartinAlgorithm twoByTwoFmAlg;
+    private PcsaFlajoletMartinAlgorithm pcsaFmAlg;
+    private HyperLogLogAlgorithm hyperLogAlg;
+    private HyperLogLogPlusPlusAlgorithm hyperLogPlusAlg;
+    private HybridHyperLogLogAlgorithm hybridHyperLogAlg;
+    private SlidingHyperLogLogAlgorithm slidingHyperLogAlg;
+    private DistinctCounterDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        detAlg = new DeterministicAlgorithm();
+        fingerprintAlg = new FingerprintSetAlgorithm();
+        roaringAlg = new RoaringBitmapAlgorithm();
+        fmAlg = new FlajoletMartinAlgorithm();
+        aFmAlg = new AveragedFlajoletMartinAlgorithm(1000);
+        fourByOneFmAlg = new FourByOneFlajoletMartinAlgorithm();
+        twoByTwoFmAlg = new TwoByTwoFlajoletMartinAlgorithm();
+        pcsaFmAlg = new PcsaFlajoletMartinAlgorithm();
+        hyperLogAlg = new HyperLogLogAlgorithm();
+        hyperLogPlusAlg = new HyperLogLogPlusPlusAlgorithm();
+        hybridHyperLogAlg = new HybridHyperLogLogAlgorithm();
+        slidingHyperLogAlg = new SlidingHyperLogLogAlgorithm(TimeUnit.MINUTES.toMillis(5));
+
+        dispatcher = new DistinctCounterDispatcher();
+        dispatcher.register(new DeterministicAlgorithm());
+        dispatcher.register(new FlajoletMartinAlgorithm());
+        dispatcher.register(new AveragedFlajoletMartinAlgorithm(1000));
+        dispatcher.register(new FourByOneFlajoletMartinAlgorithm());
+        dispatcher.register(new TwoByTwoFlajoletMartinAlgorithm());
+        dispatcher.register(new HyperLogLogAlgorithm());
+        dispatcher.register(new HyperLogLogPlusPlusAlgorithm());
+    }
+
+    @Benchmark
+    public void deterministic(KeyStreamState keys) {
+        detAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void fingerprintSet(KeyStreamState keys) {
+        fingerprintAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void roaringBitmap(KeyStreamState keys) {
+        roaringAlg.processInput(keys.nextId());
+    }
+
+    @Benchmark
+    public void flajoletMartin(KeyStreamState keys) {
+        fmAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void averagedFlajoletMartin(KeyStreamState keys) {
+        aFmAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void fourByOneFlajoletMartin(KeyStreamState keys) {
+        fourByOneFmAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void twoByTwoFlajoletMartin(KeyStreamState keys) {
+        twoByTwoFmAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void pcsaFlajoletMartin(KeyStreamState keys) {
+        pcsaFmAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void hyperLogLog(KeyStreamState keys) {
+        hyperLogAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void hyperLogLogPlusPlus(KeyStreamState keys) {
+        hyperLogPlusAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void hybridHyperLogLog(KeyStreamState keys) {
+        hybridHyperLogAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void slidingHyperLogLog(KeyStreamState keys) {
+        slidingHyperLogAlg.processInput(keys.next());
+    }
+
+    @Benchmark
+    public void dispatchToAll(KeyStreamState keys) {
+        dispatcher.processInput(keys.next());
+    }
+}
@@ -0,0 +1,273 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.algorithms.*;
+import com.ermel272.benchmarks.SyntheticWorkload.Distribution;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Class:       EvaluationHarness.java
+ *
+ * Purpose:     Measures the accuracy, throughput and memory of every estimator
+ *              in com.ermel272.algorithms over synthetic streams of known
+ *              cardinality, and reports them as CSV.
+ *
+ * Description: For each distribution and trial a {@link SyntheticWorkload} is
+ *              generated with the trial number as its seed, and every estimator
+ *              is run over it from empty. The estimate is compared with the
+ *              exact number of distinct elements at CHECKPOINTS evenly spaced
+ *              points in the stream, and the relative errors of every trial are
+ *              pooled into one row per distribution and estimator. Only the
+ *              processing between checkpoints is timed. Each estimator is run
+ *              over the first stream once before being measured, so the JIT has
+ *              compiled it; note that this also caches the hashcode of every key
+ *              String, which favours estimators that only use String.hashCode().
+ *              Results are not as rigorous as the JMH benchmarks, but show
+ *              accuracy and speed side by side.
+ *
+ *              Usage: EvaluationHarness [cardinality [length [trials]]], with
+ *              -Devaluation.workloads=UNIFORM,ZIPF,... to select distributions
+ *              and -Devaluation.file=path to write to a file, not stdout.
+ */
+public class EvaluationHarness {
+
+    private static final int DEFAULT_CARDINALITY = 100000;
+    private static final int DEFAULT_LENGTH = 1000000;
+    private static final int DEFAULT_TRIALS = 5;
+    private static final int CHECKPOINTS = 100;
+
+    private static final String HEADER = "Workload,Estimator,Trials,Elements,Distinct,MeanError,"
+            + "P50AbsError,P90AbsError,P99AbsError,MaxAbsError,ElementsPerSecond,SizeInBytes";
+
+    /**
+     * An estimator under evaluation, created afresh for each trial.
+     */
+    private static class Candidate {
+
+        private final String name;
+        private final Supplier<DistinctCounter> factory;
+
+        Candidate(String name, Supplier<DistinctCounter> factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * The pooled results of one estimator over every trial of one distribution.
+     */
+    private static class Result {
+
+        private final double[] errors;
+        private int errorCount;
+        private long elements;
+        private long nanos;
+        private long sizeInBytes;
+
+        Result(int trials) {
+            errors = new double[trials * CHECKPOINTS];
+        }
+    }
+
+    public static void main(String[] args) {
+        int cardinality = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CARDINALITY;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LENGTH;
+        int trials = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TRIALS;
+        if (trials < 1) throw new IllegalArgumentException("trials must be positive");
+
+        List<Distribution> distributions = new ArrayList<>();
+        String workloads = System.getProperty("evaluation.workloads");
+        if (workloads == null) {
+            distributions.addAll(Arrays.asList(Distribution.values()));
+        } else {
+            for (String workload : workloads.split(",")) {
+                distributions.add(Distribution.valueOf(workload.trim().toUpperCase(Locale.ROOT)));
+            }
+        }
+
+        PrintStream out = System.out;
+        String file = System.getProperty("evaluation.file");
+        if (file != null) {
+            try {
+                out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        List<Candidate> candidates = candidates();
+        out.println(HEADER);
+        for (Distribution distribution : distributions) {
+            evaluate(distribution, cardinality, length, trials, candidates, out);
+        }
+        out.flush();
+        if (out != System.out) out.close();
+    }
+
+    /**
+     * @return
+     *          Every estimator in com.ermel272.algorithms, with the
+     *          configurations the application and benchmarks use.
+     */
+    private static List<Candidate> candidates() {
+        List<Candidate> candidates = new ArrayList<>();
+        candidates.add(new Candidate("Deterministic", DeterministicAlgorithm::new));
+        candidates.add(new Candidate("FingerprintSet", FingerprintSetAlgorithm::new));
+        candidates.add(new Candidate("RoaringBitmap", RoaringBitmapAlgorithm::new));
+        candidates.add(new Candidate("FlajoletMartin", FlajoletMartinAlgorithm::new));
+        candidates.add(new Candidate("AveragedFlajoletMartin", () -> new AveragedFlajoletMartinAlgorithm(1000)));
+        candidates.add(new Candidate("BoundedAveragedFlajoletMartin", () -> new BoundedAveragedFlajoletMartinAlgorithm(1000)));
+        candidates.add(new Candidate("FourByOneFlajoletMartin", FourByOneFlajoletMartinAlgorithm::new));
+        candidates.add(new Candidate("TwoByTwoFlajoletMartin", TwoByTwoFlajoletMartinAlgorithm::new));
+        candidates.add(new Candidate("PcsaFlajoletMartin256", () -> new PcsaFlajoletMartinAlgorithm(256)));
+        candidates.add(new Candidate("PcsaFlajoletMartin1024", () -> new PcsaFlajoletMartinAlgorithm(1024)));
+        candidates.add(new Candidate("PcsaFlajoletMartin1024x8", () -> new PcsaFlajoletMartinAlgorithm(1024, 8)));
+        candidates.add(new Candidate("HyperLogLog", HyperLogLogAlgorithm::new));
+        for (int precision : new int[] {10, 12, 14, 16}) {
+            candidates.add(new Candidate("HyperLogLogPlusPlus" + precision, () -> new HyperLogLogPlusPlusAlgorithm(precision)));
+        }
+        candidates.add(new Candidate("HybridHyperLogLog", HybridHyperLogLogAlgorithm::new));
+        candidates.add(new Candidate("KMinValues1024", () -> new KMinValuesAlgorithm(1024)));
+        candidates.add(new Candidate("KMinValues" + KMinValuesAlgorithm.DEFAULT_K, KMinValuesAlgorithm::new));
+        candidates.add(new Candidate("ConcurrentHyperLogLog", ConcurrentHyperLogLogAlgorithm::new));
+        candidates.add(new Candidate("SlidingHyperLogLog", () -> new SlidingHyperLogLogAlgorithm(TimeUnit.DAYS.toMillis(1))));
+        return candidates;
+    }
+
+    private static void evaluate(Distribution distribution, int cardinality, int length, int trials,
+                                 List<Candidate> candidates, PrintStream out) {
+        Result[] results = new Result[candidates.size()];
+        for (int c = 0; c < results.length; c++) {
+            results[c] = new Result(trials);
+        }
+
+        long distinct = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            // Step 1: Generate the stream, and its exact distinct counts at each checkpoint
+            SyntheticWorkload workload = new SyntheticWorkload(distribution, cardinality, length, trial);
+            int[] checkpoints = new int[CHECKPOINTS];
+            long[] exact = exactCounts(workload, checkpoints);
+            distinct += exact[CHECKPOINTS - 1];
+
+            // Step 2: Warm up every estimator on the first stream
+            if (trial == 0) {
+                for (Candidate candidate : candidates) {
+                    run(candidate.factory.get(), workload, checkpoints, exact, null);
+                }
+            }
+
+            // Step 3: Run every estimator over the stream from empty
+            for (int c = 0; c < results.length; c++) {
+                run(candidates.get(c).factory.get(), workload, checkpoints, exact, results[c]);
+            }
+        }
+
+        // Step 4: Pool the trials into a row per estimator
+        for (int c = 0; c < results.length; c++) {
+            Result result = results[c];
+            double[] absErrors = new double[result.errorCount];
+            double meanError = 0;
+            for (int i = 0; i < result.errorCount; i++) {
+                meanError += result.errors[i];
+                absErrors[i] = Math.abs(result.errors[i]);
+            }
+            meanError /= result.errorCount;
+            Arrays.sort(absErrors);
+
+            double elementsPerSecond = result.nanos == 0
+                    ? 0 : result.elements * (double) TimeUnit.SECONDS.toNanos(1) / result.nanos;
+
+            out.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.6f,%.6f,%.6f,%.6f,%.6f,%.0f,%d",
+                    distribution, candidates.get(c).name, trials, length, distinct / trials, meanError,
+                    percentile(absErrors, 50), percentile(absErrors, 90), percentile(absErrors, 99),
+                    absErrors[absErrors.length - 1], elementsPerSecond, result.sizeInBytes));
+        }
+    }
+
+    /**
+     * Runs the counter over the stream, comparing its estimate with the exact
+     * count at each checkpoint.
+     *
+     * @param result
+     *          Where to add the errors and timings, or null to discard them.
+     */
+    private static void run(DistinctCounter counter, SyntheticWorkload workload, int[] checkpoints,
+                            long[] exact, Result result) {
+        // Roaring counts the numeric ids themselves, as in the application
+        RoaringBitmapAlgorithm ids = counter instanceof RoaringBitmapAlgorithm ? (RoaringBitmapAlgorithm) counter : null;
+
+        int position = 0;
+        long nanos = 0;
+        for (int k = 0; k < CHECKPOINTS; k++) {
+            int end = checkpoints[k];
+
+            long start = System.nanoTime();
+            if (ids != null) {
+                for (; position < end; position++) {
+                    ids.processInput(workload.getId(position));
+                }
+            } else {
+                for (; position < end; position++) {
+                    counter.processInput(workload.getKey(position));
+                }
+            }
+            nanos += System.nanoTime() - start;
+
+            double estimate = counter.reportDistinctElements();
+            if (result != null && exact[k] > 0) {
+                result.errors[result.errorCount++] = (estimate - exact[k]) / exact[k];
+            }
+        }
+
+        if (result != null) {
+            result.elements += position;
+            result.nanos += nanos;
+            result.sizeInBytes = counter.getSizeInBytes();
+        }
+    }
+
+    /**
+     * Fills checkpoints with CHECKPOINTS evenly spaced stream positions, the
+     * last of which is the end of the stream.
+     *
+     * @return
+     *          The exact number of distinct elements before each checkpoint.
+     */
+    private static long[] exactCounts(SyntheticWorkload workload, int[] checkpoints) {
+        boolean[] seen = new boolean[workload.getCardinality()];
+        long[] exact = new long[CHECKPOINTS];
+        long distinct = 0;
+
+        int position = 0;
+        for (int k = 0; k < CHECKPOINTS; k++) {
+            checkpoints[k] = (int) ((long) workload.getLength() * (k + 1) / CHECKPOINTS);
+            for (; position < checkpoints[k]; position++) {
+                int key = workload.getKeyIndex(position);
+                if (!seen[key]) {
+                    seen[key] = true;
+                    distinct++;
+                }
+            }
+            exact[k] = distinct;
+        }
+        return exact;
+    }
+
+    /**
+     * @return
+     *          The nearest rank percentile of the sorted values.
+     */
+    private static double percentile(double[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,110 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.hashes.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       HashBenchmark.java
+ *
+ * Purpose:     Measures the throughput of each hash function in
+ *              com.ermel272.hashes against String.hashCode().
+ *
+ * Description: Inputs are pre-encoded by {@link KeyStreamState} so that only
+ *              the hash itself is measured. Byte oriented hashes are also run
+ *              over a direct buffer holding the same bytes. String caches its hashcode, so
+ *              javaStringHashCode hashes a fresh copy of the key and should be
+ *              read relative to the stringCopy baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HashBenchmark {
+
+    @Benchmark
+    public int fnv1a32(KeyStreamState keys) {
+        return Fnv1aHash.hash32(keys.bytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public long fnv1a64(KeyStreamState keys) {
+        return Fnv1aHash.hash64(keys.bytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public long murmur3_64(KeyStreamState keys) {
+        return Murmur3Hash.hash64(keys.bytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public long murmur3_64Chars(KeyStreamState keys) {
+        return Murmur3Hash.hash64(keys.next());
+    }
+
+    @Benchmark
+    public long murmur3_64DirectBuffer(KeyStreamState keys) {
+        int i = keys.nextIndex();
+        return Murmur3Hash.hash64(keys.direct, keys.directOffsets[i], keys.bytes[i].length);
+    }
+
+    @Benchmark
+    public long xxHash64(KeyStreamState keys) {
+        return XxHash64.hash64(keys.bytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public long xxHash64DirectBuffer(KeyStreamState keys) {
+        int i = keys.nextIndex();
+        return XxHash64.hash64(keys.direct, keys.directOffsets[i], keys.bytes[i].length);
+    }
+
+    @Benchmark
+    public int fnv1a32DirectBuffer(KeyStreamState keys) {
+        int i = keys.nextIndex();
+        return Fnv1aHash.hash32(keys.direct, keys.directOffsets[i], keys.bytes[i].length);
+    }
+
+    @Benchmark
+    public int fnv32(KeyStreamState keys) {
+        return FnvHash.hash32(keys.next());
+    }
+
+    @Benchmark
+    public int morin32(KeyStreamState keys) {
+        return MorinHash.hash32(keys.bytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public int morin32Boxed(KeyStreamState keys) {
+        return MorinHash.hash32(keys.boxedBytes[keys.nextIndex()]);
+    }
+
+    @Benchmark
+    public HashBundle hashBundle(KeyStreamState keys, BundleState bundle) {
+        return bundle.hashes.compute(keys.next());
+    }
+
+    @Benchmark
+    public HashBundle hashBundleDirectBuffer(KeyStreamState keys, BundleState bundle) {
+        int i = keys.nextIndex();
+        return bundle.hashes.compute(keys.direct, keys.directOffsets[i], keys.bytes[i].length);
+    }
+
+    @Benchmark
+    public int javaStringHashCode(KeyStreamState keys) {
+        return new String(keys.chars[keys.nextIndex()]).hashCode();
+    }
+
+    @Benchmark
+    public String stringCopy(KeyStreamState keys) {
+        return new String(keys.chars[keys.nextIndex()]);
+    }
+
+    @State(Scope.Thread)
+    public static class BundleState {
+        final HashBundle hashes = new HashBundle();
+    }
+}
@@ -0,0 +1,133 @@
+package com.ermel272.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Class:       KeyStreamState.java
+ *
+ * Purpose:     Supplies a reproducible stream of synthetic usernames to
+ *              the benchmarks, parameterized by key length and cardinality.
+ *
+ * Description: Generates cardinality distinct alphanumeric keys of keyLength
+ *              characters from a fixed seed, then lays out a stream of
+ *              STREAM_SIZE elements drawn uniformly from those keys. Each key
+ *              is also given a random 32 bit user id, for estimators of numeric
+ *              keys. Benchmarks walk the stream with next() or nextId(),
+ *              wrapping around at the end.
+ */
+@State(Scope.Thread)
+public class KeyStreamState {
+
+    // Must be a power of two so the cursor can wrap with a mask
+    static final int STREAM_SIZE = 1 << 20;
+
+    private static final long SEED = 0x5eedL;
+    private static final char[] ALPHABET =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_".toCharArray();
+
+    @Param({"8", "15", "64"})
+    public int keyLength;
+
+    @Param({"1000", "1000000"})
+    public int cardinality;
+
+    String[] stream;
+    char[][] chars;
+    byte[][] bytes;
+    Byte[][] boxedBytes;
+    ByteBuffer direct;
+    int[] directOffsets;
+    long[] ids;
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(SEED);
+
+        // Step 1: Generate the distinct keys
+        String[] keys = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            char[] key = new char[keyLength];
+            for (int j = 0; j < keyLength; j++) {
+                key[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            keys[i] = new String(key);
+        }
+
+        // Step 2: Draw the stream from the distinct keys
+        stream = new String[STREAM_SIZE];
+        chars = new char[STREAM_SIZE][];
+        bytes = new byte[STREAM_SIZE][];
+        boxedBytes = new Byte[STREAM_SIZE][];
+        for (int i = 0; i < STREAM_SIZE; i++) {
+            // Copy so that cached String hashcodes are not shared between stream positions
+            stream[i] = new String(keys[random.nextInt(cardinality)]);
+            chars[i] = stream[i].toCharArray();
+            bytes[i] = stream[i].getBytes();
+            boxedBytes[i] = new Byte[bytes[i].length];
+            for (int j = 0; j < bytes[i].length; j++) {
+                boxedBytes[i][j] = bytes[i][j];
+            }
+        }
+
+        // Step 3: Lay the encoded stream out in a direct buffer
+        int totalBytes = 0;
+        directOffsets = new int[STREAM_SIZE];
+        for (int i = 0; i < STREAM_SIZE; i++) {
+            directOffsets[i] = totalBytes;
+            totalBytes += bytes[i].length;
+        }
+        direct = ByteBuffer.allocateDirect(totalBytes);
+        for (int i = 0; i < STREAM_SIZE; i++) {
+            direct.put(bytes[i]);
+        }
+
+        // Step 4: Give each key a user id, from a separate generator so the keys are unchanged
+        Random idRandom = new Random(SEED + 1);
+        long[] keyIds = new long[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            keyIds[i] = idRandom.nextInt() & 0xffffffffL;
+        }
+        ids = new long[STREAM_SIZE];
+        Random idStream = new Random(SEED);
+        for (int i = 0; i < STREAM_SIZE; i++) {
+            ids[i] = keyIds[idStream.nextInt(cardinality)];
+        }
+
+        cursor = 0;
+    }
+
+    /**
+     * @return
+     *          The index of the next stream element.
+     */
+    int nextIndex() {
+        int index = cursor;
+        cursor = (cursor + 1) & (STREAM_SIZE - 1);
+        return index;
+    }
+
+    /**
+     * @return
+     *          The next stream element.
+     */
+    String next() {
+        return stream[nextIndex()];
+    }
+
+    /**
+     * @return
+     *          The user id of the next stream element.
+     */
+    long nextId() {
+        return ids[nextIndex()];
+    }
+}
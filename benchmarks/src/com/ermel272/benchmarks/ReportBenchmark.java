@@ -0,0 +1,112 @@
+package com.ermel272.benchmarks;
+
+import com.ermel272.algorithms.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       ReportBenchmark.java
+ *
+ * Purpose:     Measures reportDistinctElements latency of every estimator
+ *              in com.ermel272.algorithms.
+ *
+ * Description: Each estimator is loaded with the full {@link KeyStreamState}
+ *              stream once per trial, after which only the cost of producing
+ *              an estimate is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReportBenchmark {
+
+    private DeterministicAlgorithm detAlg;
+    private FlajoletMartinAlgorithm fmAlg;
+    private AveragedFlajoletMartinAlgorithm aFmAlg;
+    private BoundedAveragedFlajoletMartinAlgorithm boundedAFmAlg;
+    private BoundedAveragedFlajoletMartinAlgorithm windowedAFmAlg;
+    private FourByOneFlajoletMartinAlgorithm fourByOneFmAlg;
+    private TwoByTwoFlajoletMartinAlgorithm twoByTwoFmAlg;
+    private PcsaFlajoletMartinAlgorithm pcsaFmAlg;
+    private HyperLogLogAlgorithm hyperLogAlg;
+    private HyperLogLogPlusPlusAlgorithm hyperLogPlusAlg;
+    private SlidingHyperLogLogAlgorithm slidingHyperLogAlg;
+
+    @Setup(Level.Trial)
+    public void setUp(KeyStreamState keys) {
+        DistinctCounterDispatcher dispatcher = new DistinctCounterDispatcher();
+        dispatcher.register(detAlg = new DeterministicAlgorithm());
+        dispatcher.register(fmAlg = new FlajoletMartinAlgorithm());
+        dispatcher.register(aFmAlg = new AveragedFlajoletMartinAlgorithm(1000));
+        dispatcher.register(boundedAFmAlg = new BoundedAveragedFlajoletMartinAlgorithm(1000));
+        dispatcher.register(windowedAFmAlg = new BoundedAveragedFlajoletMartinAlgorithm(1000, 100));
+        dispatcher.register(fourByOneFmAlg = new FourByOneFlajoletMartinAlgorithm());
+        dispatcher.register(twoByTwoFmAlg = new TwoByTwoFlajoletMartinAlgorithm());
+        dispatcher.register(pcsaFmAlg = new PcsaFlajoletMartinAlgorithm());
+        dispatcher.register(hyperLogAlg = new HyperLogLogAlgorithm());
+        dispatcher.register(hyperLogPlusAlg = new HyperLogLogPlusPlusAlgorithm());
+        dispatcher.register(slidingHyperLogAlg = new SlidingHyperLogLogAlgorithm(TimeUnit.MINUTES.toMillis(5)));
+
+        for (int i = 0; i < KeyStreamState.STREAM_SIZE; i++) {
+            dispatcher.processInput(keys.next());
+        }
+    }
+
+    @Benchmark
+    public double deterministic() {
+        return detAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double flajoletMartin() {
+        return fmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double averagedFlajoletMartin() {
+        return aFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double boundedAveragedFlajoletMartin() {
+        return boundedAFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double windowedAveragedFlajoletMartin() {
+        return windowedAFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double fourByOneFlajoletMartin() {
+        return fourByOneFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double twoByTwoFlajoletMartin() {
+        return twoByTwoFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double pcsaFlajoletMartin() {
+        return pcsaFmAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double hyperLogLog() {
+        return hyperLogAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double hyperLogLogPlusPlus() {
+        return hyperLogPlusAlg.reportDistinctElements();
+    }
+
+    @Benchmark
+    public double slidingHyperLogLog() {
+        return slidingHyperLogAlg.reportDistinctElements(TimeUnit.MINUTES.toMillis(1));
+    }
+}
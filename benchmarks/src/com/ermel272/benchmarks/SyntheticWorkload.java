@@ -0,0 +1,187 @@
+package com.ermel272.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class:       SyntheticWorkload.java
+ *
+ * Purpose:     Generates a reproducible stream of synthetic user ids, drawn
+ *              from a universe of known size with a configurable distribution.
+ *
+ * Description: Each of the cardinality keys is given a distinct 32 bit user id
+ *              by a bijective bit mixer, and its decimal form as the key. The
+ *              stream is laid out up front as key indexes, so that reading it
+ *              allocates nothing and the exact number of distinct keys in any
+ *              prefix is easily tracked. The same distribution, cardinality,
+ *              length and seed always give the same stream.
+ */
+public class SyntheticWorkload {
+
+    public enum Distribution {
+
+        /**
+         * Every key is equally likely.
+         */
+        UNIFORM,
+
+        /**
+         * The key of rank k is drawn with probability proportional to
+         * 1 / k^ZIPF_EXPONENT, as with the activity of real users.
+         */
+        ZIPF,
+
+        /**
+         * Keys are drawn uniformly, but each is repeated in a run of
+         * geometrically distributed length with mean MEAN_BURST_LENGTH.
+         */
+        BURSTY,
+
+        /**
+         * HOT_SHARE of the elements are drawn from the first HOT_FRACTION
+         * of the keys, and the rest uniformly from all of them.
+         */
+        HIGH_DUPLICATE
+    }
+
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final double MEAN_BURST_LENGTH = 32;
+    private static final double HOT_FRACTION = 0.01;
+    private static final double HOT_SHARE = 0.95;
+
+    private final Distribution distribution;
+    private final long seed;
+
+    private final long[] ids;
+    private final String[] keys;
+    private final int[] stream;
+
+    /**
+     * @param distribution
+     *          How elements are drawn from the keys.
+     * @param cardinality
+     *          The number of keys elements are drawn from.
+     * @param length
+     *          The number of elements in the stream.
+     * @param seed
+     *          The seed of the stream.
+     */
+    public SyntheticWorkload(Distribution distribution, int cardinality, int length, long seed) {
+        if (cardinality < 1 || length < 1) throw new IllegalArgumentException("cardinality and length must be positive");
+
+        this.distribution = distribution;
+        this.seed = seed;
+
+        // Step 1: Give each key a distinct id
+        ids = new long[cardinality];
+        keys = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            ids[i] = mix32(i + (int) seed) & 0xffffffffL;
+            keys[i] = Long.toString(ids[i]);
+        }
+
+        // Step 2: Draw the stream from the keys
+        stream = new int[length];
+        Random random = new Random(seed);
+        switch (distribution) {
+            case UNIFORM:
+                for (int i = 0; i < length; i++) {
+                    stream[i] = random.nextInt(cardinality);
+                }
+                break;
+            case ZIPF:
+                double[] cdf = zipfCdf(cardinality);
+                for (int i = 0; i < length; i++) {
+                    int rank = Arrays.binarySearch(cdf, random.nextDouble());
+                    stream[i] = Math.min(rank < 0 ? -rank - 1 : rank, cardinality - 1);
+                }
+                break;
+            case BURSTY:
+                double logContinue = Math.log(1 - 1 / MEAN_BURST_LENGTH);
+                for (int i = 0; i < length; ) {
+                    int key = random.nextInt(cardinality);
+                    int run = 1 + (int) (Math.log(1 - random.nextDouble()) / logContinue);
+                    for (int end = Math.min(length, i + run); i < end; i++) {
+                        stream[i] = key;
+                    }
+                }
+                break;
+            case HIGH_DUPLICATE:
+                int hotKeys = Math.max(1, (int) (cardinality * HOT_FRACTION));
+                for (int i = 0; i < length; i++) {
+                    stream[i] = random.nextInt(random.nextDouble() < HOT_SHARE ? hotKeys : cardinality);
+                }
+                break;
+        }
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getCardinality() {
+        return keys.length;
+    }
+
+    public int getLength() {
+        return stream.length;
+    }
+
+    /**
+     * @return
+     *          The index, between 0 and getCardinality(), of the key
+     *          of the element at position.
+     */
+    public int getKeyIndex(int position) {
+        return stream[position];
+    }
+
+    /**
+     * @return
+     *          The decimal user id of the element at position.
+     */
+    public String getKey(int position) {
+        return keys[stream[position]];
+    }
+
+    /**
+     * @return
+     *          The user id of the element at position.
+     */
+    public long getId(int position) {
+        return ids[stream[position]];
+    }
+
+    /**
+     * @return
+     *          The cumulative probabilities of the ranks 1 to n.
+     */
+    private static double[] zipfCdf(int n) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1 / Math.pow(k + 1, ZIPF_EXPONENT);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= total;
+        }
+        return cdf;
+    }
+
+    /**
+     * The MurmurHash3 32 bit finalizer, a bijection on int.
+     */
+    private static int mix32(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
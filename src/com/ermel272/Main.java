@@ -1,12 +1,212 @@
 package com.ermel272;
 
+import com.ermel272.algorithms.DistinctCounter;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.controllers.ShardedIngestionEngine;
 import com.ermel272.controllers.StreamController;
+import com.ermel272.distributed.RegisterDeltaProtocol;
+import com.ermel272.distributed.SketchConnectionListener;
+import com.ermel272.distributed.SketchCoordinator;
+import com.ermel272.distributed.SketchWorker;
+import com.ermel272.persistence.Checkpointer;
+import com.ermel272.query.QueryServer;
+import com.ermel272.reporting.OverflowPolicy;
+import com.ermel272.reporting.ReportSampler;
+import com.ermel272.util.FileReplayStreamSource;
+import com.ermel272.util.InputKey;
+import com.ermel272.util.SocketStreamSource;
+import com.ermel272.util.StreamSource;
+import com.ermel272.util.TwitterStreamSource;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Main {
 
-    public static void main(String[] args) {
+    // Reports the connection failures of distributed counting on the console
+    private static final SketchConnectionListener CONNECTION_LOGGER = new SketchConnectionListener() {
+        @Override
+        public void onWorkerDropped(String workerId, Exception cause) {
+            System.err.println("Dropped worker " + workerId + ": " + cause);
+        }
+
+        @Override
+        public void onCoordinatorLost(String workerId, InetSocketAddress coordinator, IOException cause) {
+            System.err.println("Worker " + workerId + " lost coordinator " + coordinator + ": " + cause.getMessage());
+        }
+    };
+
+    /**
+     * Runs the simulation against the live Twitter sample stream, or, if a file
+     * is given, replays the newline-delimited elements of that file. If a number
+     * of shards is also given, the file is counted by that many worker threads
+     * and only the final HyperLogLog++ estimate is printed.
+     *
+     * Usage: Main [replayFile [elementsPerSecond [shards]]]
+     *
+     * Elements may instead be pushed by producers over TCP, one per line, with:
+     *   ingest.port           accept producers on this loopback port instead of reading
+     *                         the Twitter stream or a file (default disabled)
+     *
+     * The counted key is selected with:
+     *   input.key             SCREEN_NAME, or USER_ID to count numeric user ids; replayed
+     *                         files must then hold one id per line (default SCREEN_NAME)
+     *
+     * The CSV report is configured with system properties:
+     *   report.everyElements  report after every n elements (default 1)
+     *   report.everyMillis    report every n milliseconds (default 0, disabled)
+     *   report.overflow       DROP or BLOCK when the writer falls behind (default BLOCK)
+     *   report.file           write the CSV to this file instead of standard output
+     *
+     * and the per group counters with:
+     *   groups.memoryBudget   bytes of counters kept in memory before spilling (default 64MB)
+     *
+     * and checkpoints with:
+     *   checkpoint.file           restore from and periodically save to this file (default disabled)
+     *   checkpoint.everyElements  checkpoint after every n elements (default 0, disabled)
+     *   checkpoint.everyMillis    checkpoint every n milliseconds (default 60000)
+     *
+     * and instrumentation with:
+     *   metrics.jmx           expose the pipeline's metrics as MBeans under com.ermel272 (default true)
+     *
+     * and queries with:
+     *   query.port            serve the estimates as JSON over HTTP on this loopback port, which
+     *                         keeps the process alive after the stream ends (default disabled)
+     *
+     * Several processes may count partitions of one stream, the workers shipping their
+     * sketches to a coordinator that prints the merged estimates, with:
+     *   distributed.role         coordinator, or worker to count this process's source into
+     *                            sketches shipped to the coordinator (default disabled)
+     *   distributed.port         the loopback port a coordinator accepts workers on (default 7400)
+     *   distributed.coordinator  the host:port a worker ships to (default localhost:7400)
+     *   distributed.workerId     the name a worker is known by (default its process id)
+     *   distributed.shipMillis   how often a worker ships changed registers (default 1000)
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 2) {
+            replaySharded(args[0], Long.parseLong(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+
+        String role = System.getProperty("distributed.role");
+        if ("coordinator".equals(role)) {
+            runCoordinator(Integer.getInteger("distributed.port", 7400));
+            return;
+        }
+
+        InputKey inputKey = InputKey.valueOf(System.getProperty("input.key", "SCREEN_NAME"));
+        StreamSource source;
+        Integer ingestPort = Integer.getInteger("ingest.port");
+        if (ingestPort != null) {
+            source = new SocketStreamSource(new InetSocketAddress(InetAddress.getLoopbackAddress(), ingestPort));
+        } else if (args.length == 0) {
+            source = new TwitterStreamSource(inputKey);
+        } else {
+            long elementsPerSecond = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            source = new FileReplayStreamSource(Paths.get(args[0]), elementsPerSecond);
+        }
+
+        if ("worker".equals(role)) {
+            runWorker(source);
+            return;
+        }
+        if (role != null) throw new IllegalArgumentException("Unknown distributed.role " + role);
+
+        // Configure the csv report
+        ReportSampler sampler = new ReportSampler(Long.getLong("report.everyElements", 1),
+                Long.getLong("report.everyMillis", 0));
+        OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(System.getProperty("report.overflow", "BLOCK"));
+        String reportFile = System.getProperty("report.file");
+        WritableByteChannel output = reportFile == null
+                ? new FileOutputStream(FileDescriptor.out).getChannel()
+                : FileChannel.open(Paths.get(reportFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+
         // Instantiate and start the simulation
-        StreamController simulationController = new StreamController();
+        long groupMemoryBudget = Long.getLong("groups.memoryBudget", 64L * 1024 * 1024);
+        String checkpointFile = System.getProperty("checkpoint.file");
+        Checkpointer checkpointer = checkpointFile == null ? null : new Checkpointer(Paths.get(checkpointFile),
+                new ReportSampler(Long.getLong("checkpoint.everyElements", 0),
+                        Long.getLong("checkpoint.everyMillis", 60000)));
+
+        StreamController simulationController = new StreamController(source, sampler, overflowPolicy, output,
+                groupMemoryBudget, checkpointer, inputKey);
+        if (Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"))) {
+            simulationController.getMetrics().registerMBeans();
+        }
+        Integer queryPort = Integer.getInteger("query.port");
+        if (queryPort != null) {
+            new QueryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), queryPort),
+                    simulationController.getSnapshots()).start();
+        }
         simulationController.startSimulation();
     }
+
+    private static void runCoordinator(int port) throws InterruptedException {
+        SketchCoordinator coordinator = new SketchCoordinator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                RegisterDeltaProtocol.newDefaultSketches(), CONNECTION_LOGGER);
+        coordinator.start();
+
+        // Print the merged estimates whenever a worker has counted more elements
+        System.out.println("Workers,ElementCount," + String.join(",", coordinator.getEstimates().keySet()));
+        long lastCount = 0;
+        while (true) {
+            Thread.sleep(1000);
+            long count = coordinator.getElementCount();
+            if (count == lastCount) continue;
+
+            lastCount = count;
+            StringBuilder row = new StringBuilder();
+            row.append(coordinator.getWorkerCount()).append(',').append(count);
+            for (double estimate : coordinator.getEstimates().values()) {
+                row.append(',').append(estimate);
+            }
+            System.out.println(row);
+        }
+    }
+
+    private static void runWorker(StreamSource source) throws InterruptedException {
+        String[] coordinator = System.getProperty("distributed.coordinator", "localhost:7400").split(":");
+        String workerId = System.getProperty("distributed.workerId",
+                ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        SketchWorker worker = new SketchWorker(
+                new InetSocketAddress(coordinator[0], Integer.parseInt(coordinator[1])), workerId,
+                RegisterDeltaProtocol.newDefaultSketches(), Long.getLong("distributed.shipMillis", 1000),
+                CONNECTION_LOGGER);
+
+        source.start(worker);
+        worker.awaitEndOfStream();
+
+        // Print the estimates of this worker's partition alone
+        System.out.println("ElementCount,ShippedRegisters," + String.join(",", worker.getSketches().keySet()));
+        StringBuilder row = new StringBuilder();
+        row.append(worker.getElementCount()).append(',').append(worker.getShippedRegisters());
+        for (DistinctCounter sketch : worker.getSketches().values()) {
+            row.append(',').append(sketch.reportDistinctElements());
+        }
+        System.out.println(row);
+    }
+
+    private static void replaySharded(String file, long elementsPerSecond, int shards) throws InterruptedException {
+        ShardedIngestionEngine<HyperLogLogPlusPlusAlgorithm> engine =
+                new ShardedIngestionEngine<>(shards, HyperLogLogPlusPlusAlgorithm::new);
+
+        long start = System.nanoTime();
+        new FileReplayStreamSource(Paths.get(file), elementsPerSecond).start(engine);
+        engine.awaitEndOfStream();
+
+        double estimate = engine.snapshot().reportDistinctElements();
+        engine.shutdown();
+
+        System.out.println("HyperLogLogPlusPlusAlg," + estimate + ",Seconds," + (System.nanoTime() - start) / 1e9);
+    }
 }
@@ -1,9 +1,10 @@
 package com.ermel272.algorithms;
 
-import com.ermel272.hashes.Fnv1aHash;
-import com.ermel272.hashes.FnvHash;
-import com.ermel272.hashes.MorinHash;
+import com.ermel272.hashes.BatchKernel;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -20,18 +21,23 @@ import java.util.Arrays;
  * @author Chris Ermel
  * @since 2016-11-26.
  */
-abstract class AbstractFlajoletMartinAlgorithm {
+abstract class AbstractFlajoletMartinAlgorithm implements RegisterCounter {
     // Defines the number of bits in a Java int
     private static final int MAX_BITS = 32;
     private static final int NUM_HASHES = 4;
 
+    private static final BatchKernel KERNEL = BatchKernel.create();
+
     int[] maxTailLengths;
 
+    // Reused by processInput(s) to avoid allocating per element
+    private final HashBundle hashes = new HashBundle();
+
     /**
      * Initialize the maxTailLengths to 0.
      */
     AbstractFlajoletMartinAlgorithm() {
-        maxTailLengths = new int[] {0, 0, 0, 0};
+        maxTailLengths = new int[NUM_HASHES];
     }
 
     /**
@@ -42,35 +48,130 @@ abstract class AbstractFlajoletMartinAlgorithm {
      *          The estimated number of distinct elements
      *          seen so far.
      */
+    @Override
     public abstract double reportDistinctElements();
 
     /**
      * Processes the input string s to determine if its hash's
      * tailLength is greater than the current maxTailLengths.
      *
-     * Uses the Java string hashcode.
+     * Uses the Java string hashcode, FNV1a, FNV1 and Morin hashes.
      *
      * @param s
      *          The input string to be hashed.
      */
+    @Override
     public void processInput(String s) {
-        int[] hashes = new int[NUM_HASHES];
-        int[] tailLengths = new int[NUM_HASHES];
-
         // Step 1: Hash string s into a 32 bit signed int for each hash function
-        hashes[0] = s.hashCode();
-        hashes[1] = Fnv1aHash.hash32(s.getBytes());
-        hashes[2] = FnvHash.hash32(s);
-        hashes[3] = MorinHash.hash32(toByteArray(s.getBytes()));
+        processHashes(hashes.compute(s));
+    }
 
-        // Step 2: Compute the tail length of each hash value
+    /**
+     * Processes the precomputed hashes of a stream element, using
+     * one hash function per maxTailLength.
+     *
+     * @param hashes
+     *          The precomputed hashes of the stream element.
+     */
+    @Override
+    public void processHashes(HashBundle hashes) {
+        // Step 2 & 3: Replace the maxTailLengths if the given tailLength is larger
+        updateMaxTailLength(0, hashes.getJavaHash());
+        updateMaxTailLength(1, hashes.getFnv1aHash());
+        updateMaxTailLength(2, hashes.getFnvHash());
+        updateMaxTailLength(3, hashes.getMorinHash());
+    }
+
+    /**
+     * Processes a batch of precomputed hashes as one max reduction of tail
+     * lengths per hash function, by a {@link BatchKernel} that uses the
+     * Vector API when available, followed by a single update of each
+     * maxTailLength.
+     *
+     * @param batch
+     *          The precomputed hashes of the stream elements.
+     */
+    @Override
+    public void processBatch(HashBatch batch) {
+        updateMaxTailLength(0, batch.getJavaHashes(), batch.size());
+        updateMaxTailLength(1, batch.getFnv1aHashes(), batch.size());
+        updateMaxTailLength(2, batch.getFnvHashes(), batch.size());
+        updateMaxTailLength(3, batch.getMorinHashes(), batch.size());
+    }
+
+    private void updateMaxTailLength(int index, int[] hashes, int length) {
+        int batchMax = KERNEL.maxTailLength(hashes, 0, length);
+        if (batchMax > maxTailLengths[index]) maxTailLengths[index] = batchMax;
+    }
+
+    private void updateMaxTailLength(int index, int hash) {
+        int tailLength = findTailLength(hash);
+        if (tailLength > maxTailLengths[index]) maxTailLengths[index] = tailLength;
+    }
+
+    /**
+     * Keeps the larger of each pair of maxTailLengths.
+     *
+     * @param other
+     *          The counter whose maxTailLengths are merged into this one.
+     */
+    void mergeMaxTailLengths(AbstractFlajoletMartinAlgorithm other) {
         for (int i = 0; i < NUM_HASHES; i++) {
-            tailLengths[i] = findTailLength(hashes[i]);
+            if (other.maxTailLengths[i] > maxTailLengths[i]) maxTailLengths[i] = other.maxTailLengths[i];
         }
+    }
+
+    /**
+     * @return
+     *          The number of maxTailLengths, one register per hash function.
+     */
+    @Override
+    public int getRegisterCount() {
+        return NUM_HASHES;
+    }
+
+    @Override
+    public long getRegister(int j) {
+        return maxTailLengths[j];
+    }
 
-        // Step 3: Replace the maxTailLengths if the given tailLength is larger
+    @Override
+    public void mergeRegister(int j, long value) {
+        if (value > maxTailLengths[j]) maxTailLengths[j] = (int) value;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the maxTailLengths.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 4L * NUM_HASHES;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return NUM_HASHES;
+    }
+
+    /**
+     * Writes the maxTailLengths to dst, one byte each.
+     */
+    public void writeTo(ByteBuffer dst) {
         for (int i = 0; i < NUM_HASHES; i++) {
-            if (tailLengths[i] > maxTailLengths[i]) maxTailLengths[i] = tailLengths[i];
+            dst.put((byte) maxTailLengths[i]);
+        }
+    }
+
+    /**
+     * Reads maxTailLengths written by writeTo(dst) into this counter, advancing src past them.
+     */
+    void readMaxTailLengths(ByteBuffer src) {
+        for (int i = 0; i < NUM_HASHES; i++) {
+            maxTailLengths[i] = src.get();
         }
     }
 
@@ -119,22 +220,4 @@ abstract class AbstractFlajoletMartinAlgorithm {
 
         return tailLength;
     }
-
-    /**
-     * Converts an array of byte objects to an array
-     * of {@link Byte} objects.
-     *
-     * Obtained from : http://stackoverflow.com/questions/12944377/how-to-convert-byte-to-byte-and-the-other-way-around
-     *
-     * @param bytesPrim
-     *          The array of byte objects.
-     *
-     * @return
-     *          An array of {@link Byte} objects.
-     */
-    private Byte[] toByteArray(byte[] bytesPrim) {
-        Byte[] bytes = new Byte[bytesPrim.length];
-        Arrays.setAll(bytes, n -> bytesPrim[n]);
-        return bytes;
-    }
 }
@@ -1,5 +1,8 @@
 package com.ermel272.algorithms;
 
+import com.ermel272.hashes.HashBundle;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -16,7 +19,7 @@ import java.util.ArrayList;
  * @author Chris Ermel
  * @since 2016-10-30.
  */
-public class AveragedFlajoletMartinAlgorithm {
+public class AveragedFlajoletMartinAlgorithm implements DistinctCounter {
 
     private ArrayList<Integer> maxTailLengths;
     private int maxBlockSize;
@@ -40,6 +43,7 @@ public class AveragedFlajoletMartinAlgorithm {
      *          The estimate of the number of distinct elements
      *          seen so far in the stream.
      */
+    @Override
     public double reportDistinctElements() {
         // Report the average of all 2^maxTailLengths
         int runningTotal = 0;
@@ -62,10 +66,18 @@ public class AveragedFlajoletMartinAlgorithm {
      * @param s
      *          The input string to be hashed.
      */
+    @Override
     public void processInput(String s) {
         // Step 1: Hash string s into a 32 bit signed int
-        int i = s.hashCode();
+        processHash(s.hashCode());
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getJavaHash());
+    }
 
+    private void processHash(int i) {
         // Step 2: Compute the tail length of i
         int tailLength = findTailLength(i);
 
@@ -85,6 +97,52 @@ public class AveragedFlajoletMartinAlgorithm {
         }
     }
 
+    /**
+     * @return
+     *          The approximate number of bytes held by the boxed maxTailLengths of every block.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 20L * maxTailLengths.size();
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return 12 + blockIndex + 1;
+    }
+
+    /**
+     * Writes the block size, the position within the current block and
+     * every block's maxTailLength, one byte each. Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(maxBlockSize);
+        dst.putInt(currentBlockSize);
+        dst.putInt(blockIndex + 1);
+        for (int i = 0; i < blockIndex + 1; i++) {
+            dst.put((byte) (int) maxTailLengths.get(i));
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static AveragedFlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        AveragedFlajoletMartinAlgorithm counter = new AveragedFlajoletMartinAlgorithm(src.getInt());
+        counter.currentBlockSize = src.getInt();
+        int blocks = src.getInt();
+
+        counter.maxTailLengths = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            counter.maxTailLengths.add((int) src.get());
+        }
+        counter.blockIndex = blocks - 1;
+        return counter;
+    }
+
     /**
      * Finds the binary tail length of a given signed integer i.
      * Converts the signed integer to an unsigned integer
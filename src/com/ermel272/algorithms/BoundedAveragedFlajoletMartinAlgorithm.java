@@ -0,0 +1,187 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       BoundedAveragedFlajoletMartinAlgorithm.java
+ *
+ * Purpose:     Implements the averaged version of the Flajolet-Martin
+ *              Algorithm in constant memory with constant time reporting.
+ *
+ * Description: Like {@link AveragedFlajoletMartinAlgorithm}, maintains the max
+ *              tail length of each block of maxBlockSize stream elements and
+ *              reports the average of the 2^maxTailLength's of the blocks, the
+ *              current block included. Rather than keeping every block, it keeps
+ *              a running sum of 2^maxTailLength and, when limited to the last K
+ *              blocks, a ring of the last K max tail lengths stored one byte each
+ *              so that the oldest block can be subtracted as it is evicted. With
+ *              no limit only the current block is stored. Powers of two come from
+ *              a precomputed table and the sum is an exact long.
+ */
+public class BoundedAveragedFlajoletMartinAlgorithm implements DistinctCounter {
+
+    // Defines the number of bits in a Java int
+    private static final int MAX_BITS = 32;
+    private static final long[] POWERS_OF_TWO = new long[MAX_BITS];
+
+    static {
+        for (int i = 0; i < MAX_BITS; i++) {
+            POWERS_OF_TWO[i] = 1L << i;
+        }
+    }
+
+    private final int maxBlockSize;
+    private int currentBlockSize;
+
+    // Ring of the last K blocks' maxTailLengths, null when averaging all blocks
+    private final byte[] window;
+    private int windowStart;
+
+    private int currentMaxTailLength;
+    private long blockCount;
+    private long runningTotal;
+
+    /**
+     * Averages over every block seen so far.
+     *
+     * @param maxBlockSize
+     *          The number of stream elements per block, at least 1.
+     */
+    public BoundedAveragedFlajoletMartinAlgorithm(final int maxBlockSize) {
+        this(maxBlockSize, 0);
+    }
+
+    /**
+     * Averages over the last lastBlocks blocks, the current block included.
+     *
+     * @param maxBlockSize
+     *          The number of stream elements per block, at least 1.
+     * @param lastBlocks
+     *          The number of most recent blocks to average over,
+     *          or 0 to average over every block.
+     */
+    public BoundedAveragedFlajoletMartinAlgorithm(final int maxBlockSize, final int lastBlocks) {
+        if (maxBlockSize < 1) throw new IllegalArgumentException("maxBlockSize must be at least 1");
+        if (lastBlocks < 0) throw new IllegalArgumentException("lastBlocks must be non-negative");
+
+        this.maxBlockSize = maxBlockSize;
+        this.window = lastBlocks > 0 ? new byte[lastBlocks] : null;
+
+        // The first block starts with a maxTailLength of 0
+        this.currentBlockSize = 0;
+        this.currentMaxTailLength = 0;
+        this.blockCount = 1;
+        this.runningTotal = POWERS_OF_TWO[0];
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen so far.
+     *
+     * @return
+     *          The average of the 2^maxTailLengths of the blocks
+     *          being averaged over.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return (double) runningTotal / blockCount;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the window of block tail lengths.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return window == null ? 0 : window.length;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return 33 + (window == null ? 0 : window.length);
+    }
+
+    /**
+     * Writes the block size, window, current block and running total
+     * to dst. Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(maxBlockSize);
+        dst.putInt(window == null ? 0 : window.length);
+        dst.putInt(windowStart);
+        dst.putInt(currentBlockSize);
+        dst.put((byte) currentMaxTailLength);
+        dst.putLong(blockCount);
+        dst.putLong(runningTotal);
+        if (window != null) dst.put(window);
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static BoundedAveragedFlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        BoundedAveragedFlajoletMartinAlgorithm counter =
+                new BoundedAveragedFlajoletMartinAlgorithm(src.getInt(), src.getInt());
+        counter.windowStart = src.getInt();
+        counter.currentBlockSize = src.getInt();
+        counter.currentMaxTailLength = src.get();
+        counter.blockCount = src.getLong();
+        counter.runningTotal = src.getLong();
+        if (counter.window != null) src.get(counter.window);
+        return counter;
+    }
+
+    @Override
+    public void processInput(String s) {
+        // Step 1: Hash string s into a 32 bit signed int
+        processHash(s.hashCode());
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getJavaHash());
+    }
+
+    private void processHash(int i) {
+        // Step 2: Compute the tail length of i
+        int tailLength = Integer.numberOfTrailingZeros(i);
+        if (tailLength == MAX_BITS) tailLength = 0;
+
+        // Step 3: Replace the current block's maxTailLength if it is larger
+        if (tailLength > currentMaxTailLength) {
+            runningTotal += POWERS_OF_TWO[tailLength] - POWERS_OF_TWO[currentMaxTailLength];
+            currentMaxTailLength = tailLength;
+        }
+
+        // Step 4: Start a new block once the current one is full
+        if (++currentBlockSize == maxBlockSize) startNextBlock();
+    }
+
+    /**
+     * Retires the current block into the window, evicting the oldest
+     * block if the window is full, and starts a new block at 0.
+     */
+    private void startNextBlock() {
+        if (window != null) {
+            // The current block occupies the slot after the last retired one
+            int currentSlot = (int) ((windowStart + blockCount - 1) % window.length);
+            window[currentSlot] = (byte) currentMaxTailLength;
+
+            if (blockCount == window.length) {
+                runningTotal -= POWERS_OF_TWO[window[windowStart]];
+                windowStart = (windowStart + 1) % window.length;
+                blockCount--;
+            }
+        }
+
+        currentBlockSize = 0;
+        currentMaxTailLength = 0;
+        runningTotal += POWERS_OF_TWO[0];
+        blockCount++;
+    }
+}
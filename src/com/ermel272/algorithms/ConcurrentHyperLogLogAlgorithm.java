@@ -0,0 +1,157 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Class:       ConcurrentHyperLogLogAlgorithm.java
+ *
+ * Purpose:     Implements a HyperLogLog sketch that many threads may update
+ *              and estimate concurrently without locking.
+ *
+ * Description: Uses the same 64 bit hash, precision and register values as
+ *              {@link HyperLogLogPlusPlusAlgorithm}'s dense representation, but
+ *              packs ten 6 bit registers into each long word so that no register
+ *              straddles two words. A register is raised with a compare-and-set
+ *              of its word, retried only if another thread changed the word in
+ *              between. Since registers only ever grow, an update that would not
+ *              raise its register returns after a single read, which is the
+ *              common case once the sketch has warmed up. Estimates read each
+ *              word with acquire semantics and never block writers.
+ */
+public class ConcurrentHyperLogLogAlgorithm implements MergeableDistinctCounter<ConcurrentHyperLogLogAlgorithm> {
+
+    private static final int REGISTER_BITS = 6;
+    private static final int REGISTER_MASK = (1 << REGISTER_BITS) - 1;
+    private static final int REGISTERS_PER_WORD = 64 / REGISTER_BITS;
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int p;
+    private final int m;
+    private final long[] words;
+
+    public ConcurrentHyperLogLogAlgorithm() {
+        this(HyperLogLogPlusPlusAlgorithm.DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *          The number of hash bits used to select a register, between
+     *          HyperLogLogPlusPlusAlgorithm.MIN_PRECISION and MAX_PRECISION.
+     */
+    public ConcurrentHyperLogLogAlgorithm(final int precision) {
+        if (precision < HyperLogLogPlusPlusAlgorithm.MIN_PRECISION
+                || precision > HyperLogLogPlusPlusAlgorithm.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + HyperLogLogPlusPlusAlgorithm.MIN_PRECISION
+                    + " and " + HyperLogLogPlusPlusAlgorithm.MAX_PRECISION);
+        }
+
+        this.p = precision;
+        this.m = 1 << precision;
+        this.words = new long[(m + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD];
+    }
+
+    public int getPrecision() {
+        return p;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the packed registers.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 8L * words.length;
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements seen so far.
+     * May run concurrently with updates, in which case it reflects some
+     * of the updates in progress.
+     *
+     * @return
+     *          The improved raw estimate of the register values.
+     */
+    @Override
+    public double reportDistinctElements() {
+        int[] histogram = new int[64 - p + 2];
+
+        for (int j = 0; j < m; j++) {
+            long word = (long) WORDS.getAcquire(words, j / REGISTERS_PER_WORD);
+            histogram[(int) (word >>> shift(j)) & REGISTER_MASK]++;
+        }
+
+        return HyperLogLogEstimator.estimate(histogram, p);
+    }
+
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    /**
+     * Processes a precomputed 64 bit hash of a stream element.
+     * Safe to call from any number of threads.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        // Step 1: Compute register index j from the first p bits of the hash
+        int j = (int) (hash >>> (64 - p));
+
+        // Step 2: Compute the position of the leftmost one-bit of the remaining bits
+        int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+
+        // Step 3: Raise the register to rank if it is lower
+        raiseRegister(j, rank);
+    }
+
+    /**
+     * Raises each register to the other sketch's value if that is greater.
+     * Safe to call while either sketch is being updated.
+     *
+     * @param other
+     *          The sketch to be merged into this one, with the same precision.
+     */
+    @Override
+    public void merge(ConcurrentHyperLogLogAlgorithm other) {
+        if (other.p != p) throw new IllegalArgumentException("Cannot merge precision " + other.p + " into " + p);
+
+        for (int j = 0; j < m; j++) {
+            long word = (long) WORDS.getAcquire(other.words, j / REGISTERS_PER_WORD);
+            int rank = (int) (word >>> shift(j)) & REGISTER_MASK;
+            if (rank > 0) raiseRegister(j, rank);
+        }
+    }
+
+    /**
+     * CAS-max of register j, retrying only while another thread changes its word.
+     */
+    private void raiseRegister(int j, int rank) {
+        final int index = j / REGISTERS_PER_WORD;
+        final int shift = shift(j);
+        final long mask = (long) REGISTER_MASK << shift;
+
+        long word = (long) WORDS.getAcquire(words, index);
+        while (((word & mask) >>> shift) < rank) {
+            long updated = (word & ~mask) | ((long) rank << shift);
+            long witness = (long) WORDS.compareAndExchange(words, index, word, updated);
+            if (witness == word) return;
+            word = witness;
+        }
+    }
+
+    private static int shift(int j) {
+        return (j % REGISTERS_PER_WORD) * REGISTER_BITS;
+    }
+}
@@ -1,5 +1,10 @@
 package com.ermel272.algorithms;
 
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 
 /**
@@ -15,7 +20,7 @@ import java.util.HashSet;
  * @author Chris Ermel
  * @since 2016-10-31.
  */
-public class DeterministicAlgorithm {
+public class DeterministicAlgorithm implements DistinctCounter {
 
     private HashSet<String> usernameSet;
 
@@ -24,13 +29,70 @@ public class DeterministicAlgorithm {
         usernameSet = new HashSet<>();
     }
 
-    public int reportDistinctElements() {
+    @Override
+    public double reportDistinctElements() {
         // Return the current size of the HashSet
         return usernameSet.size();
     }
 
+    @Override
     public void processInput(String s) {
         // Add the string the the HashSet
         usernameSet.add(s);
     }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        // Exact counting requires the raw element rather than its hashes
+        usernameSet.add(hashes.getElement());
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public long getSerializedSize() {
+        long size = 4;
+        for (String username : usernameSet) {
+            size += 4 + Utf8.encodedLength(username);
+        }
+        return size;
+    }
+
+    /**
+     * Writes the number of user names followed by each user name as a
+     * length prefixed UTF-8 string. Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(usernameSet.size());
+
+        byte[] scratch = new byte[64];
+        for (String username : usernameSet) {
+            int maxLength = Utf8.maxEncodedLength(username.length());
+            if (maxLength > scratch.length) scratch = new byte[maxLength];
+
+            int length = Utf8.encode(username, scratch);
+            dst.putInt(length);
+            dst.put(scratch, 0, length);
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static DeterministicAlgorithm readFrom(ByteBuffer src) {
+        DeterministicAlgorithm counter = new DeterministicAlgorithm();
+        int count = src.getInt();
+        counter.usernameSet = new HashSet<>(Math.max(16, (int) (count / 0.75f) + 1));
+
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = src.getInt();
+            if (length > scratch.length) scratch = new byte[length];
+
+            src.get(scratch, 0, length);
+            counter.usernameSet.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        }
+        return counter;
+    }
 }
@@ -0,0 +1,72 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+
+/**
+ * Class:       DistinctCounter.java
+ *
+ * Purpose:     Defines the common contract shared by every algorithm
+ *              that counts the distinct elements of a stream.
+ *
+ * Description: Elements may be offered either raw via processInput(s),
+ *              or pre-hashed via processHashes(hashes) so that a single
+ *              {@link HashBundle} can be fanned out to many counters
+ *              without rehashing the element for each of them. A whole
+ *              {@link HashBatch} of elements may likewise be offered via
+ *              processBatch(batch), which counters override with a loop
+ *              over the hashes they use.
+ */
+public interface DistinctCounter {
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen so far.
+     *
+     * @return
+     *          The estimated number of distinct elements
+     *          seen so far.
+     */
+    double reportDistinctElements();
+
+    /**
+     * Processes the input string s, hashing it as required.
+     *
+     * @param s
+     *          The input string to be hashed.
+     */
+    void processInput(String s);
+
+    /**
+     * Processes a stream element whose hashes have already been computed.
+     *
+     * @param hashes
+     *          The precomputed hashes of the stream element.
+     */
+    void processHashes(HashBundle hashes);
+
+    /**
+     * Processes a batch of stream elements whose hashes have already been
+     * computed, by default one element at a time.
+     *
+     * @param batch
+     *          The precomputed hashes of the stream elements.
+     */
+    default void processBatch(HashBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            processHashes(batch.getBundle(i));
+        }
+    }
+
+    /**
+     * Measures the memory held by the counter's state, excluding the
+     * fixed overhead of its objects.
+     *
+     * @return
+     *          The number of bytes held, or -1 if the counter does not
+     *          track its size.
+     */
+    default long getSizeInBytes() {
+        return -1;
+    }
+}
@@ -0,0 +1,230 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.metrics.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class:       DistinctCounterDispatcher.java
+ *
+ * Purpose:     Hashes each stream element exactly once and fans the
+ *              resulting hashes out to every registered {@link DistinctCounter}.
+ *
+ * Description: Maintains a single reusable {@link HashBundle}. Each call to
+ *              processInput(...) recomputes the bundle for the element and
+ *              passes it to the registered counters in registration order.
+ *              Elements held as UTF-8 bytes are hashed in place. Batches of
+ *              elements given to processBatch(...) are hashed once into a
+ *              reusable {@link HashBatch} and handed to each counter whole.
+ *              When latency sampling is enabled, one in every n elements is
+ *              timed through each counter into that counter's
+ *              {@link LatencyHistogram}, so the clock is read only on sampled
+ *              elements; a batch holding a sampled element is timed whole and
+ *              recorded as its mean time per element.
+ */
+public class DistinctCounterDispatcher {
+
+    private final HashBundle hashes;
+    private final HashBatch batch;
+    private final List<DistinctCounter> counters;
+    private final List<LatencyHistogram> latencies;
+
+    // One less than the latency sampling interval, or -1 while disabled
+    private long latencySampleMask = -1;
+    private long dispatched;
+
+    public DistinctCounterDispatcher() {
+        hashes = new HashBundle();
+        batch = new HashBatch();
+        counters = new ArrayList<>();
+        latencies = new ArrayList<>();
+    }
+
+    /**
+     * Registers a counter to receive every subsequently processed element.
+     *
+     * @param counter
+     *          The counter to be registered.
+     */
+    public void register(DistinctCounter counter) {
+        counters.add(counter);
+        latencies.add(new LatencyHistogram());
+    }
+
+    /**
+     * Times every counter's processing of one in every everyElements elements.
+     *
+     * @param everyElements
+     *          The sampling interval, a power of two, or 0 to disable sampling.
+     */
+    public void sampleLatencies(int everyElements) {
+        if (everyElements < 0 || Integer.bitCount(everyElements) > 1) {
+            throw new IllegalArgumentException("everyElements must be 0 or a power of two");
+        }
+        latencySampleMask = everyElements - 1;
+    }
+
+    /**
+     * @return
+     *          The sampled processing latencies of counter in nanoseconds,
+     *          or null if it is not registered.
+     */
+    public LatencyHistogram getLatencies(DistinctCounter counter) {
+        for (int i = 0; i < counters.size(); i++) {
+            if (counters.get(i) == counter) return latencies.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * @return
+     *          An unmodifiable view of the registered counters.
+     */
+    public List<DistinctCounter> getCounters() {
+        return Collections.unmodifiableList(counters);
+    }
+
+    /**
+     * @return
+     *          The hashes of the element processed last, overwritten
+     *          by the next call to processInput(...).
+     */
+    public HashBundle getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Hashes the input string s once and hands the hashes
+     * to each registered counter.
+     *
+     * @param s
+     *          The input string to be hashed.
+     */
+    public void processInput(String s) {
+        // Step 1: Hash the element once
+        hashes.compute(s);
+
+        // Step 2: Fan the hashes out to every counter
+        dispatch();
+    }
+
+    /**
+     * Hashes the UTF-8 encoded element held in the buffer at
+     * [offset, offset + length) once, without copying it, and hands
+     * the hashes to each registered counter.
+     *
+     * @param buffer
+     *          The buffer holding the element.
+     * @param offset
+     *          The absolute index of the first byte of the element.
+     * @param length
+     *          The number of bytes in the element.
+     */
+    public void processInput(ByteBuffer buffer, int offset, int length) {
+        hashes.compute(buffer, offset, length);
+        dispatch();
+    }
+
+    /**
+     * Hashes the decimal digits of a numeric element once, without creating
+     * a String, and hands the hashes to each registered counter.
+     *
+     * @param element
+     *          The numeric element to be hashed.
+     */
+    public void processInput(long element) {
+        hashes.compute(element);
+        dispatch();
+    }
+
+    /**
+     * @return
+     *          The hashes of the batch processed last, overwritten
+     *          by the next call to processBatch(...).
+     */
+    public HashBatch getBatch() {
+        return batch;
+    }
+
+    /**
+     * Hashes the elements [offset, offset + length) of the array once and
+     * hands the batch of hashes to each registered counter.
+     */
+    public void processBatch(String[] elements, int offset, int length) {
+        batch.compute(elements, offset, length);
+        dispatchBatch();
+    }
+
+    /**
+     * Hashes count UTF-8 encoded elements held in the buffer, element i at
+     * [offsets[i], offsets[i] + lengths[i]), once, without copying them, and
+     * hands the batch of hashes to each registered counter.
+     */
+    public void processBatch(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+        batch.compute(buffer, offsets, lengths, count);
+        dispatchBatch();
+    }
+
+    /**
+     * Hashes the decimal digits of the numeric elements [offset, offset + length)
+     * of the array once and hands the batch of hashes to each registered counter.
+     */
+    public void processBatch(long[] elements, int offset, int length) {
+        batch.compute(elements, offset, length);
+        dispatchBatch();
+    }
+
+    private void dispatchBatch() {
+        int count = batch.size();
+        if (count == 0) return;
+
+        // Time the batch if it holds the next sampled element
+        long first = dispatched;
+        dispatched += count;
+        if (latencySampleMask >= 0 && ((first + latencySampleMask) & ~latencySampleMask) < dispatched) {
+            long start = System.nanoTime();
+            for (int i = 0; i < counters.size(); i++) {
+                counters.get(i).processBatch(batch);
+
+                long end = System.nanoTime();
+                latencies.get(i).record((end - start) / count);
+                start = end;
+            }
+            return;
+        }
+
+        for (int i = 0; i < counters.size(); i++) {
+            counters.get(i).processBatch(batch);
+        }
+    }
+
+    private void dispatch() {
+        if (latencySampleMask >= 0 && (dispatched++ & latencySampleMask) == 0) {
+            dispatchTimed();
+            return;
+        }
+
+        for (int i = 0; i < counters.size(); i++) {
+            counters.get(i).processHashes(hashes);
+        }
+    }
+
+    /**
+     * Dispatches while reading the clock once between each pair of counters.
+     */
+    private void dispatchTimed() {
+        long start = System.nanoTime();
+        for (int i = 0; i < counters.size(); i++) {
+            counters.get(i).processHashes(hashes);
+
+            long end = System.nanoTime();
+            latencies.get(i).record(end - start);
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class:       FingerprintSetAlgorithm.java
+ *
+ * Purpose:     Counts the distinct elements of a stream exactly, barring
+ *              64 bit hash collisions, in a fraction of the memory used by
+ *              {@link DeterministicAlgorithm} and outside of the Java heap.
+ *
+ * Description: Keeps the 64 bit hash of each distinct element in open addressing
+ *              hash tables with linear probing, each held in its own direct byte
+ *              buffer. The hash itself is the fingerprint and, being uniformly
+ *              distributed, its high bits pick the table, through a directory
+ *              of 2^depth entries, and its low bits pick the home slot within
+ *              it. The value 0 marks an empty slot, so the fingerprint 0 is
+ *              tracked by a flag instead. A table doubles once it is three
+ *              quarters full until it reaches MAX_SEGMENT_CAPACITY slots; a full
+ *              size table is instead split in two by one more high bit, doubling
+ *              the directory if needed, as in extendible hashing. The set thus
+ *              grows past the 2GB a single buffer can address, a split costs
+ *              only one table's worth of rehashing, and inserting never fails
+ *              short of running out of memory. It costs 11 to 21 bytes per
+ *              element. The JDK offers no supported way to free a direct
+ *              buffer, so a table replaced by growing or splitting is only
+ *              dropped: its memory is returned once the buffer is garbage
+ *              collected, which the JDK forces when direct memory reaches
+ *              -XX:MaxDirectMemorySize, and until then the process holds up to
+ *              a table more than getSizeInBytes() reports. Two elements are
+ *              only miscounted as one if their hashes collide, which for n
+ *              elements happens with probability about n^2 / 2^65.
+ */
+public class FingerprintSetAlgorithm implements MergeableDistinctCounter<FingerprintSetAlgorithm> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // The largest single table, 128MB, beyond which tables are split rather than grown
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 24;
+
+    private static final long EMPTY = 0;
+
+    private final int maxSegmentCapacity;
+
+    // Entry i holds the table for fingerprints whose top depth bits are i; a table
+    // whose own depth is d < depth appears in the 2^(depth - d) entries sharing its top d bits
+    private Segment[] directory;
+    private int depth;
+    private long capacity;
+
+    private long size;
+    private boolean containsZero;
+
+    public FingerprintSetAlgorithm() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedElements
+     *          The number of distinct elements to size the table for.
+     */
+    public FingerprintSetAlgorithm(final int expectedElements) {
+        this(expectedElements, MAX_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * @param expectedElements
+     *          The number of distinct elements to size the table for.
+     * @param maxSegmentCapacity
+     *          The number of slots, a power of two, past which a table is
+     *          split rather than doubled.
+     */
+    FingerprintSetAlgorithm(final int expectedElements, final int maxSegmentCapacity) {
+        if (Integer.bitCount(maxSegmentCapacity) != 1 || maxSegmentCapacity < DEFAULT_CAPACITY) {
+            throw new IllegalArgumentException("maxSegmentCapacity must be a power of two of at least "
+                    + DEFAULT_CAPACITY);
+        }
+        this.maxSegmentCapacity = maxSegmentCapacity;
+
+        long initialCapacity = DEFAULT_CAPACITY;
+        while (initialCapacity / 4 * 3 < expectedElements) {
+            initialCapacity <<= 1;
+        }
+
+        // Split up front into as many full size tables as the expected elements need
+        while ((initialCapacity >> depth) > maxSegmentCapacity) {
+            depth++;
+        }
+        directory = new Segment[1 << depth];
+        for (int i = 0; i < directory.length; i++) {
+            directory[i] = allocate(depth, (int) (initialCapacity >> depth));
+        }
+    }
+
+    /**
+     * Reports the number of distinct fingerprints seen so far.
+     *
+     * @return
+     *          The size of the set.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    /**
+     * Adds a precomputed 64 bit hash of a stream element to the set.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        if (hash == EMPTY) {
+            containsZero = true;
+            return;
+        }
+
+        Segment segment = directory[depth == 0 ? 0 : (int) (hash >>> (64 - depth))];
+        if (segment.insert(hash)) {
+            size++;
+            if (++segment.size > segment.resizeThreshold) grow(segment, hash);
+        }
+    }
+
+    /**
+     * Adds every fingerprint of other to this set.
+     *
+     * @param other
+     *          The set to be merged into this one.
+     */
+    @Override
+    public void merge(FingerprintSetAlgorithm other) {
+        containsZero |= other.containsZero;
+
+        for (int i = 0; i < other.directory.length; i += other.entriesOf(other.directory[i])) {
+            Segment segment = other.directory[i];
+            for (int slot = 0; slot < segment.capacity; slot++) {
+                long fingerprint = segment.table.getLong(slot << 3);
+                if (fingerprint != EMPTY) processHash(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * @return
+     *          The number of off-heap bytes held by the current tables, not
+     *          counting replaced tables awaiting garbage collection.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return capacity << 3;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write, which only fits
+     *          a single buffer for up to about 268 million fingerprints.
+     */
+    public long getSerializedSize() {
+        return 4 + 8L * (long) reportDistinctElements();
+    }
+
+    /**
+     * Writes the number of fingerprints followed by each fingerprint.
+     * Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt((int) reportDistinctElements());
+        if (containsZero) dst.putLong(EMPTY);
+
+        for (int i = 0; i < directory.length; i += entriesOf(directory[i])) {
+            Segment segment = directory[i];
+            for (int slot = 0; slot < segment.capacity; slot++) {
+                long fingerprint = segment.table.getLong(slot << 3);
+                if (fingerprint != EMPTY) dst.putLong(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static FingerprintSetAlgorithm readFrom(ByteBuffer src) {
+        int count = src.getInt();
+        FingerprintSetAlgorithm counter = new FingerprintSetAlgorithm(count);
+        for (int i = 0; i < count; i++) {
+            counter.processHash(src.getLong());
+        }
+        return counter;
+    }
+
+    /**
+     * @return
+     *          The number of directory entries that point to segment.
+     */
+    private int entriesOf(Segment segment) {
+        return 1 << (depth - segment.depth);
+    }
+
+    /**
+     * Makes room in the segment the fingerprint was just added to: doubles
+     * it, or once it has maxSegmentCapacity slots splits it in two by
+     * the next high bit of the fingerprint.
+     */
+    private void grow(Segment segment, long fingerprint) {
+        if (segment.capacity < maxSegmentCapacity) {
+            Segment grown = allocate(segment.depth, segment.capacity << 1);
+            segment.copyTo(grown, null);
+            replace(segment, grown, fingerprint);
+            release(segment);
+            return;
+        }
+
+        // Step 1: Double the directory if the segment is already told apart by every directory bit
+        if (segment.depth == depth) {
+            Segment[] doubled = new Segment[directory.length << 1];
+            for (int i = 0; i < doubled.length; i++) {
+                doubled[i] = directory[i >> 1];
+            }
+            directory = doubled;
+            depth++;
+        }
+
+        // Step 2: Move each fingerprint into the half picked by its next high bit
+        Segment low = allocate(segment.depth + 1, segment.capacity);
+        Segment high = allocate(segment.depth + 1, segment.capacity);
+        segment.copyTo(low, high);
+
+        // Step 3: Point the segment's directory entries at the halves
+        int first = (int) (fingerprint >>> (64 - depth)) & -entriesOf(segment);
+        int half = entriesOf(low);
+        for (int i = 0; i < half; i++) {
+            directory[first + i] = low;
+            directory[first + half + i] = high;
+        }
+        release(segment);
+    }
+
+    /**
+     * Points the directory entries of old, which hold fingerprint, at replacement.
+     */
+    private void replace(Segment old, Segment replacement, long fingerprint) {
+        int entries = entriesOf(old);
+        int first = depth == 0 ? 0 : (int) (fingerprint >>> (64 - depth)) & -entries;
+        for (int i = 0; i < entries; i++) {
+            directory[first + i] = replacement;
+        }
+    }
+
+    private Segment allocate(int segmentDepth, int segmentCapacity) {
+        capacity += segmentCapacity;
+        return new Segment(segmentDepth, segmentCapacity);
+    }
+
+    /**
+     * Drops a segment no longer in the directory, along with its reference to
+     * its buffer, whose memory the garbage collector then frees.
+     */
+    private void release(Segment segment) {
+        capacity -= segment.capacity;
+        segment.table = null;
+    }
+
+    /**
+     * One open addressing table, holding the fingerprints whose top depth
+     * bits are the same.
+     */
+    private static final class Segment {
+
+        private final int depth;
+        private ByteBuffer table;
+        private final int capacity;
+        private final int mask;
+        private final int resizeThreshold;
+        private int size;
+
+        private Segment(int depth, int capacity) {
+            // Direct buffers start zeroed, so every slot starts empty
+            this.depth = depth;
+            this.table = ByteBuffer.allocateDirect(capacity << 3).order(ByteOrder.nativeOrder());
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.resizeThreshold = capacity / 4 * 3;
+        }
+
+        /**
+         * Probes linearly from the fingerprint's home slot until it or an empty slot is found.
+         *
+         * @return
+         *          True if the fingerprint was not already present.
+         */
+        private boolean insert(long fingerprint) {
+            int slot = (int) fingerprint & mask;
+
+            while (true) {
+                long existing = table.getLong(slot << 3);
+                if (existing == fingerprint) return false;
+                if (existing == EMPTY) {
+                    table.putLong(slot << 3, fingerprint);
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Rehashes every fingerprint into low or, if high is not null and the
+         * fingerprint's bit below its top depth bits is set, into high.
+         */
+        private void copyTo(Segment low, Segment high) {
+            for (int slot = 0; slot < capacity; slot++) {
+                long fingerprint = table.getLong(slot << 3);
+                if (fingerprint == EMPTY) continue;
+
+                Segment target = high != null && (fingerprint << depth) < 0 ? high : low;
+                target.insert(fingerprint);
+                target.size++;
+            }
+        }
+    }
+}
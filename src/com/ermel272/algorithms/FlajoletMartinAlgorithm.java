@@ -1,5 +1,11 @@
 package com.ermel272.algorithms;
 
+import com.ermel272.hashes.BatchKernel;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+
+import java.nio.ByteBuffer;
+
 /**
  * Class:       FlajoletMartinAlgorithm.java
  *
@@ -14,11 +20,13 @@ package com.ermel272.algorithms;
  * @author Chris Ermel
  * @since 2016-10-26.
  */
-public class FlajoletMartinAlgorithm {
+public class FlajoletMartinAlgorithm implements MergeableDistinctCounter<FlajoletMartinAlgorithm>, RegisterCounter {
 
     // Defines the number of bits in a Java int
     private static final int MAX_BITS = 32;
 
+    private static final BatchKernel KERNEL = BatchKernel.create();
+
     private int maxTailLength;
 
     /**
@@ -35,9 +43,10 @@ public class FlajoletMartinAlgorithm {
      * @return
      *          2^maxTailLength
      */
-    public int reportDistinctElements() {
+    @Override
+    public double reportDistinctElements() {
         // Report 2^maxTailLength
-        return (int) Math.pow(2.0, (double) maxTailLength);
+        return Math.pow(2.0, (double) maxTailLength);
     }
 
     /**
@@ -49,10 +58,37 @@ public class FlajoletMartinAlgorithm {
      * @param s
      *          The input string to be hashed.
      */
+    @Override
     public void processInput(String s) {
         // Step 1: Hash string s into a 32 bit signed int
-        int i = s.hashCode();
+        processHash(s.hashCode());
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getJavaHash());
+    }
 
+    @Override
+    public void processBatch(HashBatch batch) {
+        processHashBatch(batch.getJavaHashes(), 0, batch.size());
+    }
+
+    /**
+     * Processes the Java string hashcodes of a batch of stream elements as a
+     * max reduction of their tail lengths, by a {@link BatchKernel} that uses
+     * the Vector API when available, followed by a single update of the
+     * maxTailLength.
+     *
+     * @param hashes
+     *          The hashes of the stream elements, at [offset, offset + length).
+     */
+    public void processHashBatch(int[] hashes, int offset, int length) {
+        int batchMax = KERNEL.maxTailLength(hashes, offset, length);
+        if (batchMax > maxTailLength) maxTailLength = batchMax;
+    }
+
+    private void processHash(int i) {
         // Step 2: Compute the tail length of i
         int tailLength = findTailLength(i);
 
@@ -60,6 +96,69 @@ public class FlajoletMartinAlgorithm {
         if (tailLength > maxTailLength) maxTailLength = tailLength;
     }
 
+    /**
+     * Keeps the larger of the two maxTailLengths.
+     *
+     * @param other
+     *          The counter to be merged into this one.
+     */
+    @Override
+    public void merge(FlajoletMartinAlgorithm other) {
+        if (other.maxTailLength > maxTailLength) maxTailLength = other.maxTailLength;
+    }
+
+    /**
+     * @return
+     *          1, the maxTailLength being the only register.
+     */
+    @Override
+    public int getRegisterCount() {
+        return 1;
+    }
+
+    @Override
+    public long getRegister(int j) {
+        return maxTailLength;
+    }
+
+    @Override
+    public void mergeRegister(int j, long value) {
+        if (value > maxTailLength) maxTailLength = (int) value;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the maxTailLength.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 4;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return 1;
+    }
+
+    /**
+     * Writes the maxTailLength to dst. Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.put((byte) maxTailLength);
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static FlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        FlajoletMartinAlgorithm counter = new FlajoletMartinAlgorithm();
+        counter.maxTailLength = src.get();
+        return counter;
+    }
+
     /**
      * Finds the binary tail length of a given signed integer i.
      * Converts the signed integer to an unsigned integer
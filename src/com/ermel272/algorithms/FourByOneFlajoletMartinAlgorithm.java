@@ -1,5 +1,7 @@
 package com.ermel272.algorithms;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class:       FourByOneFlajoletMartinAlgorithm.java
  *
@@ -15,7 +17,8 @@ package com.ermel272.algorithms;
  * @author Chris Ermel
  * @since 2016-11-26.
  */
-public class FourByOneFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgorithm {
+public class FourByOneFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgorithm
+        implements MergeableDistinctCounter<FourByOneFlajoletMartinAlgorithm> {
 
     @Override
     public double reportDistinctElements() {
@@ -28,4 +31,18 @@ public class FourByOneFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgo
 
         return Math.pow(2.0, computeMedian(averageValues));
     }
+
+    @Override
+    public void merge(FourByOneFlajoletMartinAlgorithm other) {
+        mergeMaxTailLengths(other);
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static FourByOneFlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        FourByOneFlajoletMartinAlgorithm counter = new FourByOneFlajoletMartinAlgorithm();
+        counter.readMaxTailLengths(src);
+        return counter;
+    }
 }
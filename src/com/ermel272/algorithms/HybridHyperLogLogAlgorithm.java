@@ -0,0 +1,279 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       HybridHyperLogLogAlgorithm.java
+ *
+ * Purpose:     Counts the distinct elements of a stream exactly while it is
+ *              small, and estimates them in bounded memory once it is large.
+ *
+ * Description: Starts as an open addressing set of the 64 bit hashes of the
+ *              elements, like {@link FingerprintSetAlgorithm} but on the heap and
+ *              starting from a handful of slots. When growing the set would take
+ *              it past the memory threshold, every hash is replayed into a
+ *              {@link HyperLogLogPlusPlusAlgorithm} and the set is dropped, after
+ *              which the counter behaves exactly like that sketch. The default
+ *              threshold is the size of the sketch's dense registers, so the
+ *              counter is only exact while exactness is no dearer than the
+ *              registers would be.
+ */
+public class HybridHyperLogLogAlgorithm implements MergeableDistinctCounter<HybridHyperLogLogAlgorithm> {
+
+    private static final int INITIAL_CAPACITY = 4;
+    private static final long EMPTY = 0;
+
+    private final int precision;
+    private final long memoryThreshold;
+
+    // Exact representation, null once switched to the sketch
+    private long[] hashes;
+    private int size;
+    private boolean containsZero;
+
+    // Approximate representation, null while exact
+    private HyperLogLogPlusPlusAlgorithm sketch;
+
+    public HybridHyperLogLogAlgorithm() {
+        this(HyperLogLogPlusPlusAlgorithm.DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *          The precision of the sketch switched to, between
+     *          HyperLogLogPlusPlusAlgorithm.MIN_PRECISION and MAX_PRECISION.
+     */
+    public HybridHyperLogLogAlgorithm(final int precision) {
+        this(precision, denseSizeInBytes(precision));
+    }
+
+    /**
+     * @param precision
+     *          The precision of the sketch switched to, between
+     *          HyperLogLogPlusPlusAlgorithm.MIN_PRECISION and MAX_PRECISION.
+     * @param memoryThreshold
+     *          The number of bytes the exact set may occupy before
+     *          switching to the sketch.
+     */
+    public HybridHyperLogLogAlgorithm(final int precision, final long memoryThreshold) {
+        if (precision < HyperLogLogPlusPlusAlgorithm.MIN_PRECISION
+                || precision > HyperLogLogPlusPlusAlgorithm.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between "
+                    + HyperLogLogPlusPlusAlgorithm.MIN_PRECISION + " and " + HyperLogLogPlusPlusAlgorithm.MAX_PRECISION);
+        }
+        if (memoryThreshold < 0) throw new IllegalArgumentException("memoryThreshold must be non-negative");
+
+        this.precision = precision;
+        this.memoryThreshold = memoryThreshold;
+        this.hashes = new long[INITIAL_CAPACITY];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public long getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * @return
+     *          True while the counter holds every hash, and so is exact.
+     */
+    public boolean isExact() {
+        return sketch == null;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the counter's current representation.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return isExact() ? 8L * hashes.length : sketch.getSizeInBytes();
+    }
+
+    /**
+     * Reports the number of distinct elements seen so far.
+     *
+     * @return
+     *          The exact count while exact, and the sketch's estimate after.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return isExact() ? size + (containsZero ? 1 : 0) : sketch.reportDistinctElements();
+    }
+
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    /**
+     * Processes a precomputed 64 bit hash of a stream element.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        if (!isExact()) {
+            sketch.processHash(hash);
+            return;
+        }
+
+        if (hash == EMPTY) {
+            containsZero = true;
+            return;
+        }
+
+        // Grow the set at three quarters full, unless doing so would cross the threshold
+        if (insert(hashes, hash) && ++size > hashes.length / 4 * 3) {
+            if (16L * hashes.length > memoryThreshold) {
+                switchToSketch();
+            } else {
+                grow();
+            }
+        }
+    }
+
+    /**
+     * Adds every element of other to this counter, which switches to the
+     * sketch if other has, or if the union outgrows the threshold.
+     *
+     * @param other
+     *          The counter to be merged into this one, with the same precision.
+     */
+    @Override
+    public void merge(HybridHyperLogLogAlgorithm other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into " + precision);
+        }
+
+        if (other.isExact()) {
+            // Copy the slots first, in case other is this counter
+            long[] otherHashes = other.hashes.clone();
+            if (other.containsZero) processHash(EMPTY);
+            for (long hash : otherHashes) {
+                if (hash != EMPTY) processHash(hash);
+            }
+            return;
+        }
+
+        if (isExact()) switchToSketch();
+        sketch.merge(other.sketch);
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        if (isExact()) return 1 + 8 + 1 + 4 + 8 * (int) reportDistinctElements();
+        return 1 + 8 + 1 + sketch.getSerializedSize();
+    }
+
+    /**
+     * Writes the precision, the threshold and whether the counter is exact,
+     * followed by either the number of hashes and each hash, or the sketch.
+     * Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.put((byte) precision);
+        dst.putLong(memoryThreshold);
+        dst.put((byte) (isExact() ? 1 : 0));
+
+        if (!isExact()) {
+            sketch.writeTo(dst);
+            return;
+        }
+
+        dst.putInt((int) reportDistinctElements());
+        if (containsZero) dst.putLong(EMPTY);
+        for (long hash : hashes) {
+            if (hash != EMPTY) dst.putLong(hash);
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static HybridHyperLogLogAlgorithm readFrom(ByteBuffer src) {
+        HybridHyperLogLogAlgorithm counter = new HybridHyperLogLogAlgorithm(src.get(), src.getLong());
+        boolean exact = src.get() != 0;
+
+        if (!exact) {
+            counter.hashes = null;
+            counter.sketch = HyperLogLogPlusPlusAlgorithm.readFrom(src);
+            return counter;
+        }
+
+        // The set grows exactly as it did when written, so it stays exact
+        int count = src.getInt();
+        for (int i = 0; i < count; i++) {
+            counter.processHash(src.getLong());
+        }
+        return counter;
+    }
+
+    /**
+     * Replays every hash into a new sketch, which replaces the set.
+     */
+    private void switchToSketch() {
+        sketch = new HyperLogLogPlusPlusAlgorithm(precision);
+        if (containsZero) sketch.processHash(EMPTY);
+        for (long hash : hashes) {
+            if (hash != EMPTY) sketch.processHash(hash);
+        }
+
+        hashes = null;
+        size = 0;
+        containsZero = false;
+    }
+
+    /**
+     * Probes linearly from the hash's home slot until it or an empty slot is found.
+     *
+     * @return
+     *          True if the hash was not already present.
+     */
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+
+        while (true) {
+            if (table[slot] == hash) return false;
+            if (table[slot] == EMPTY) {
+                table[slot] = hash;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Rehashes every hash into a set of twice the capacity.
+     */
+    private void grow() {
+        long[] old = hashes;
+        hashes = new long[old.length << 1];
+        for (long hash : old) {
+            if (hash != EMPTY) insert(hashes, hash);
+        }
+    }
+
+    /**
+     * @return
+     *          The size of the 6 bit registers of a dense sketch of the given precision.
+     */
+    private static long denseSizeInBytes(int precision) {
+        return (6L << precision) / 8;
+    }
+}
@@ -1,5 +1,11 @@
 package com.ermel272.algorithms;
 
+import com.ermel272.hashes.BatchKernel;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+
+import java.nio.ByteBuffer;
+
 /**
  * Class:       FlajoletMartinAlgorithm.java
  *
@@ -11,29 +17,57 @@ package com.ermel272.algorithms;
  * Description: Maintains m registers of the positions of the leftmost one bits
  *              of stream element hashes. Alpha value obtained from
  *              https://web.archive.org/web/20150323055945/http://research.neustar.biz/2012/10/25/sketch-of-the-day-hyperloglog-cornerstone-of-a-big-data-infrastructure/
+ *              The harmonic sum of the registers and the number of registers still
+ *              at negative infinity are maintained as registers change, so that
+ *              reporting an estimate takes constant time.
  *
  * @author Chris Ermel
  * @since 2016-11-26.
  * @link http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf
  */
-public class HyperLogLogAlgorithm {
+public class HyperLogLogAlgorithm implements MergeableDistinctCounter<HyperLogLogAlgorithm>, RegisterCounter {
 
     private static final int MAX_BITS = 32;
 
+    private static final BatchKernel KERNEL = BatchKernel.create();
+
     private int b = 11;
     private int m = (int) Math.pow(2.0, (double) b);    // Computes m = 2^b
     private double alpha = 0.7213 / (1 + 1.079 / m);
 
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE;
+
+    // Register values range from 1 - b (an all zero w) to MAX_BITS - b
+    private final int minRegister = 1 - b;
+    private final double[] inversePowers;
+
     private int[] registers;
 
+    // Register indexes and values of the current batch, and the positions that raise a register, grown on demand
+    private int[] batchIndexes = new int[0];
+    private int[] batchValues = new int[0];
+    private int[] batchUpdates = new int[0];
+
+    // Sum of 2^-register over registers that are not negative infinity
+    private double harmonicSum;
+    private int infiniteRegisters;
+
     public HyperLogLogAlgorithm() {
         // Initialize registers to negative infinity
-        int negativeInfinity = -2147483648;
         registers = new int[m];
 
         for (int i = 0; i < registers.length; i++) {
-            registers[i] = negativeInfinity;
+            registers[i] = NEGATIVE_INFINITY;
         }
+
+        // Precompute 2^-k for every reachable register value k
+        inversePowers = new double[MAX_BITS - b - minRegister + 1];
+        for (int k = minRegister; k <= MAX_BITS - b; k++) {
+            inversePowers[k - minRegister] = 1 / Math.pow(2.0, k);
+        }
+
+        harmonicSum = 0;
+        infiniteRegisters = m;
     }
 
     /**
@@ -43,15 +77,13 @@ public class HyperLogLogAlgorithm {
      * @return
      *          alpha * m^2 * Z
      */
+    @Override
     public double reportDistinctElements() {
-        // Compute Z value
-        double Z = 0;
+        // Any register at negative infinity contributes 2^infinity to Z
+        if (infiniteRegisters > 0) return 0;
 
-        for (int j = 0; j < m; j++) {
-            Z += (1 / Math.pow(2.0, registers[j]));
-        }
-
-        Z = 1 / Z;
+        // Compute Z value
+        double Z = 1 / harmonicSum;
 
         // Compute the estimate of the cardinality of the stream
         return alpha * Math.pow(m, 2.0) * Z;
@@ -67,10 +99,53 @@ public class HyperLogLogAlgorithm {
      * @param s
      *          The input string to be hashed.
      */
+    @Override
     public void processInput(String s) {
         // Step 1: Hash string s into a 32 bit signed int
-        int x = s.hashCode();
+        processHash(s.hashCode());
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getJavaHash());
+    }
+
+    @Override
+    public void processBatch(HashBatch batch) {
+        processHashBatch(batch.getJavaHashes(), 0, batch.size());
+    }
 
+    /**
+     * Processes the Java string hashcodes of a batch of stream elements.
+     * Every register index and value is computed first, then the elements
+     * whose value exceeds their register are selected, both by a
+     * {@link BatchKernel} that uses the Vector API when available. Only the
+     * selected elements update their registers, one at a time, since two
+     * elements of a batch may update the same register.
+     *
+     * @param hashes
+     *          The hashes of the stream elements, at [offset, offset + length).
+     */
+    public void processHashBatch(int[] hashes, int offset, int length) {
+        if (batchIndexes.length < length) {
+            batchIndexes = new int[length];
+            batchValues = new int[length];
+            batchUpdates = new int[length];
+        }
+
+        // Step 1: Compute the register index and value of every hash
+        KERNEL.registerIndexesAndRanks(hashes, offset, length, b, batchIndexes, batchValues);
+
+        // Step 2: Keep the larger of each register and the values selected for it
+        int updates = KERNEL.selectRegisterUpdates(registers, batchIndexes, batchValues, length, batchUpdates);
+        for (int k = 0; k < updates; k++) {
+            int i = batchUpdates[k];
+            int j = batchIndexes[i];
+            if (batchValues[i] > registers[j]) setRegister(j, batchValues[i]);
+        }
+    }
+
+    private void processHash(int x) {
         // Step 2: Compute binary address j determined by the first 4 bits of x
         int j = x >>> (MAX_BITS - b);
 
@@ -81,7 +156,107 @@ public class HyperLogLogAlgorithm {
         int p = findFirstOnePosition(w) - b;
 
         // Step 5: Replace the register m[j] if p is greater
-        if (p > registers[j]) registers[j] = p;
+        if (p > registers[j]) setRegister(j, p);
+    }
+
+    /**
+     * Keeps the larger value of each pair of registers.
+     *
+     * @param other
+     *          The counter to be merged into this one.
+     */
+    @Override
+    public void merge(HyperLogLogAlgorithm other) {
+        for (int j = 0; j < m; j++) {
+            if (other.registers[j] > registers[j]) setRegister(j, other.registers[j]);
+        }
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return m;
+    }
+
+    /**
+     * @return
+     *          0 for negative infinity, otherwise the register's offset
+     *          from the smallest reachable value plus 1.
+     */
+    @Override
+    public long getRegister(int j) {
+        return registers[j] == NEGATIVE_INFINITY ? 0 : registers[j] - minRegister + 1;
+    }
+
+    /**
+     * Keeps the larger of register j and the encoded value.
+     */
+    @Override
+    public void mergeRegister(int j, long value) {
+        if (value == 0) return;
+
+        int register = (int) value - 1 + minRegister;
+        if (register > registers[j]) setRegister(j, register);
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the registers and the table of their inverse powers.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 4L * registers.length + 8L * inversePowers.length;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return 1 + m;
+    }
+
+    /**
+     * Writes b followed by one byte per register: 0 for negative infinity,
+     * otherwise the register's offset from the smallest reachable value plus 1.
+     * Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.put((byte) b);
+        for (int j = 0; j < m; j++) {
+            dst.put(registers[j] == NEGATIVE_INFINITY ? 0 : (byte) (registers[j] - minRegister + 1));
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static HyperLogLogAlgorithm readFrom(ByteBuffer src) {
+        HyperLogLogAlgorithm counter = new HyperLogLogAlgorithm();
+
+        int b = src.get();
+        if (b != counter.b) throw new IllegalArgumentException("Cannot read registers for b = " + b);
+
+        for (int j = 0; j < counter.m; j++) {
+            int value = src.get();
+            if (value != 0) counter.setRegister(j, value - 1 + counter.minRegister);
+        }
+        return counter;
+    }
+
+    /**
+     * Sets register j, updating the harmonic sum and infinite register count.
+     * Every term is a power of two between 2^-21 and 2^10, so the sum of up to
+     * 2^11 of them is held exactly and never drifts.
+     */
+    private void setRegister(int j, int value) {
+        if (registers[j] == NEGATIVE_INFINITY) {
+            infiniteRegisters--;
+        } else {
+            harmonicSum -= inversePowers[registers[j] - minRegister];
+        }
+
+        harmonicSum += inversePowers[value - minRegister];
+        registers[j] = value;
     }
 
     private int findFirstOnePosition(int i) {
@@ -0,0 +1,82 @@
+package com.ermel272.algorithms;
+
+/**
+ * Class:       HyperLogLogEstimator.java
+ *
+ * Purpose:     Computes the cardinality estimate of a HyperLogLog sketch
+ *              from a histogram of its register values.
+ *
+ * Description: Implements the improved raw estimator of Ertl, which needs
+ *              no empirical bias correction tables and is accurate from
+ *              empty sketches up to the limit of the 64 bit hash.
+ *
+ * @link https://arxiv.org/abs/1702.01284
+ */
+final class HyperLogLogEstimator {
+
+    private static final double ALPHA_INFINITY = 1.0 / (2.0 * Math.log(2.0));
+
+    private HyperLogLogEstimator() {
+    }
+
+    /**
+     * @param histogram
+     *          histogram[k] is the number of registers holding k, for
+     *          k from 0 to 65 - p.
+     * @param p
+     *          The precision of the sketch, so that m = 2^p.
+     *
+     * @return
+     *          The estimated number of distinct elements.
+     */
+    static double estimate(int[] histogram, int p) {
+        int m = 1 << p;
+        int q = 64 - p;
+
+        double z = m * tau(1.0 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+
+        return ALPHA_INFINITY * m * m / z;
+    }
+
+    /**
+     * sigma(x) = x + sum_{k >= 1} x^(2^k) * 2^(k-1), from Ertl.
+     */
+    static double sigma(double x) {
+        if (x == 1.0) return Double.POSITIVE_INFINITY;
+
+        double y = 1.0;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (previous != z);
+
+        return z;
+    }
+
+    /**
+     * tau(x) = (1 - x - sum_{k >= 1} (1 - x^(2^-k))^2 * 2^-k) / 3, from Ertl.
+     */
+    static double tau(double x) {
+        if (x == 0.0 || x == 1.0) return 0.0;
+
+        double y = 1.0;
+        double z = 1.0 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1.0 - x) * (1.0 - x) * y;
+        } while (previous != z);
+
+        return z / 3.0;
+    }
+}
@@ -0,0 +1,594 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class:       HyperLogLogPlusPlusAlgorithm.java
+ *
+ * Purpose:     Implements the HyperLogLog++ Algorithm for estimating the distinct
+ *              number of elements in a data stream as described in HyperLogLog in
+ *              Practice: Algorithmic Engineering of a State of The Art Cardinality
+ *              Estimation Algorithm by Heule, Nunkesser, and Hall.
+ *
+ * Description: Uses a 64 bit hash and a configurable precision p, giving m = 2^p
+ *              registers. The sketch starts in a sparse representation: a sorted,
+ *              delta and varint encoded list of (index, rank) entries at precision
+ *              SPARSE_PRECISION, fed through a small unsorted buffer. Once the list,
+ *              its buffers and the index cache described below would outgrow the
+ *              dense representation it is converted to m registers packed into
+ *              6 bits each. While sparse the estimate is linear counting
+ *              at precision SPARSE_PRECISION, over the distinct indexes of the list
+ *              and the buffer, which are counted without merging the buffer into
+ *              the list; the buffer is only merged once full or when the sketch
+ *              is written, so reporting after every element stays cheap. Once
+ *              dense, the empirical bias tables of HLL++ are replaced by Ertl's
+ *              table free improved estimator, fed by a histogram of register
+ *              values that is kept up to date as registers change so that
+ *              reporting does not scan the registers.
+ *
+ * @link https://research.google.com/pubs/archive/40671.pdf
+ * @link https://arxiv.org/abs/1702.01284
+ */
+public class HyperLogLogPlusPlusAlgorithm implements MergeableDistinctCounter<HyperLogLogPlusPlusAlgorithm> {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 14;
+
+    // Precision of the indexes stored in the sparse representation
+    static final int SPARSE_PRECISION = 25;
+
+    private static final int REGISTER_BITS = 6;
+    private static final int REGISTER_MASK = (1 << REGISTER_BITS) - 1;
+    private static final int MIN_TEMP_SIZE = 16;
+    private static final int MAX_TEMP_SIZE = 1024;
+
+    private final int p;
+    private final int m;
+
+    // Sparse representation, unused once dense
+    private byte[] sparseList;
+    private int sparseCount;
+    private int[] temp;
+    private int tempCount;
+
+    // The distinct indexes of the sparse list, decoded on the first report after each merge,
+    // and the sorted distinct indexes of temp[0, countedTemp) that are not in the list
+    private int[] listIndexes;
+    private int[] newIndexes;
+    private int newIndexCount;
+    private int countedTemp;
+
+    // Dense representation, null while sparse
+    private long[] registers;
+
+    // histogram[k] is the number of dense registers holding k
+    private int[] histogram;
+
+    public HyperLogLogPlusPlusAlgorithm() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *          The number of hash bits used to select a register,
+     *          between MIN_PRECISION and MAX_PRECISION.
+     */
+    public HyperLogLogPlusPlusAlgorithm(final int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        }
+
+        this.p = precision;
+        this.m = 1 << precision;
+        this.sparseList = new byte[0];
+        this.temp = new int[MIN_TEMP_SIZE];
+        this.newIndexes = new int[MIN_TEMP_SIZE];
+    }
+
+    public int getPrecision() {
+        return p;
+    }
+
+    /**
+     * @return
+     *          True while the sketch is in its sparse representation.
+     */
+    public boolean isSparse() {
+        return registers == null;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the sketch's current representation,
+     *          while sparse including the decoded list indexes of the next report.
+     */
+    @Override
+    public long getSizeInBytes() {
+        if (isSparse()) return sparseSizeInBytes();
+        return 8L * registers.length + 4L * histogram.length;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        if (isSparse()) {
+            // The length the list will have once writeTo(dst) merges the buffer into it
+            int[] sorted = Arrays.copyOf(temp, tempCount);
+            Arrays.sort(sorted);
+            return 2 + 8 + (int) mergeSorted(sorted, tempCount, null);
+        }
+        return 2 + 8 * registers.length;
+    }
+
+    /**
+     * Writes the sketch to dst: its precision, whether it is sparse, and then
+     * either the encoded sparse list or the packed dense registers, as held
+     * in memory. Read back with readFrom(src).
+     *
+     * @param dst
+     *          The buffer to write to, with at least getSerializedSize() bytes remaining.
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.put((byte) p);
+        dst.put((byte) (isSparse() ? 1 : 0));
+
+        if (isSparse()) {
+            mergeTemp();
+            dst.putInt(sparseCount);
+            dst.putInt(sparseList.length);
+            dst.put(sparseList);
+            return;
+        }
+
+        dst.asLongBuffer().put(registers);
+        dst.position(dst.position() + 8 * registers.length);
+    }
+
+    /**
+     * Reads a sketch written by writeTo(dst), advancing src past it.
+     *
+     * @param src
+     *          The buffer to read from.
+     *
+     * @return
+     *          A sketch equal to the one written.
+     */
+    public static HyperLogLogPlusPlusAlgorithm readFrom(ByteBuffer src) {
+        HyperLogLogPlusPlusAlgorithm sketch = new HyperLogLogPlusPlusAlgorithm(src.get());
+        boolean sparse = src.get() != 0;
+
+        if (sparse) {
+            sketch.sparseCount = src.getInt();
+            sketch.sparseList = new byte[src.getInt()];
+            src.get(sketch.sparseList);
+            while (sketch.temp.length < MAX_TEMP_SIZE && sketch.temp.length < sketch.sparseCount / 4) {
+                sketch.temp = new int[2 * sketch.temp.length];
+            }
+            return sketch;
+        }
+
+        // Rebuild the histogram from the registers
+        sketch.convertToDense();
+        src.asLongBuffer().get(sketch.registers);
+        src.position(src.position() + 8 * sketch.registers.length);
+
+        sketch.histogram[0] = 0;
+        for (int j = 0; j < sketch.m; j++) {
+            sketch.histogram[sketch.getRegister(j)]++;
+        }
+        return sketch;
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen so far.
+     *
+     * @return
+     *          The linear counting estimate while sparse,
+     *          and the improved raw estimate once dense.
+     */
+    @Override
+    public double reportDistinctElements() {
+        if (isSparse()) {
+            // Linear counting over the 2^SPARSE_PRECISION sparse registers
+            double sparseM = 1 << SPARSE_PRECISION;
+            return sparseM * Math.log(sparseM / (sparseM - countSparseIndexes()));
+        }
+
+        // Apply the improved estimator to the incrementally maintained histogram
+        return HyperLogLogEstimator.estimate(histogram, p);
+    }
+
+    /**
+     * Processes the input string s, hashing its UTF-8 encoding to the
+     * same 64 bit hash a {@link HashBundle} would compute.
+     *
+     * @param s
+     *          The input string to be hashed.
+     */
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    @Override
+    public void processBatch(HashBatch batch) {
+        processHashBatch(batch.getHash64s(), 0, batch.size());
+    }
+
+    /**
+     * Processes the precomputed 64 bit hashes of a batch of stream elements.
+     *
+     * @param hashes
+     *          The hashes of the stream elements, at [offset, offset + length).
+     */
+    public void processHashBatch(long[] hashes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            processHash(hashes[i]);
+        }
+    }
+
+    /**
+     * Processes a precomputed 64 bit hash of a stream element.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        if (!isSparse()) {
+            // Step 1: Compute register index j from the first p bits of the hash
+            int j = (int) (hash >>> (64 - p));
+
+            // Step 2: Compute the position of the leftmost one-bit of the remaining bits
+            int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+
+            // Step 3: Replace the register if rank is greater
+            if (rank > getRegister(j)) setRegister(j, rank);
+            return;
+        }
+
+        addSparseEntry(encodeSparse(hash));
+    }
+
+    /**
+     * Keeps the larger rank of each pair of registers. A sparse sketch stays
+     * sparse when merged with a sparse sketch, and becomes dense when merged
+     * with a dense one.
+     *
+     * @param other
+     *          The counter to be merged into this one, with the same precision.
+     */
+    @Override
+    public void merge(HyperLogLogPlusPlusAlgorithm other) {
+        if (other.p != p) throw new IllegalArgumentException("Cannot merge precision " + other.p + " into " + p);
+
+        if (other.isSparse()) {
+            // Step 1: Replay the other sketch's sorted list, then its temporary buffer
+            int position = 0;
+            int entry = 0;
+            for (int i = 0; i < other.sparseCount; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = other.sparseList[position++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                entry += delta;
+                addSparseEntry(entry);
+            }
+            for (int i = 0; i < other.tempCount; i++) {
+                addSparseEntry(other.temp[i]);
+            }
+            return;
+        }
+
+        // Step 2: Take the register-wise max of two dense sketches
+        if (isSparse()) convertToDense();
+        for (int j = 0; j < m; j++) {
+            int rank = other.getRegister(j);
+            if (rank > getRegister(j)) setRegister(j, rank);
+        }
+    }
+
+    /**
+     * Adds an encoded sparse entry, converting to the dense
+     * representation once the sparse one grows too large.
+     */
+    private void addSparseEntry(int entry) {
+        if (!isSparse()) {
+            int j = sparseIndex(entry);
+            int rank = sparseRank(entry);
+            if (rank > getRegister(j)) setRegister(j, rank);
+            return;
+        }
+
+        temp[tempCount++] = entry;
+        if (tempCount == temp.length) {
+            mergeTemp();
+
+            // Convert once the sparse form, with the index cache it decodes, is no smaller than the dense form
+            if (sparseSizeInBytes() >= denseSizeInBytes()) convertToDense();
+        }
+    }
+
+    /**
+     * Encodes a hash as a sparse entry: the first SPARSE_PRECISION bits of the hash
+     * followed by a 6 bit rank field. The rank is only stored when the bits between
+     * p and SPARSE_PRECISION are all zero, as otherwise it can be recovered from them.
+     */
+    private int encodeSparse(long hash) {
+        int index = (int) (hash >>> (64 - SPARSE_PRECISION));
+        int rank = 0;
+        if ((index & ((1 << (SPARSE_PRECISION - p)) - 1)) == 0) {
+            rank = Long.numberOfLeadingZeros((hash << SPARSE_PRECISION) | (1L << (SPARSE_PRECISION - 1))) + 1;
+        }
+        return (index << REGISTER_BITS) | rank;
+    }
+
+    /**
+     * @return
+     *          The dense register index of a sparse entry.
+     */
+    private int sparseIndex(int entry) {
+        return entry >>> (REGISTER_BITS + SPARSE_PRECISION - p);
+    }
+
+    /**
+     * @return
+     *          The dense register rank of a sparse entry.
+     */
+    private int sparseRank(int entry) {
+        int rank = entry & REGISTER_MASK;
+        if (rank != 0) return rank + (SPARSE_PRECISION - p);
+
+        // Locate the leftmost one-bit between p and SPARSE_PRECISION
+        int extraBits = (entry >>> REGISTER_BITS) & ((1 << (SPARSE_PRECISION - p)) - 1);
+        return Integer.numberOfLeadingZeros(extraBits) - (32 - (SPARSE_PRECISION - p)) + 1;
+    }
+
+    /**
+     * Counts the distinct sparse indexes of the list and the temporary buffer
+     * without merging them, checking only the entries added to the buffer
+     * since the previous count against the list and the earlier entries.
+     */
+    private int countSparseIndexes() {
+        if (listIndexes == null) listIndexes = decodeListIndexes();
+        if (newIndexes.length < temp.length) newIndexes = Arrays.copyOf(newIndexes, temp.length);
+
+        for (; countedTemp < tempCount; countedTemp++) {
+            int index = temp[countedTemp] >>> REGISTER_BITS;
+            if (Arrays.binarySearch(listIndexes, index) >= 0) continue;
+
+            int position = Arrays.binarySearch(newIndexes, 0, newIndexCount, index);
+            if (position >= 0) continue;
+
+            position = -position - 1;
+            System.arraycopy(newIndexes, position, newIndexes, position + 1, newIndexCount - position);
+            newIndexes[position] = index;
+            newIndexCount++;
+        }
+        return sparseCount + newIndexCount;
+    }
+
+    /**
+     * @return
+     *          The sparse index of every entry of the list, ascending, each
+     *          index appearing once since the list keeps one entry per index.
+     */
+    private int[] decodeListIndexes() {
+        int[] indexes = new int[sparseCount];
+        int position = 0;
+        int entry = 0;
+        for (int i = 0; i < sparseCount; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = sparseList[position++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            entry += delta;
+            indexes[i] = entry >>> REGISTER_BITS;
+        }
+        return indexes;
+    }
+
+    /**
+     * Sorts the temporary buffer and merges it into the sparse list,
+     * keeping the largest rank for each sparse index.
+     */
+    private void mergeTemp() {
+        if (tempCount == 0) return;
+
+        Arrays.sort(temp, 0, tempCount);
+
+        byte[] merged = new byte[sparseList.length + 5 * tempCount];
+        long lengthAndCount = mergeSorted(temp, tempCount, merged);
+
+        sparseList = Arrays.copyOf(merged, (int) lengthAndCount);
+        sparseCount = (int) (lengthAndCount >>> 32);
+        tempCount = 0;
+
+        // The counted indexes now all belong to the list
+        listIndexes = null;
+        newIndexCount = 0;
+        countedTemp = 0;
+
+        // Grow the buffer alongside the list so merges stay infrequent
+        if (temp.length < MAX_TEMP_SIZE && temp.length < sparseCount / 4) temp = new int[2 * temp.length];
+    }
+
+    /**
+     * Merges the sparse list with sorted entries, keeping the largest rank
+     * for each sparse index, without modifying either.
+     *
+     * @param dst
+     *          The array to write the merged list to, or null to only
+     *          measure it.
+     *
+     * @return
+     *          The number of entries of the merged list in the high 32 bits,
+     *          and its length in bytes in the low 32 bits.
+     */
+    private long mergeSorted(int[] sorted, int count, byte[] dst) {
+        int mergedLength = 0;
+        int mergedCount = 0;
+        int previous = 0;
+        int pending = -1;
+
+        int listPosition = 0;
+        int listValue = 0;
+        int listRemaining = sparseCount;
+        int sortedPosition = 0;
+
+        while (listRemaining > 0 || sortedPosition < count) {
+            // Step 1: Take the smaller of the next list and sorted entries
+            int entry;
+            if (listRemaining > 0) {
+                int delta = 0;
+                int shift = 0;
+                int position = listPosition;
+                byte b;
+                do {
+                    b = sparseList[position++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int candidate = listValue + delta;
+
+                if (sortedPosition < count && sorted[sortedPosition] < candidate) {
+                    entry = sorted[sortedPosition++];
+                } else {
+                    entry = candidate;
+                    listValue = candidate;
+                    listPosition = position;
+                    listRemaining--;
+                }
+            } else {
+                entry = sorted[sortedPosition++];
+            }
+
+            // Step 2: Entries sharing an index are adjacent and ordered by rank, keep the last
+            if (pending >= 0 && (pending >>> REGISTER_BITS) != (entry >>> REGISTER_BITS)) {
+                mergedLength = writeVarInt(dst, mergedLength, pending - previous);
+                previous = pending;
+                mergedCount++;
+            }
+            pending = entry;
+        }
+
+        if (pending >= 0) {
+            mergedLength = writeVarInt(dst, mergedLength, pending - previous);
+            mergedCount++;
+        }
+        return ((long) mergedCount << 32) | mergedLength;
+    }
+
+    /**
+     * Writes value as a varint at dst[position], or only skips past it if
+     * dst is null.
+     *
+     * @return
+     *          The position after the varint.
+     */
+    private static int writeVarInt(byte[] dst, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            if (dst != null) dst[position] = (byte) ((value & 0x7f) | 0x80);
+            position++;
+            value >>>= 7;
+        }
+        if (dst != null) dst[position] = (byte) value;
+        return position + 1;
+    }
+
+    /**
+     * Replays every sparse entry into newly allocated dense registers.
+     */
+    private void convertToDense() {
+        mergeTemp();
+
+        registers = new long[(m * REGISTER_BITS + 63) / 64];
+        histogram = new int[64 - p + 2];
+        histogram[0] = m;
+
+        int position = 0;
+        int entry = 0;
+        for (int i = 0; i < sparseCount; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = sparseList[position++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            entry += delta;
+
+            int j = sparseIndex(entry);
+            int rank = sparseRank(entry);
+            if (rank > getRegister(j)) setRegister(j, rank);
+        }
+
+        sparseList = null;
+        temp = null;
+        listIndexes = null;
+        newIndexes = null;
+        sparseCount = 0;
+        tempCount = 0;
+    }
+
+    /**
+     * @return
+     *          The bytes held while sparse once the next report has decoded
+     *          the list's indexes, whether or not it has yet.
+     */
+    private long sparseSizeInBytes() {
+        return sparseList.length + 4L * temp.length + 4L * newIndexes.length + 4L * sparseCount;
+    }
+
+    private int denseSizeInBytes() {
+        return (m * REGISTER_BITS + 7) / 8;
+    }
+
+    private int getRegister(int j) {
+        int bit = j * REGISTER_BITS;
+        int word = bit >>> 6;
+        int shift = bit & 63;
+
+        long value = registers[word] >>> shift;
+        if (shift > 64 - REGISTER_BITS) value |= registers[word + 1] << (64 - shift);
+        return (int) value & REGISTER_MASK;
+    }
+
+    private void setRegister(int j, int value) {
+        histogram[getRegister(j)]--;
+        histogram[value]++;
+
+        int bit = j * REGISTER_BITS;
+        int word = bit >>> 6;
+        int shift = bit & 63;
+
+        registers[word] = (registers[word] & ~((long) REGISTER_MASK << shift)) | ((long) value << shift);
+        if (shift > 64 - REGISTER_BITS) {
+            int spilled = 64 - shift;
+            registers[word + 1] = (registers[word + 1] & ~((long) REGISTER_MASK >>> spilled))
+                    | ((long) value >>> spilled);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.util.Arrays;
+
+/**
+ * Class:       KMinValuesAlgorithm.java
+ *
+ * Purpose:     Implements the k minimum values (KMV) sketch, a bottom-k MinHash,
+ *              for estimating the distinct number of elements in a data stream
+ *              and the overlap of two streams, as described in On Synopses for
+ *              Distinct-Value Estimation Under Multiset Operations by Beyer,
+ *              Haas, Reinwald, Sismanis, and Gemulla.
+ *
+ * Description: Keeps the k smallest distinct 64 bit hashes seen, sorted, with
+ *              their sign bit flipped so that signed order is unsigned hash
+ *              order. Once full, a hash no smaller than the largest kept is
+ *              discarded after one comparison, so almost every element costs no
+ *              more than hashing. With fewer than k distinct hashes the count is
+ *              exact; otherwise, if U is the k-th smallest hash as a fraction of
+ *              the hash space, (k - 1) / U is an unbiased estimate with a relative
+ *              standard error of about 1 / sqrt(k - 2). Unlike HyperLogLog the
+ *              kept hashes are a uniform sample of the distinct elements, so the
+ *              k smallest hashes of the union of two sketches also tell how many
+ *              of them both streams share, giving Jaccard and intersection
+ *              estimates without inclusion-exclusion.
+ *
+ * @link https://dl.acm.org/doi/10.1145/1247480.1247504
+ */
+public class KMinValuesAlgorithm implements MergeableDistinctCounter<KMinValuesAlgorithm> {
+
+    public static final int MIN_K = 3;
+    public static final int DEFAULT_K = 2048;
+
+    private final int k;
+
+    // The smallest hashes with their sign bits flipped, ascending, in values[0, size)
+    private final long[] values;
+    private int size;
+
+    public KMinValuesAlgorithm() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k
+     *          The number of hashes kept, at least MIN_K.
+     */
+    public KMinValuesAlgorithm(final int k) {
+        if (k < MIN_K) throw new IllegalArgumentException("k must be at least " + MIN_K);
+
+        this.k = k;
+        this.values = new long[k];
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen so far.
+     *
+     * @return
+     *          The number of hashes kept while fewer than k, otherwise
+     *          (k - 1) / U.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return estimate(size, size < k ? 0 : values[k - 1]);
+    }
+
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    @Override
+    public void processBatch(HashBatch batch) {
+        processHashBatch(batch.getHash64s(), 0, batch.size());
+    }
+
+    /**
+     * Processes the precomputed 64 bit hashes of a batch of stream elements.
+     *
+     * @param hashes
+     *          The hashes of the stream elements, at [offset, offset + length).
+     */
+    public void processHashBatch(long[] hashes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            processHash(hashes[i]);
+        }
+    }
+
+    /**
+     * Keeps a precomputed 64 bit hash of a stream element if it is among
+     * the k smallest seen.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        long value = hash ^ Long.MIN_VALUE;
+
+        // Step 1: Discard the hash if the sketch is full and it is no smaller than every kept hash
+        if (size == k && value >= values[k - 1]) return;
+
+        // Step 2: Discard the hash if it is already kept
+        int i = Arrays.binarySearch(values, 0, size, value);
+        if (i >= 0) return;
+
+        // Step 3: Insert it in order, dropping the largest hash if the sketch was full
+        i = -i - 1;
+        int end = size < k ? size++ : k - 1;
+        System.arraycopy(values, i, values, i + 1, end - i);
+        values[i] = value;
+    }
+
+    /**
+     * Keeps the k smallest of the hashes of both sketches.
+     *
+     * @param other
+     *          The counter to be merged into this one, with the same k.
+     */
+    @Override
+    public void merge(KMinValuesAlgorithm other) {
+        checkSameK(other);
+
+        long[] merged = new long[k];
+        int mergedSize = mergeInto(merged, values, size, other.values, other.size);
+        System.arraycopy(merged, 0, values, 0, mergedSize);
+        size = mergedSize;
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the streams seen by this sketch and
+     * other, the fraction of the k smallest hashes of their union that both
+     * kept. Exact while their union holds fewer than k distinct hashes.
+     *
+     * @param other
+     *          A sketch with the same k.
+     *
+     * @return
+     *          The estimated |A intersect B| / |A union B|, or 0 if both are empty.
+     */
+    public double estimateJaccard(KMinValuesAlgorithm other) {
+        checkSameK(other);
+
+        int union = 0;
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (union < k && (i < size || j < other.size)) {
+            if (j == other.size || (i < size && values[i] < other.values[j])) {
+                i++;
+            } else if (i == size || values[i] > other.values[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+                shared++;
+            }
+            union++;
+        }
+        return union == 0 ? 0 : (double) shared / union;
+    }
+
+    /**
+     * Estimates the number of distinct elements of the union of the streams
+     * seen by this sketch and other, without modifying either.
+     *
+     * @param other
+     *          A sketch with the same k.
+     */
+    public double estimateUnion(KMinValuesAlgorithm other) {
+        checkSameK(other);
+
+        long[] merged = new long[k];
+        int mergedSize = mergeInto(merged, values, size, other.values, other.size);
+        return estimate(mergedSize, mergedSize < k ? 0 : merged[k - 1]);
+    }
+
+    /**
+     * Estimates the number of distinct elements seen by both this sketch and
+     * other, as their Jaccard similarity times the size of their union.
+     *
+     * @param other
+     *          A sketch with the same k.
+     */
+    public double estimateIntersection(KMinValuesAlgorithm other) {
+        return estimateJaccard(other) * estimateUnion(other);
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the kept hashes.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 8L * values.length;
+    }
+
+    private void checkSameK(KMinValuesAlgorithm other) {
+        if (other.k != k) throw new IllegalArgumentException("Cannot combine k = " + other.k + " with k = " + k);
+    }
+
+    /**
+     * Writes the smallest distinct values of two ascending arrays into dst,
+     * up to its length.
+     *
+     * @return
+     *          The number of values written.
+     */
+    private static int mergeInto(long[] dst, long[] a, int aSize, long[] b, int bSize) {
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (n < dst.length && (i < aSize || j < bSize)) {
+            if (j == bSize || (i < aSize && a[i] < b[j])) {
+                dst[n++] = a[i++];
+            } else if (i == aSize || a[i] > b[j]) {
+                dst[n++] = b[j++];
+            } else {
+                dst[n++] = a[i++];
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param size
+     *          The number of hashes kept, at most k.
+     * @param kthValue
+     *          The k-th smallest kept value, if size is k.
+     */
+    private double estimate(int size, long kthValue) {
+        if (size < k) return size;
+
+        // The k-th smallest hash as a fraction of the hash space, never 0
+        double u = ((kthValue ^ Long.MIN_VALUE) >>> 11 | 1) * 0x1.0p-53;
+        return (k - 1) / u;
+    }
+}
@@ -0,0 +1,23 @@
+package com.ermel272.algorithms;
+
+/**
+ * Class:       MergeableDistinctCounter.java
+ *
+ * Purpose:     Defines a {@link DistinctCounter} whose state can be combined
+ *              with that of another counter of the same kind.
+ *
+ * Description: After a.merge(b), a reports an estimate for the union of
+ *              the streams seen by a and b, as if a had processed both.
+ *              Counters are merged register by register, taking the max.
+ */
+public interface MergeableDistinctCounter<T extends MergeableDistinctCounter<T>> extends DistinctCounter {
+
+    /**
+     * Merges the state of other into this counter. other is not modified.
+     *
+     * @param other
+     *          The counter to be merged into this one. Must have been
+     *          created with the same configuration as this counter.
+     */
+    void merge(T other);
+}
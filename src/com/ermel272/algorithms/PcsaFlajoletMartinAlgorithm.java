@@ -0,0 +1,262 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class:       PcsaFlajoletMartinAlgorithm.java
+ *
+ * Purpose:     Implements Probabilistic Counting with Stochastic Averaging, the
+ *              form of the Flajolet-Martin Algorithm described in Probabilistic
+ *              Counting Algorithms for Data Base Applications by Flajolet & Martin.
+ *
+ * Description: Rather than evaluating one hash function per maxTailLength like
+ *              {@link FourByOneFlajoletMartinAlgorithm}, computes a single 64 bit
+ *              hash per element. Its low bits pick one of m buckets, and the
+ *              tail length of the remaining bits sets a bit in that bucket's
+ *              bitmap. A bucket's estimate is the position of the lowest bit not
+ *              set in its bitmap, which unlike the max tail length is not thrown
+ *              off by one unusually long tail. The buckets are split into groups
+ *              of consecutive buckets; each group's bitmaps are averaged into an
+ *              estimate of the whole stream, and the median of the group estimates
+ *              is reported. With a single group this is plain PCSA, whose standard
+ *              error is about 0.78 / sqrt(m). While a group still has empty
+ *              bitmaps and a small estimate, linear counting over its empty
+ *              bitmaps is used instead, and the small range correction of
+ *              Scheuermann & Mauve smooths the hand over between the two.
+ *
+ * @link http://algo.inria.fr/flajolet/Publications/FlMa85.pdf
+ */
+public class PcsaFlajoletMartinAlgorithm implements MergeableDistinctCounter<PcsaFlajoletMartinAlgorithm>, RegisterCounter {
+
+    public static final int MAX_BUCKETS = 1 << 16;
+    public static final int DEFAULT_BUCKETS = 256;
+
+    // The Flajolet-Martin magic constant, the expected bias of 2^R
+    private static final double PHI = 0.77351;
+
+    // Exponent of the small range correction
+    private static final double KAPPA = 1.75;
+
+    // Multiple of the buckets per group below which linear counting is used
+    private static final double LINEAR_COUNTING_THRESHOLD = 2.5;
+
+    private final int bucketBits;
+    private final int groups;
+
+    private final long[] bitmaps;
+
+    public PcsaFlajoletMartinAlgorithm() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param buckets
+     *          The number of buckets m, a power of two no greater than MAX_BUCKETS.
+     */
+    public PcsaFlajoletMartinAlgorithm(final int buckets) {
+        this(buckets, 1);
+    }
+
+    /**
+     * @param buckets
+     *          The number of buckets m, a power of two no greater than MAX_BUCKETS.
+     * @param groups
+     *          The number of groups whose estimates the median is taken of,
+     *          which must divide buckets.
+     */
+    public PcsaFlajoletMartinAlgorithm(final int buckets, final int groups) {
+        if (buckets < 1 || buckets > MAX_BUCKETS || Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("buckets must be a power of two no greater than " + MAX_BUCKETS);
+        }
+        if (groups < 1 || buckets % groups != 0) throw new IllegalArgumentException("groups must divide buckets");
+
+        this.bucketBits = Integer.numberOfTrailingZeros(buckets);
+        this.groups = groups;
+        this.bitmaps = new long[buckets];
+    }
+
+    public int getBuckets() {
+        return bitmaps.length;
+    }
+
+    public int getGroups() {
+        return groups;
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen so far.
+     *
+     * @return
+     *          The median of the estimates of each group.
+     */
+    @Override
+    public double reportDistinctElements() {
+        int bucketsPerGroup = bitmaps.length / groups;
+        double[] estimates = new double[groups];
+
+        for (int g = 0; g < groups; g++) {
+            // Step 1: Average the position of the lowest unset bit of each of the group's bitmaps
+            int sum = 0;
+            int empty = 0;
+            for (int i = g * bucketsPerGroup; i < (g + 1) * bucketsPerGroup; i++) {
+                sum += Long.numberOfTrailingZeros(~bitmaps[i]);
+                if (bitmaps[i] == 0) empty++;
+            }
+            double mean = (double) sum / bucketsPerGroup;
+
+            // Step 2: Estimate the group's share of the stream, by linear counting while it is small
+            double estimate = bucketsPerGroup / PHI * (Math.pow(2.0, mean) - Math.pow(2.0, -KAPPA * mean));
+            if (empty > 0 && estimate <= LINEAR_COUNTING_THRESHOLD * bucketsPerGroup) {
+                estimate = bucketsPerGroup * Math.log((double) bucketsPerGroup / empty);
+            }
+
+            // Step 3: Scale the share to the whole stream
+            estimates[g] = groups * estimate;
+        }
+
+        return computeMedian(estimates);
+    }
+
+    /**
+     * Processes the input string s, hashing its UTF-8 encoding to the
+     * same 64 bit hash a {@link HashBundle} would compute.
+     *
+     * @param s
+     *          The input string to be hashed.
+     */
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s));
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64());
+    }
+
+    @Override
+    public void processBatch(HashBatch batch) {
+        processHashBatch(batch.getHash64s(), 0, batch.size());
+    }
+
+    /**
+     * Processes the precomputed 64 bit hashes of a batch of stream elements.
+     *
+     * @param hashes
+     *          The hashes of the stream elements, at [offset, offset + length).
+     */
+    public void processHashBatch(long[] hashes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            processHash(hashes[i]);
+        }
+    }
+
+    /**
+     * Processes a precomputed 64 bit hash of a stream element.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     */
+    public void processHash(long hash) {
+        // Step 1: Pick the bucket from the low bits of the hash
+        int bucket = (int) hash & (bitmaps.length - 1);
+
+        // Step 2: Set the bit of the tail length of the remaining bits
+        int tailLength = Math.min(Long.numberOfTrailingZeros(hash >>> bucketBits), 63);
+        bitmaps[bucket] |= 1L << tailLength;
+    }
+
+    /**
+     * Takes the union of each pair of bitmaps.
+     *
+     * @param other
+     *          The counter to be merged into this one, with the same
+     *          number of buckets and groups.
+     */
+    @Override
+    public void merge(PcsaFlajoletMartinAlgorithm other) {
+        if (other.bitmaps.length != bitmaps.length || other.groups != groups) {
+            throw new IllegalArgumentException("Cannot merge " + other.bitmaps.length + " buckets in "
+                    + other.groups + " groups into " + bitmaps.length + " buckets in " + groups + " groups");
+        }
+
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] |= other.bitmaps[i];
+        }
+    }
+
+    /**
+     * @return
+     *          The number of buckets, each bitmap being a register.
+     */
+    @Override
+    public int getRegisterCount() {
+        return bitmaps.length;
+    }
+
+    @Override
+    public long getRegister(int j) {
+        return bitmaps[j];
+    }
+
+    /**
+     * Takes the union of bucket j's bitmap and the given bitmap.
+     */
+    @Override
+    public void mergeRegister(int j, long value) {
+        bitmaps[j] |= value;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the bitmaps.
+     */
+    @Override
+    public long getSizeInBytes() {
+        return 8L * bitmaps.length;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public int getSerializedSize() {
+        return 4 + 4 + 8 * bitmaps.length;
+    }
+
+    /**
+     * Writes the number of buckets and groups followed by each bitmap.
+     * Read back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(bitmaps.length);
+        dst.putInt(groups);
+        for (long bitmap : bitmaps) {
+            dst.putLong(bitmap);
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static PcsaFlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        PcsaFlajoletMartinAlgorithm counter = new PcsaFlajoletMartinAlgorithm(src.getInt(), src.getInt());
+        for (int i = 0; i < counter.bitmaps.length; i++) {
+            counter.bitmaps[i] = src.getLong();
+        }
+        return counter;
+    }
+
+    private static double computeMedian(double[] values) {
+        Arrays.sort(values);
+
+        int middle = values.length / 2;
+        return values.length % 2 == 0 ? (values[middle - 1] + values[middle]) / 2 : values[middle];
+    }
+}
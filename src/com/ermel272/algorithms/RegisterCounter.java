@@ -0,0 +1,45 @@
+package com.ermel272.algorithms;
+
+/**
+ * Class:       RegisterCounter.java
+ *
+ * Purpose:     Defines a {@link DistinctCounter} whose state is a fixed array
+ *              of registers that can be read and combined one at a time, so that
+ *              only the registers that changed need be sent to another counter.
+ *
+ * Description: A register only ever grows: processing elements or merging in
+ *              a value leaves it at the least upper bound of its old and new
+ *              values, e.g. their max, or their bitwise or for bitmaps. Merging
+ *              a register is therefore idempotent and order independent, so
+ *              register values may be sent more than once, and from many
+ *              counters, and the receiver still ends up with their union.
+ */
+public interface RegisterCounter extends DistinctCounter {
+
+    /**
+     * @return
+     *          The number of registers, fixed by the counter's configuration.
+     */
+    int getRegisterCount();
+
+    /**
+     * @param j
+     *          The register, between 0 and getRegisterCount().
+     *
+     * @return
+     *          The value of register j, encoded as a long that is 0 while
+     *          the register is empty.
+     */
+    long getRegister(int j);
+
+    /**
+     * Combines a value read from register j of a counter of the same
+     * configuration into register j of this one.
+     *
+     * @param j
+     *          The register, between 0 and getRegisterCount().
+     * @param value
+     *          The encoded value, as returned by getRegister(j).
+     */
+    void mergeRegister(int j, long value);
+}
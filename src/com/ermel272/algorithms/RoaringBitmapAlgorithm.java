@@ -0,0 +1,472 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class:       RoaringBitmapAlgorithm.java
+ *
+ * Purpose:     Counts the distinct elements of a stream of 64 bit integer
+ *              keys, such as user ids, exactly.
+ *
+ * Description: A Roaring style compressed bitmap. Each key is split into its
+ *              high 48 bits, which select a container, and its low 16 bits,
+ *              which are stored in that container. A container holding at most
+ *              4096 values keeps them as a sorted array of chars, and is
+ *              converted to a bitmap of 2^16 bits once it grows beyond that, so
+ *              no container ever costs more than 8KB or 2 bytes per value.
+ *              Containers are found through an open addressing hash table on
+ *              their high bits, and the container last used is remembered
+ *              since ids arriving together tend to be close. Roaring's run
+ *              containers are omitted, as ids are rarely consecutive. Unlike
+ *              {@link FingerprintSetAlgorithm}, the keys themselves are stored,
+ *              so the count is exact.
+ *
+ * @link https://arxiv.org/abs/1402.6407
+ */
+public class RoaringBitmapAlgorithm implements MergeableDistinctCounter<RoaringBitmapAlgorithm> {
+
+    // Largest array container, beyond which a bitmap is smaller
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = (1 << 16) / 64;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private Container[] containers;
+    private int mask;
+    private int containerCount;
+
+    private long cardinality;
+
+    // The slot of the container last used, valid until the table grows
+    private long lastKey;
+    private int lastSlot = -1;
+
+    public RoaringBitmapAlgorithm() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Reports the number of distinct keys seen so far.
+     *
+     * @return
+     *          The number of keys in the bitmap.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return cardinality;
+    }
+
+    /**
+     * Adds the key held by s as a decimal number.
+     *
+     * @throws NumberFormatException
+     *          If s is not a 64 bit integer.
+     */
+    @Override
+    public void processInput(String s) {
+        processInput(Long.parseLong(s));
+    }
+
+    /**
+     * Adds the key held by the hashed element as a decimal number. This needs
+     * the element as a String, so callers holding the key itself should call
+     * processInput(long) instead.
+     */
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processInput(hashes.getElement());
+    }
+
+    /**
+     * Adds a key to the bitmap.
+     *
+     * @param key
+     *          The stream element.
+     */
+    public void processInput(long key) {
+        // Step 1: Find the key's container, creating it if needed
+        int slot = slotOf(key >>> 16, true);
+
+        // Step 2: Add the low bits, replacing the container if it changes form
+        Container container = containers[slot];
+        int before = container.cardinality;
+        containers[slot] = container.add((char) key);
+        if (containers[slot].cardinality != before) cardinality++;
+    }
+
+    /**
+     * @return
+     *          True if key has been seen.
+     */
+    public boolean contains(long key) {
+        int slot = slotOf(key >>> 16, false);
+        return slot >= 0 && containers[slot].contains((char) key);
+    }
+
+    /**
+     * Adds every key of other to this bitmap.
+     *
+     * @param other
+     *          The bitmap to be merged into this one.
+     */
+    @Override
+    public void merge(RoaringBitmapAlgorithm other) {
+        for (int i = 0; i < other.containers.length; i++) {
+            if (other.containers[i] == null) continue;
+
+            int slot = slotOf(other.keys[i], true);
+            Container container = containers[slot];
+            int before = container.cardinality;
+            containers[slot] = container.addAll(other.containers[i]);
+            cardinality += containers[slot].cardinality - before;
+        }
+    }
+
+    /**
+     * @return
+     *          The number of containers, one per distinct high 48 bits.
+     */
+    public int getContainerCount() {
+        return containerCount;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the hash table and the values of
+     *          the containers.
+     */
+    @Override
+    public long getSizeInBytes() {
+        long size = 12L * keys.length;
+        for (Container container : containers) {
+            if (container != null) size += container.getSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * @return
+     *          The number of bytes writeTo(dst) will write.
+     */
+    public long getSerializedSize() {
+        long size = 4;
+        for (Container container : containers) {
+            if (container != null) size += 8 + 2 + container.getSerializedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the number of containers followed by each container's high bits,
+     * its cardinality less one, and its sorted values or bitmap words. Read
+     * back with readFrom(src).
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(containerCount);
+        for (int i = 0; i < containers.length; i++) {
+            if (containers[i] == null) continue;
+
+            dst.putLong(keys[i]);
+            dst.putChar((char) (containers[i].cardinality - 1));
+            containers[i].writeTo(dst);
+        }
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static RoaringBitmapAlgorithm readFrom(ByteBuffer src) {
+        RoaringBitmapAlgorithm counter = new RoaringBitmapAlgorithm();
+        int count = src.getInt();
+
+        for (int i = 0; i < count; i++) {
+            int slot = counter.slotOf(src.getLong(), true);
+            int containerCardinality = src.getChar() + 1;
+            counter.containers[slot] = containerCardinality <= MAX_ARRAY_SIZE
+                    ? ArrayContainer.readFrom(src, containerCardinality)
+                    : BitmapContainer.readFrom(src, containerCardinality);
+            counter.cardinality += containerCardinality;
+        }
+
+        return counter;
+    }
+
+    /**
+     * Finds the slot of the container for the high bits of a key, probing
+     * linearly from its home slot.
+     *
+     * @param create
+     *          Whether to add an empty container if there is none.
+     *
+     * @return
+     *          The slot, or -1 if there is no container and create is false.
+     */
+    private int slotOf(long high, boolean create) {
+        if (lastSlot >= 0 && lastKey == high) return lastSlot;
+
+        int slot = (int) Murmur3Hash.fmix64(high) & mask;
+        while (containers[slot] != null) {
+            if (keys[slot] == high) return remember(high, slot);
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return -1;
+
+        // Keep the table at most half full
+        if (++containerCount > containers.length / 2) {
+            grow();
+            slot = (int) Murmur3Hash.fmix64(high) & mask;
+            while (containers[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        keys[slot] = high;
+        containers[slot] = new ArrayContainer();
+        return remember(high, slot);
+    }
+
+    private int remember(long high, int slot) {
+        lastKey = high;
+        lastSlot = slot;
+        return slot;
+    }
+
+    /**
+     * Rehashes every container into a table of twice the capacity.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        Container[] oldContainers = containers;
+        allocate(oldContainers.length << 1);
+
+        for (int i = 0; i < oldContainers.length; i++) {
+            if (oldContainers[i] == null) continue;
+
+            int slot = (int) Murmur3Hash.fmix64(oldKeys[i]) & mask;
+            while (containers[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            containers[slot] = oldContainers[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        containers = new Container[capacity];
+        mask = capacity - 1;
+        lastSlot = -1;
+    }
+
+    /**
+     * The low 16 bits of the keys sharing the same high 48 bits.
+     */
+    private static abstract class Container {
+
+        int cardinality;
+
+        /**
+         * @return
+         *          This container, or one of a different form holding
+         *          its values and value.
+         */
+        abstract Container add(char value);
+
+        /**
+         * @return
+         *          This container, or one of a different form holding
+         *          its values and those of other.
+         */
+        abstract Container addAll(Container other);
+
+        abstract boolean contains(char value);
+
+        abstract long getSizeInBytes();
+
+        abstract int getSerializedSize();
+
+        abstract void writeTo(ByteBuffer dst);
+    }
+
+    /**
+     * A sparse container, holding its values in ascending order.
+     */
+    private static final class ArrayContainer extends Container {
+
+        private static final int INITIAL_SIZE = 4;
+
+        char[] values;
+
+        ArrayContainer() {
+            values = new char[INITIAL_SIZE];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) return this;
+
+            if (cardinality == MAX_ARRAY_SIZE) return toBitmap().add(value);
+
+            // Shift the larger values up to make room
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, values.length + (values.length >> 1)));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container addAll(Container other) {
+            if (other instanceof BitmapContainer) {
+                return ((BitmapContainer) other).copy().addAll(this);
+            }
+
+            // Step 1: Merge the two sorted arrays
+            ArrayContainer array = (ArrayContainer) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int i = 0, j = 0, n = 0;
+            while (i < cardinality && j < array.cardinality) {
+                char a = values[i], b = array.values[j];
+                if (a <= b) i++;
+                if (b <= a) j++;
+                merged[n++] = a <= b ? a : b;
+            }
+            while (i < cardinality) merged[n++] = values[i++];
+            while (j < array.cardinality) merged[n++] = array.values[j++];
+
+            // Step 2: Keep the result as an array only if it is small enough
+            ArrayContainer result = new ArrayContainer(merged, n);
+            return n <= MAX_ARRAY_SIZE ? result : result.toBitmap();
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 2L * values.length;
+        }
+
+        @Override
+        int getSerializedSize() {
+            return 2 * cardinality;
+        }
+
+        @Override
+        void writeTo(ByteBuffer dst) {
+            for (int i = 0; i < cardinality; i++) {
+                dst.putChar(values[i]);
+            }
+        }
+
+        static ArrayContainer readFrom(ByteBuffer src, int cardinality) {
+            char[] values = new char[cardinality];
+            for (int i = 0; i < cardinality; i++) {
+                values[i] = src.getChar();
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * A dense container, holding one bit for each of the 2^16 possible values.
+     */
+    private static final class BitmapContainer extends Container {
+
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) == 0) {
+                words[value >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container addAll(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    add(array.values[i]);
+                }
+                return this;
+            }
+
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= otherWords[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 8L * BITMAP_WORDS;
+        }
+
+        @Override
+        int getSerializedSize() {
+            return 8 * BITMAP_WORDS;
+        }
+
+        @Override
+        void writeTo(ByteBuffer dst) {
+            for (long word : words) {
+                dst.putLong(word);
+            }
+        }
+
+        static BitmapContainer readFrom(ByteBuffer src, int cardinality) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] = src.getLong();
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        private BitmapContainer copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.ermel272.algorithms;
+
+import java.util.function.Supplier;
+
+/**
+ * Class:       SetOverlapEstimate.java
+ *
+ * Purpose:     Estimates how the distinct elements of two streams A and B
+ *              overlap, from sketches of each, without the exact sets.
+ *
+ * Description: For any {@link MergeableDistinctCounter}, such as
+ *              {@link HyperLogLogAlgorithm} or {@link HyperLogLogPlusPlusAlgorithm},
+ *              |A union B| is the estimate of a fresh counter merged with both
+ *              sketches, and the intersection follows by inclusion-exclusion,
+ *              |A intersect B| = |A| + |B| - |A union B|, clamped to
+ *              [0, min(|A|, |B|)]. Its error is that of the union's estimate,
+ *              so it is only useful while the intersection is a sizeable
+ *              fraction of the union. A
+ *              {@link KMinValuesAlgorithm} instead samples the union directly,
+ *              keeping the intersection's relative error proportional to that
+ *              of the Jaccard similarity even for small overlaps.
+ */
+public final class SetOverlapEstimate {
+
+    private final double a;
+    private final double b;
+    private final double union;
+    private final double intersection;
+
+    private SetOverlapEstimate(double a, double b, double union, double intersection) {
+        this.a = a;
+        this.b = b;
+        this.union = union;
+        this.intersection = intersection;
+    }
+
+    /**
+     * Estimates the overlap of two mergeable sketches by inclusion-exclusion.
+     * Neither sketch is modified.
+     *
+     * @param factory
+     *          Creates an empty counter of the same configuration as a and b,
+     *          into which both are merged.
+     */
+    public static <T extends MergeableDistinctCounter<T>> SetOverlapEstimate of(Supplier<T> factory, T a, T b) {
+        T merged = factory.get();
+        merged.merge(a);
+        merged.merge(b);
+
+        double aEstimate = a.reportDistinctElements();
+        double bEstimate = b.reportDistinctElements();
+
+        // The union holds at least as many elements as either stream, whatever the estimates' errors
+        double union = Math.max(merged.reportDistinctElements(), Math.max(aEstimate, bEstimate));
+        double intersection = Math.min(Math.max(aEstimate + bEstimate - union, 0), Math.min(aEstimate, bEstimate));
+        return new SetOverlapEstimate(aEstimate, bEstimate, union, intersection);
+    }
+
+    /**
+     * Estimates the overlap of two KMV sketches from the sample of their union.
+     * Neither sketch is modified.
+     */
+    public static SetOverlapEstimate of(KMinValuesAlgorithm a, KMinValuesAlgorithm b) {
+        double union = a.estimateUnion(b);
+        return new SetOverlapEstimate(a.reportDistinctElements(), b.reportDistinctElements(), union,
+                a.estimateJaccard(b) * union);
+    }
+
+    /**
+     * @return
+     *          The estimated |A|.
+     */
+    public double getA() {
+        return a;
+    }
+
+    /**
+     * @return
+     *          The estimated |B|.
+     */
+    public double getB() {
+        return b;
+    }
+
+    /**
+     * @return
+     *          The estimated |A union B|.
+     */
+    public double getUnion() {
+        return union;
+    }
+
+    /**
+     * @return
+     *          The estimated |A intersect B|.
+     */
+    public double getIntersection() {
+        return intersection;
+    }
+
+    /**
+     * @return
+     *          The estimated |A intersect B| / |A union B|, or 0 if both are empty.
+     */
+    public double getJaccard() {
+        return union == 0 ? 0 : intersection / union;
+    }
+
+    /**
+     * @return
+     *          The estimated |A minus B|.
+     */
+    public double getDifference() {
+        return Math.max(a - intersection, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "SetOverlapEstimate{a=" + a + ", b=" + b + ", union=" + union + ", intersection=" + intersection
+                + ", jaccard=" + getJaccard() + "}";
+    }
+}
@@ -0,0 +1,315 @@
+package com.ermel272.algorithms;
+
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Class:       SlidingHyperLogLogAlgorithm.java
+ *
+ * Purpose:     Implements the Sliding HyperLogLog Algorithm for estimating the
+ *              distinct number of elements that arrived within a sliding window
+ *              of time, as described in Sliding HyperLogLog: Estimating cardinality
+ *              in a data stream over a sliding window by Chabchoub and Hebrail.
+ *
+ * Description: Uses the same 64 bit hash, precision and register values as
+ *              {@link HyperLogLogPlusPlusAlgorithm}'s dense representation, but
+ *              instead of the max rank each register keeps its list of future
+ *              possible maxima: the (timestamp, rank) pairs that would be the
+ *              register's value for some window ending now. Timestamps increase
+ *              and ranks strictly decrease along a list, so it never holds more
+ *              than 65 - p pairs, and pairs older than the maximum window are
+ *              dropped as the register is updated. The value of a register for a
+ *              window is the rank of the first pair inside it, so a single pass
+ *              over the registers answers any window up to the maximum.
+ *
+ * @link https://hal.archives-ouvertes.fr/hal-00465313/document
+ */
+public class SlidingHyperLogLogAlgorithm implements MergeableDistinctCounter<SlidingHyperLogLogAlgorithm> {
+
+    private static final int RANK_BITS = 6;
+    private static final long RANK_MASK = (1L << RANK_BITS) - 1;
+    private static final int INITIAL_LIST_SIZE = 2;
+
+    private final int p;
+    private final int m;
+    private final long maxWindowMillis;
+    private final LongSupplier clock;
+
+    // lists[j] holds register j's pairs packed as (timestamp << RANK_BITS | rank), null while empty
+    private final long[][] lists;
+    private final int[] listSizes;
+
+    private long latestTimestamp;
+
+    /**
+     * @param maxWindowMillis
+     *          The longest window, in milliseconds, that may be queried.
+     */
+    public SlidingHyperLogLogAlgorithm(final long maxWindowMillis) {
+        this(HyperLogLogPlusPlusAlgorithm.DEFAULT_PRECISION, maxWindowMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param precision
+     *          The number of hash bits used to select a register, between
+     *          HyperLogLogPlusPlusAlgorithm.MIN_PRECISION and MAX_PRECISION.
+     * @param maxWindowMillis
+     *          The longest window, in milliseconds, that may be queried.
+     * @param clock
+     *          Supplies the arrival time, in milliseconds, of elements offered
+     *          without a timestamp and the end of windows queried without one.
+     */
+    public SlidingHyperLogLogAlgorithm(final int precision, final long maxWindowMillis, final LongSupplier clock) {
+        if (precision < HyperLogLogPlusPlusAlgorithm.MIN_PRECISION
+                || precision > HyperLogLogPlusPlusAlgorithm.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + HyperLogLogPlusPlusAlgorithm.MIN_PRECISION
+                    + " and " + HyperLogLogPlusPlusAlgorithm.MAX_PRECISION);
+        }
+        if (maxWindowMillis < 1) throw new IllegalArgumentException("maxWindowMillis must be at least 1");
+
+        this.p = precision;
+        this.m = 1 << precision;
+        this.maxWindowMillis = maxWindowMillis;
+        this.clock = clock;
+        this.lists = new long[m][];
+        this.listSizes = new int[m];
+    }
+
+    public int getPrecision() {
+        return p;
+    }
+
+    public long getMaxWindowMillis() {
+        return maxWindowMillis;
+    }
+
+    /**
+     * @return
+     *          The number of bytes held by the lists of future possible maxima.
+     */
+    @Override
+    public long getSizeInBytes() {
+        long size = 4L * listSizes.length;
+        for (long[] list : lists) {
+            if (list != null) size += 8L * list.length;
+        }
+        return size;
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen within the maximum window ending now.
+     *
+     * @return
+     *          The improved raw estimate of the register values.
+     */
+    @Override
+    public double reportDistinctElements() {
+        return reportDistinctElements(maxWindowMillis);
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements
+     * seen within the window ending now.
+     *
+     * @param windowMillis
+     *          The length of the window, at most the maximum window.
+     *
+     * @return
+     *          The improved raw estimate of the register values.
+     */
+    public double reportDistinctElements(long windowMillis) {
+        return reportDistinctElements(windowMillis, clock.getAsLong());
+    }
+
+    /**
+     * Reports the estimate of the number of distinct elements whose
+     * timestamps lie in (now - windowMillis, now].
+     *
+     * @param windowMillis
+     *          The length of the window, at most the maximum window.
+     * @param now
+     *          The end of the window, in milliseconds, no earlier than the
+     *          latest timestamp seen. Pairs that only matter to windows
+     *          ending in the past have already been discarded.
+     *
+     * @return
+     *          The improved raw estimate of the register values.
+     */
+    public double reportDistinctElements(long windowMillis, long now) {
+        if (windowMillis < 0 || windowMillis > maxWindowMillis) {
+            throw new IllegalArgumentException("windowMillis must be between 0 and " + maxWindowMillis);
+        }
+        if (now < latestTimestamp) throw new IllegalArgumentException("now must not precede the latest timestamp");
+
+        long cutoff = now - windowMillis;
+        int[] histogram = new int[64 - p + 2];
+
+        for (int j = 0; j < m; j++) {
+            histogram[registerValue(j, cutoff)]++;
+        }
+
+        return HyperLogLogEstimator.estimate(histogram, p);
+    }
+
+    @Override
+    public void processInput(String s) {
+        processHash(Murmur3Hash.hash64Utf8(s), clock.getAsLong());
+    }
+
+    @Override
+    public void processHashes(HashBundle hashes) {
+        processHash(hashes.getHash64(), clock.getAsLong());
+    }
+
+    /**
+     * Processes a precomputed 64 bit hash of a stream element that arrived
+     * at the given time. Timestamps are expected in non-decreasing order;
+     * an earlier timestamp than one already seen is treated as the latest.
+     *
+     * @param hash
+     *          The 64 bit hash of the stream element.
+     * @param timestamp
+     *          The arrival time of the stream element, in milliseconds.
+     */
+    public void processHash(long hash, long timestamp) {
+        if (timestamp < 0) throw new IllegalArgumentException("timestamp must be non-negative");
+        if (timestamp > latestTimestamp) latestTimestamp = timestamp;
+
+        // Step 1: Compute register index j from the first p bits of the hash
+        int j = (int) (hash >>> (64 - p));
+
+        // Step 2: Compute the position of the leftmost one-bit of the remaining bits
+        int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+
+        // Step 3: Add the pair to register j's list of future possible maxima
+        addPair(j, latestTimestamp, rank);
+    }
+
+    /**
+     * Combines the lists of future possible maxima of each pair of registers,
+     * as if this sketch had seen both streams.
+     *
+     * @param other
+     *          The sketch to be merged into this one, with the same precision
+     *          and maximum window.
+     */
+    @Override
+    public void merge(SlidingHyperLogLogAlgorithm other) {
+        if (other.p != p) throw new IllegalArgumentException("Cannot merge precision " + other.p + " into " + p);
+        if (other.maxWindowMillis != maxWindowMillis) {
+            throw new IllegalArgumentException("Cannot merge a window of " + other.maxWindowMillis + "ms into "
+                    + maxWindowMillis + "ms");
+        }
+
+        latestTimestamp = Math.max(latestTimestamp, other.latestTimestamp);
+
+        long[] merged = new long[2 * (64 - p + 1)];
+        long[] kept = new long[64 - p + 1];
+        for (int j = 0; j < m; j++) {
+            if (other.listSizes[j] == 0) continue;
+
+            // Step 1: Interleave both lists by timestamp
+            int size = mergeByTimestamp(lists[j], listSizes[j], other.lists[j], other.listSizes[j], merged);
+
+            // Step 2: Keep only the pairs that outrank every later pair, latest first
+            int keptCount = 0;
+            int laterRank = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                int rank = (int) (merged[i] & RANK_MASK);
+                if (rank > laterRank) {
+                    kept[keptCount++] = merged[i];
+                    laterRank = rank;
+                }
+            }
+
+            long[] list = new long[Math.max(keptCount, INITIAL_LIST_SIZE)];
+            for (int i = 0; i < keptCount; i++) {
+                list[i] = kept[keptCount - 1 - i];
+            }
+            lists[j] = list;
+            listSizes[j] = keptCount;
+            expire(j);
+        }
+    }
+
+    /**
+     * Appends (timestamp, rank) to register j's list, first removing the pairs
+     * it makes redundant: those with no greater rank, and those that have
+     * fallen out of the maximum window.
+     */
+    private void addPair(int j, long timestamp, int rank) {
+        long[] list = lists[j];
+        int size = listSizes[j];
+
+        // An equal or greater rank seen at the same time already covers this pair
+        if (size > 0 && list[size - 1] >>> RANK_BITS == timestamp && (list[size - 1] & RANK_MASK) >= rank) return;
+
+        // Ranks strictly decrease along the list, so dominated pairs form its tail
+        while (size > 0 && (list[size - 1] & RANK_MASK) <= rank) {
+            size--;
+        }
+
+        if (list == null) {
+            list = lists[j] = new long[INITIAL_LIST_SIZE];
+        } else if (size == list.length) {
+            list = lists[j] = Arrays.copyOf(list, 2 * size);
+        }
+
+        list[size++] = timestamp << RANK_BITS | rank;
+        listSizes[j] = size;
+        expire(j);
+    }
+
+    /**
+     * Drops the pairs of register j that no window ending at or after the
+     * latest timestamp can contain.
+     */
+    private void expire(int j) {
+        long[] list = lists[j];
+        int size = listSizes[j];
+        long cutoff = latestTimestamp - maxWindowMillis;
+
+        int expired = 0;
+        while (expired < size && list[expired] >>> RANK_BITS <= cutoff) {
+            expired++;
+        }
+
+        if (expired > 0) {
+            System.arraycopy(list, expired, list, 0, size - expired);
+            listSizes[j] = size - expired;
+        }
+    }
+
+    /**
+     * @return
+     *          The max rank of register j among pairs after cutoff, or 0.
+     */
+    private int registerValue(int j, long cutoff) {
+        long[] list = lists[j];
+        int size = listSizes[j];
+
+        // The first pair inside the window has the greatest rank of those in it
+        for (int i = 0; i < size; i++) {
+            if (list[i] >>> RANK_BITS > cutoff) return (int) (list[i] & RANK_MASK);
+        }
+        return 0;
+    }
+
+    private static int mergeByTimestamp(long[] a, int aSize, long[] b, int bSize, long[] dst) {
+        int i = 0;
+        int k = 0;
+        int size = 0;
+        while (i < aSize || k < bSize) {
+            if (k == bSize || (i < aSize && a[i] >>> RANK_BITS <= b[k] >>> RANK_BITS)) {
+                dst[size++] = a[i++];
+            } else {
+                dst[size++] = b[k++];
+            }
+        }
+        return size;
+    }
+}
@@ -1,5 +1,7 @@
 package com.ermel272.algorithms;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class:       TwoByTwoFlajoletMartinAlgorithm.java
  *
@@ -15,7 +17,8 @@ package com.ermel272.algorithms;
  * @author Chris Ermel
  * @since 2016-11-26.
  */
-public class TwoByTwoFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgorithm {
+public class TwoByTwoFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgorithm
+        implements MergeableDistinctCounter<TwoByTwoFlajoletMartinAlgorithm> {
 
     @Override
     public double reportDistinctElements() {
@@ -27,4 +30,18 @@ public class TwoByTwoFlajoletMartinAlgorithm extends AbstractFlajoletMartinAlgor
         // Return median of the averages raised to the power 2
         return Math.pow(2.0, computeMedian(averageValues));
     }
+
+    @Override
+    public void merge(TwoByTwoFlajoletMartinAlgorithm other) {
+        mergeMaxTailLengths(other);
+    }
+
+    /**
+     * Reads a counter written by writeTo(dst), advancing src past it.
+     */
+    public static TwoByTwoFlajoletMartinAlgorithm readFrom(ByteBuffer src) {
+        TwoByTwoFlajoletMartinAlgorithm counter = new TwoByTwoFlajoletMartinAlgorithm();
+        counter.readMaxTailLengths(src);
+        return counter;
+    }
 }
@@ -0,0 +1,345 @@
+package com.ermel272.controllers;
+
+import com.ermel272.algorithms.MergeableDistinctCounter;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.Utf8;
+import com.ermel272.util.StreamElementListener;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Class:       ShardedIngestionEngine.java
+ *
+ * Purpose:     Spreads the work of hashing and counting stream elements
+ *              across several worker threads.
+ *
+ * Description: The producing thread copies elements, as UTF-8 bytes, into
+ *              fixed size batches which are handed to the shards round robin.
+ *              Each shard owns a worker thread and a private counter that no
+ *              other thread touches, so the hot path needs no locking. Full
+ *              shard queues block the producer. Because every counter is
+ *              mergeable the partitioning does not matter, and snapshot()
+ *              merges a copy of each shard's counter into a single estimate.
+ *              Batches are recycled, so steady state ingestion allocates
+ *              nothing per element. Workers hash each batch column-wise into a
+ *              {@link HashBatch} and hand it to their counter in one call. If a
+ *              worker's counter throws, the failure is recorded once for the
+ *              whole engine, and the producer's next element, flush, snapshot
+ *              or shutdown rethrows it rather than queueing further batches.
+ */
+public class ShardedIngestionEngine<T extends MergeableDistinctCounter<T>> implements StreamElementListener {
+
+    private static final int BATCH_ELEMENTS = 1024;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final int BATCHES_PER_SHARD = 8;
+
+    private final Supplier<T> counterFactory;
+    private final List<Shard> shards;
+    private final BlockingQueue<Batch> freeBatches;
+    private final CountDownLatch endOfStream;
+    private final AtomicReference<Throwable> failure;
+
+    private Batch current;
+    private int nextShard;
+
+    /**
+     * Creates and starts the engine's worker threads.
+     *
+     * @param numShards
+     *          The number of worker threads, each with a private counter.
+     * @param counterFactory
+     *          Creates the empty counters owned by each shard, and into
+     *          which snapshots are merged.
+     */
+    public ShardedIngestionEngine(final int numShards, final Supplier<T> counterFactory) {
+        if (numShards < 1) throw new IllegalArgumentException("numShards must be at least 1");
+
+        this.counterFactory = counterFactory;
+        this.freeBatches = new ArrayBlockingQueue<>(numShards * BATCHES_PER_SHARD + 1);
+        this.endOfStream = new CountDownLatch(1);
+        this.failure = new AtomicReference<>();
+
+        for (int i = 0; i < numShards * BATCHES_PER_SHARD; i++) {
+            freeBatches.add(new Batch());
+        }
+        current = new Batch();
+
+        shards = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            Shard shard = new Shard(i);
+            shards.add(shard);
+            shard.start();
+        }
+    }
+
+    /**
+     * Queues a stream element for counting. Must only be called from
+     * a single producing thread.
+     *
+     * @throws IllegalStateException
+     *          If a shard has failed.
+     */
+    @Override
+    public void onElement(String element) {
+        checkFailure();
+        int maxLength = Utf8.maxEncodedLength(element.length());
+        if (!current.hasRoomFor(maxLength)) flush();
+
+        current.ensureCapacity(maxLength);
+        current.length += Utf8.encode(element, current.data, current.length);
+        current.ends[current.count++] = current.length;
+    }
+
+    /**
+     * Queues the UTF-8 encoded stream element held in the buffer at
+     * [offset, offset + length) for counting. Must only be called from
+     * a single producing thread.
+     *
+     * @throws IllegalStateException
+     *          If a shard has failed.
+     */
+    @Override
+    public void onElement(ByteBuffer buffer, int offset, int length) {
+        checkFailure();
+        if (!current.hasRoomFor(length)) flush();
+
+        current.ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            current.data[current.length + i] = buffer.get(offset + i);
+        }
+        current.length += length;
+        current.ends[current.count++] = current.length;
+    }
+
+    @Override
+    public void onEndOfStream() {
+        // Release awaitEndOfStream() even if a shard has failed, so the failure reaches the caller
+        try {
+            flush();
+        } finally {
+            endOfStream.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the source feeding this engine reports the end of its stream.
+     */
+    public void awaitEndOfStream() throws InterruptedException {
+        endOfStream.await();
+    }
+
+    /**
+     * Merges the counters of every shard into a new counter. Reflects every
+     * element queued before the call. Must be called from the producing thread.
+     *
+     * @return
+     *          A new counter holding the union of every shard's state.
+     */
+    public T snapshot() throws InterruptedException {
+        flush();
+
+        // Step 1: Ask every shard for a copy of its counter
+        List<CompletableFuture<T>> copies = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            CompletableFuture<T> copy = new CompletableFuture<>();
+            copies.add(copy);
+            shard.queue.put(Batch.snapshotRequest(copy));
+        }
+
+        // Step 2: Merge the copies once each shard has drained its earlier batches
+        T merged = counterFactory.get();
+        for (CompletableFuture<T> copy : copies) {
+            try {
+                merged.merge(copy.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Shard failed", e.getCause());
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * @return
+     *          The first exception thrown by a shard's counter, or null
+     *          if every shard is healthy.
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Drains every queued element and stops the worker threads, which are
+     * stopped even if a shard has failed and the failure is rethrown.
+     */
+    public void shutdown() throws InterruptedException {
+        try {
+            flush();
+        } finally {
+            for (Shard shard : shards) {
+                shard.queue.put(Batch.POISON);
+            }
+            for (Shard shard : shards) {
+                shard.join();
+            }
+        }
+    }
+
+    /**
+     * Hands the current batch, if non-empty, to the next shard.
+     *
+     * @throws IllegalStateException
+     *          If a shard has failed, in which case the batch is dropped.
+     */
+    private void flush() {
+        checkFailure();
+        if (current.count == 0) return;
+
+        try {
+            shards.get(nextShard).queue.put(current);
+            nextShard = (nextShard + 1) % shards.size();
+            current = freeBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing a batch", e);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable cause = failure.get();
+        if (cause != null) throw new IllegalStateException("Shard failed", cause);
+    }
+
+    /**
+     * A worker thread and the private counter it feeds.
+     */
+    private final class Shard extends Thread {
+
+        private final BlockingQueue<Batch> queue;
+        private final T counter;
+        private final HashBatch hashes;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        Shard(int index) {
+            super("ingestion-shard-" + index);
+            setDaemon(true);
+
+            queue = new ArrayBlockingQueue<>(BATCHES_PER_SHARD);
+            counter = counterFactory.get();
+            hashes = new HashBatch(BATCH_ELEMENTS);
+            offsets = new int[BATCH_ELEMENTS];
+            lengths = new int[BATCH_ELEMENTS];
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Batch batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (batch == Batch.POISON) return;
+
+                // Snapshot requests are answered in order, so they see every earlier batch
+                Throwable cause = failure.get();
+                if (batch.snapshot != null) {
+                    if (cause != null) {
+                        batch.snapshot.completeExceptionally(cause);
+                    } else {
+                        completeSnapshot(batch);
+                    }
+                    continue;
+                }
+
+                // Once any shard has failed the estimate is lost, so batches are only recycled
+                if (cause == null) {
+                    try {
+                        process(batch);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+
+                batch.clear();
+                freeBatches.add(batch);
+            }
+        }
+
+        private void process(Batch batch) {
+            int start = 0;
+            for (int i = 0; i < batch.count; i++) {
+                offsets[i] = start;
+                lengths[i] = batch.ends[i] - start;
+                start = batch.ends[i];
+            }
+
+            counter.processBatch(hashes.compute(ByteBuffer.wrap(batch.data), offsets, lengths, batch.count));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void completeSnapshot(Batch request) {
+            T copy = counterFactory.get();
+            copy.merge(counter);
+            ((CompletableFuture<T>) request.snapshot).complete(copy);
+        }
+    }
+
+    /**
+     * A run of UTF-8 encoded elements laid end to end, or a snapshot request.
+     */
+    private static final class Batch {
+
+        static final Batch POISON = new Batch(0);
+
+        byte[] data;
+        final int[] ends;
+        int count;
+        int length;
+        CompletableFuture<?> snapshot;
+
+        Batch() {
+            this(BATCH_ELEMENTS);
+        }
+
+        private Batch(int elements) {
+            data = new byte[elements == 0 ? 0 : BATCH_BYTES];
+            ends = new int[elements];
+        }
+
+        static Batch snapshotRequest(CompletableFuture<?> snapshot) {
+            Batch request = new Batch(0);
+            request.snapshot = snapshot;
+            return request;
+        }
+
+        boolean hasRoomFor(int bytes) {
+            return count < ends.length && (length + bytes <= data.length || count == 0);
+        }
+
+        /**
+         * Grows the data array, only ever needed for a single oversized element.
+         */
+        void ensureCapacity(int bytes) {
+            if (length + bytes > data.length) data = Arrays.copyOf(data, length + bytes);
+        }
+
+        void clear() {
+            count = 0;
+            length = 0;
+        }
+    }
+}
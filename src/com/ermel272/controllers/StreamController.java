@@ -1,8 +1,32 @@
 package com.ermel272.controllers;
 
 import com.ermel272.algorithms.*;
-import com.ermel272.util.TwitterStreamUtil;
-import twitter4j.*;
+import com.ermel272.grouping.FileSpillStore;
+import com.ermel272.grouping.KeyedCounterMap;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.metrics.PipelineMetrics;
+import com.ermel272.persistence.Checkpoint;
+import com.ermel272.persistence.Checkpointer;
+import com.ermel272.query.SnapshotPublisher;
+import com.ermel272.reporting.EstimateReporter;
+import com.ermel272.reporting.OverflowPolicy;
+import com.ermel272.reporting.ReportSampler;
+import com.ermel272.rollup.RollupStore;
+import com.ermel272.util.InputKey;
+import com.ermel272.util.StreamElementListener;
+import com.ermel272.util.StreamSource;
+import com.ermel272.util.TwitterStreamSource;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Class:       StreamController.java
@@ -16,83 +40,396 @@ import twitter4j.*;
  */
 public class StreamController {
 
-    private TwitterStream twitterStream;
+    private static final long DEFAULT_GROUP_MEMORY_BUDGET = 64L * 1024 * 1024;
+    private static final int LATENCY_SAMPLE_INTERVAL = 64;
+    private static final long METRICS_REFRESH_MILLIS = 1000;
+    private static final long SNAPSHOT_REFRESH_MILLIS = 1000;
+    private static final long WINDOW_SNAPSHOT_REFRESH_MILLIS = 10000;
+    private static final long MAX_WINDOW_MILLIS = RollupStore.DAY;
+
+    private StreamSource streamSource;
+    private StreamElementListener listener;
+    private EstimateReporter reporter;
 
-    private DeterministicAlgorithm detAlg;
+    private DistinctCounterDispatcher dispatcher;
+    private DistinctCounter exactAlg;
+    private RoaringBitmapAlgorithm userIdAlg;
     private FlajoletMartinAlgorithm fmAlg;
-    private AveragedFlajoletMartinAlgorithm aFmAlg;
+    private BoundedAveragedFlajoletMartinAlgorithm aFmAlg;
     private FourByOneFlajoletMartinAlgorithm fourByOneFmAlg;
     private TwoByTwoFlajoletMartinAlgorithm twoByTwoFmAlg;
     private HyperLogLogAlgorithm hyperLogAlg;
+    private HyperLogLogPlusPlusAlgorithm hyperLogPlusAlg;
+
+    // Every algorithm by csv column name, as saved in checkpoints
+    private Map<String, DistinctCounter> columns;
+    private Checkpointer checkpointer;
+
+    // Distinct users per hashtag, language and country
+    private KeyedCounterMap groups;
 
-    private int tweetCount;
+    private PipelineMetrics metrics;
+
+    // Distinct users over sliding windows and time ranges, served from snapshots
+    private SlidingHyperLogLogAlgorithm windowAlg;
+    private RollupStore<HyperLogLogPlusPlusAlgorithm> rollups;
+    private SnapshotPublisher snapshots;
+
+    private long tweetCount;
+
+    // The user ids parsed from the current batch
+    private long[] userIds = new long[HashBatch.DEFAULT_CAPACITY];
 
     public StreamController() {
-        TwitterStreamUtil streamUtil = new TwitterStreamUtil();
-        twitterStream = streamUtil.getTwitterStream();
+        this(new TwitterStreamSource());
+    }
+
+    /**
+     * Reports every element's estimates to standard output.
+     */
+    public StreamController(StreamSource streamSource) {
+        this(streamSource, ReportSampler.everyElement(), OverflowPolicy.BLOCK,
+                new FileOutputStream(FileDescriptor.out).getChannel());
+    }
+
+    public StreamController(StreamSource streamSource, ReportSampler sampler, OverflowPolicy overflowPolicy,
+                            WritableByteChannel output) {
+        this(streamSource, sampler, overflowPolicy, output, DEFAULT_GROUP_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param groupMemoryBudget
+     *          The number of bytes the per group counters may occupy before
+     *          the least recently used are spilled to a temporary file.
+     */
+    public StreamController(StreamSource streamSource, ReportSampler sampler, OverflowPolicy overflowPolicy,
+                            WritableByteChannel output, long groupMemoryBudget) {
+        this(streamSource, sampler, overflowPolicy, output, groupMemoryBudget, null);
+    }
+
+    /**
+     * @param checkpointer
+     *          Restores the algorithms from its last checkpoint, if any, and
+     *          then periodically checkpoints them. May be null.
+     */
+    public StreamController(StreamSource streamSource, ReportSampler sampler, OverflowPolicy overflowPolicy,
+                            WritableByteChannel output, long groupMemoryBudget, Checkpointer checkpointer) {
+        this(streamSource, sampler, overflowPolicy, output, groupMemoryBudget, checkpointer, InputKey.SCREEN_NAME);
+    }
 
-        // Tweet counter for use in CSV format graphing
-        tweetCount = 0;
+    /**
+     * @param inputKey
+     *          The key the source emits. User ids are counted exactly by a
+     *          compressed bitmap, and lines replayed from a file are parsed
+     *          as ids in place.
+     */
+    public StreamController(StreamSource streamSource, ReportSampler sampler, OverflowPolicy overflowPolicy,
+                            WritableByteChannel output, long groupMemoryBudget, Checkpointer checkpointer,
+                            InputKey inputKey) {
+        this.streamSource = streamSource;
+        this.checkpointer = checkpointer;
+        Checkpoint restored = checkpointer == null ? null : checkpointer.restore();
 
-        // Initialize algorithms
-        detAlg = new DeterministicAlgorithm();
-        fmAlg = new FlajoletMartinAlgorithm();
-        aFmAlg = new AveragedFlajoletMartinAlgorithm(1000);
-        fourByOneFmAlg = new FourByOneFlajoletMartinAlgorithm();
-        twoByTwoFmAlg = new TwoByTwoFlajoletMartinAlgorithm();
-        hyperLogAlg = new HyperLogLogAlgorithm();
+        // Tweet counter for use in CSV format graphing, resumed from the checkpoint
+        tweetCount = restored == null ? 0 : restored.getElementCount();
 
-        // Print out csv column header
-        System.out.println("TweetCount,DistinctElements,FMAlg,AveragedFMAlg,FourByOneFMAlg,TwoByTwoFMAlg,HyperLogLogAlg");
+        // Initialize algorithms, or restore them from the checkpoint
+        if (inputKey == InputKey.USER_ID) {
+            userIdAlg = restore(restored, "DistinctElements", RoaringBitmapAlgorithm.class,
+                    RoaringBitmapAlgorithm::new);
+            exactAlg = userIdAlg;
+        } else {
+            exactAlg = restore(restored, "DistinctElements", FingerprintSetAlgorithm.class,
+                    FingerprintSetAlgorithm::new);
+        }
+        fmAlg = restore(restored, "FMAlg", FlajoletMartinAlgorithm.class, FlajoletMartinAlgorithm::new);
+        aFmAlg = restore(restored, "AveragedFMAlg", BoundedAveragedFlajoletMartinAlgorithm.class,
+                () -> new BoundedAveragedFlajoletMartinAlgorithm(1000));
+        fourByOneFmAlg = restore(restored, "FourByOneFMAlg", FourByOneFlajoletMartinAlgorithm.class,
+                FourByOneFlajoletMartinAlgorithm::new);
+        twoByTwoFmAlg = restore(restored, "TwoByTwoFMAlg", TwoByTwoFlajoletMartinAlgorithm.class,
+                TwoByTwoFlajoletMartinAlgorithm::new);
+        hyperLogAlg = restore(restored, "HyperLogLogAlg", HyperLogLogAlgorithm.class, HyperLogLogAlgorithm::new);
+        hyperLogPlusAlg = restore(restored, "HyperLogLogPlusPlusAlg", HyperLogLogPlusPlusAlgorithm.class,
+                HyperLogLogPlusPlusAlgorithm::new);
 
-        StatusListener listener = new StatusListener() {
+        columns = new LinkedHashMap<>();
+        columns.put("DistinctElements", exactAlg);
+        columns.put("FMAlg", fmAlg);
+        columns.put("AveragedFMAlg", aFmAlg);
+        columns.put("FourByOneFMAlg", fourByOneFmAlg);
+        columns.put("TwoByTwoFMAlg", twoByTwoFmAlg);
+        columns.put("HyperLogLogAlg", hyperLogAlg);
+        columns.put("HyperLogLogPlusPlusAlg", hyperLogPlusAlg);
+
+        // Register algorithms so each tweet is hashed only once
+        // User ids are counted exactly from the id itself rather than from its hashes
+        dispatcher = new DistinctCounterDispatcher();
+        if (userIdAlg == null) dispatcher.register(exactAlg);
+        dispatcher.register(fmAlg);
+        dispatcher.register(aFmAlg);
+        dispatcher.register(fourByOneFmAlg);
+        dispatcher.register(twoByTwoFmAlg);
+        dispatcher.register(hyperLogAlg);
+        dispatcher.register(hyperLogPlusAlg);
+
+        // Track windows and ranges for queries, which are not checkpointed
+        windowAlg = new SlidingHyperLogLogAlgorithm(MAX_WINDOW_MILLIS);
+        dispatcher.register(windowAlg);
+        rollups = new RollupStore<>(HyperLogLogPlusPlusAlgorithm::new);
+
+        // Define the csv columns, written asynchronously as tweets are sampled
+        reporter = new EstimateReporter(sampler, overflowPolicy, output);
+        for (Map.Entry<String, DistinctCounter> column : columns.entrySet()) {
+            // The exact count and single FM estimate are whole numbers
+            if (column.getValue() == exactAlg || column.getValue() == fmAlg) {
+                reporter.addIntegerColumn(column.getKey(), column.getValue());
+            } else {
+                reporter.addColumn(column.getKey(), column.getValue());
+            }
+        }
+
+        try {
+            groups = new KeyedCounterMap(groupMemoryBudget,
+                    new FileSpillStore(Files.createTempFile("distinct-groups", ".spill")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Time a sample of the updates, and measure every algorithm against the exact count
+        dispatcher.sampleLatencies(LATENCY_SAMPLE_INTERVAL);
+        metrics = new PipelineMetrics(columns, exactAlg, dispatcher, reporter, checkpointer, groups,
+                METRICS_REFRESH_MILLIS);
+
+        // Publish immutable snapshots of the estimates for queries from other threads
+        snapshots = new SnapshotPublisher(columns, groups, windowAlg, rollups, SNAPSHOT_REFRESH_MILLIS,
+                WINDOW_SNAPSHOT_REFRESH_MILLIS);
+        snapshots.publish(tweetCount);
+
+        listener = new StreamElementListener() {
             @Override
-            public void onStatus(Status status) {
+            public void onElement(String userName) {
+                if (userIdAlg != null) {
+                    long userId;
+                    try {
+                        userId = Long.parseLong(userName);
+                    } catch (NumberFormatException e) {
+                        // Count and skip a malformed line rather than end the stream
+                        metrics.onSkippedKey();
+                        return;
+                    }
+                    onElement(userId);
+                    return;
+                }
                 tweetCount++;
 
-                // Step 1: Grab twitter user name
-                String userName = status.getUser().getScreenName();
-
-                // Step 2: Process tweet name through each algorithm
-                detAlg.processInput(userName);
-                fmAlg.processInput(userName);
-                aFmAlg.processInput(userName);
-                fourByOneFmAlg.processInput(userName);
-                twoByTwoFmAlg.processInput(userName);
-                hyperLogAlg.processInput(userName);
-
-                // Step 3: Output current status of algorithm estimations
-                System.out.println(tweetCount + "," + detAlg.reportDistinctElements() + "," +
-                        fmAlg.reportDistinctElements() + "," + aFmAlg.reportDistinctElements() + ","
-                        + fourByOneFmAlg.reportDistinctElements() + "," + twoByTwoFmAlg.reportDistinctElements()
-                        + "," + hyperLogAlg.reportDistinctElements());
+                // Step 1: Hash tweet name once and process it through each algorithm
+                dispatcher.processInput(userName);
+
+                // Step 2: Report, checkpoint and measure the algorithms if due
+                onElementProcessed();
+            }
+
+            @Override
+            public void onElement(ByteBuffer buffer, int offset, int length) {
+                if (userIdAlg != null) {
+                    long userId;
+                    try {
+                        userId = parseUserId(buffer, offset, length);
+                    } catch (NumberFormatException e) {
+                        // Count and skip a malformed line rather than end the stream
+                        metrics.onSkippedKey();
+                        return;
+                    }
+                    onElement(userId);
+                    return;
+                }
+                tweetCount++;
+
+                // Step 1: Hash the encoded name in place and process it through each algorithm
+                dispatcher.processInput(buffer, offset, length);
+
+                // Step 2: Report, checkpoint and measure the algorithms if due
+                onElementProcessed();
             }
 
             @Override
-            public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
+            public void onBatch(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+                if (userIdAlg != null) {
+                    processUserIdBatch(buffer, offsets, lengths, count);
+                    return;
+                }
+
+                // Step 1: Hash every encoded name in place once and process the batch through each algorithm
+                dispatcher.processBatch(buffer, offsets, lengths, count);
+
+                // Step 2: Report, checkpoint and measure the algorithms once for the whole batch
+                onBatchProcessed();
             }
 
             @Override
-            public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+            public void onElement(long userId) {
+                tweetCount++;
+
+                // Step 1: Count the id exactly, then hash its digits once for the estimators
+                if (userIdAlg != null) userIdAlg.processInput(userId);
+                dispatcher.processInput(userId);
+
+                // Step 2: Report, checkpoint and measure the algorithms if due
+                onElementProcessed();
             }
 
             @Override
-            public void onScrubGeo(long userId, long upToStatusId) {
+            public void onGroupedElement(String group, String userName) {
+                groups.processInput(group, userName);
+                snapshots.onGroupedElement(group);
             }
 
             @Override
-            public void onStallWarning(StallWarning warning) {
+            public void onIdle() {
+                snapshots.onIdle(tweetCount);
             }
 
             @Override
-            public void onException(Exception ex) {
+            public void onEndOfStream() {
+                if (checkpointer != null) checkpointer.checkpoint(tweetCount, columns);
+                metrics.refresh(tweetCount);
+                snapshots.publish(tweetCount);
+                closeReporter();
+                groups.close();
             }
         };
-
-        twitterStream.addListener(listener);
     }
 
     public void startSimulation() {
-        twitterStream.sample();
+        reporter.start("TweetCount");
+        streamSource.start(listener);
+    }
+
+    public void stopSimulation() {
+        streamSource.stop();
+    }
+
+    /**
+     * @return
+     *          The pipeline's metrics, whose MBeans are registered by
+     *          calling registerMBeans() on them.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return
+     *          The publisher of the pipeline's estimate snapshots, which
+     *          may be read from any thread, e.g. by a QueryServer.
+     */
+    public SnapshotPublisher getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * @return
+     *          The distinct user counts per group. Only safe to read
+     *          from the thread delivering stream elements.
+     */
+    public KeyedCounterMap getGroups() {
+        return groups;
+    }
+
+    /**
+     * Counts the element's hashes in the current minute, hands the current
+     * estimations to the reporter if sampled, checkpoints the algorithms if
+     * due, and updates the metrics and snapshots.
+     */
+    private void onElementProcessed() {
+        rollups.processHashes(dispatcher.getHashes(), System.currentTimeMillis());
+        reporter.onElement(tweetCount);
+        if (checkpointer != null) checkpointer.onElement(tweetCount, columns);
+        metrics.onElement(tweetCount);
+        snapshots.onElement(tweetCount);
+    }
+
+    /**
+     * Counts the batch's user ids exactly, skipping malformed lines, then
+     * hashes the digits of every id once for the estimators.
+     */
+    private void processUserIdBatch(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+        if (userIds.length < count) userIds = new long[count];
+
+        int parsed = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                userIds[parsed] = parseUserId(buffer, offsets[i], lengths[i]);
+            } catch (NumberFormatException e) {
+                // Count and skip a malformed line rather than end the stream
+                metrics.onSkippedKey();
+                continue;
+            }
+            userIdAlg.processInput(userIds[parsed++]);
+        }
+
+        dispatcher.processBatch(userIds, 0, parsed);
+        onBatchProcessed();
+    }
+
+    /**
+     * Counts the hashes of the batch just dispatched in the current minute,
+     * then hands the estimates as of the end of the batch to the reporter,
+     * checkpointer, metrics and snapshots, each acting if it was due after
+     * any element of the batch.
+     */
+    private void onBatchProcessed() {
+        HashBatch batch = dispatcher.getBatch();
+        if (batch.size() == 0) return;
+
+        long previousCount = tweetCount;
+        tweetCount += batch.size();
+
+        rollups.processBatch(batch, System.currentTimeMillis());
+        reporter.onBatch(previousCount, tweetCount);
+        if (checkpointer != null) checkpointer.onBatch(previousCount, tweetCount, columns);
+        metrics.onBatch(previousCount, tweetCount);
+        snapshots.onBatch(previousCount, tweetCount);
+    }
+
+    /**
+     * Parses the ASCII decimal digits at [offset, offset + length) of buffer
+     * without copying them.
+     *
+     * @throws NumberFormatException
+     *          If the range is empty or not a non-negative 64 bit integer.
+     */
+    private static long parseUserId(ByteBuffer buffer, int offset, int length) {
+        if (length == 0) throw new NumberFormatException("Empty user id at offset " + offset);
+
+        long id = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || id > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Not a user id at offset " + offset);
+            }
+            id = id * 10 + digit;
+        }
+        return id;
+    }
+
+    /**
+     * @return
+     *          The restored counter saved under name, if it is of the given
+     *          type, otherwise a new counter.
+     */
+    private static <T extends DistinctCounter> T restore(Checkpoint restored, String name, Class<T> type,
+                                                         Supplier<T> factory) {
+        DistinctCounter counter = restored == null ? null : restored.getCounters().get(name);
+        return type.isInstance(counter) ? type.cast(counter) : factory.get();
+    }
+
+    private void closeReporter() {
+        try {
+            reporter.close(tweetCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
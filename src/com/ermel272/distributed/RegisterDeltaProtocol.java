@@ -0,0 +1,293 @@
+package com.ermel272.distributed;
+
+import com.ermel272.algorithms.FlajoletMartinAlgorithm;
+import com.ermel272.algorithms.FourByOneFlajoletMartinAlgorithm;
+import com.ermel272.algorithms.HyperLogLogAlgorithm;
+import com.ermel272.algorithms.PcsaFlajoletMartinAlgorithm;
+import com.ermel272.algorithms.RegisterCounter;
+import com.ermel272.algorithms.TwoByTwoFlajoletMartinAlgorithm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class:       RegisterDeltaProtocol.java
+ *
+ * Purpose:     Defines the messages a {@link SketchWorker} and a
+ *              {@link SketchCoordinator} exchange over a socket.
+ *
+ * Description: Every message is an int length followed by that many bytes. A
+ *              worker opens with a hello naming itself and each of its sketches
+ *              with its register count, which the coordinator answers with an
+ *              ack, refusing workers whose sketches differ from its own. The
+ *              worker then sends deltas, each holding its total element count
+ *              and, for every sketch in order, the number of registers changed
+ *              since its previous delta followed by each changed register as
+ *              the gap from the previous changed index and the new value, all
+ *              as unsigned LEB128 varints. An idle sketch costs one byte, and a
+ *              changed HyperLogLog register usually two.
+ */
+public final class RegisterDeltaProtocol {
+
+    public static final int MAGIC = 0x44534b31;
+    public static final byte VERSION = 1;
+
+    // Upper bound on a message, to refuse a corrupt length before allocating it
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private RegisterDeltaProtocol() {
+    }
+
+    /**
+     * @return
+     *          New empty sketches, by name, of the kinds and configurations
+     *          workers and the coordinator use unless told otherwise.
+     */
+    public static Map<String, RegisterCounter> newDefaultSketches() {
+        Map<String, RegisterCounter> sketches = new LinkedHashMap<>();
+        sketches.put("FMAlg", new FlajoletMartinAlgorithm());
+        sketches.put("FourByOneFMAlg", new FourByOneFlajoletMartinAlgorithm());
+        sketches.put("TwoByTwoFMAlg", new TwoByTwoFlajoletMartinAlgorithm());
+        sketches.put("PcsaFMAlg", new PcsaFlajoletMartinAlgorithm(1024));
+        sketches.put("HyperLogLogAlg", new HyperLogLogAlgorithm());
+        return sketches;
+    }
+
+    /**
+     * @return
+     *          The hello of a worker with the given sketches, ready to write.
+     */
+    static ByteBuffer encodeHello(String workerId, Map<String, RegisterCounter> sketches) {
+        int size = 4 + 4 + 1 + sizeOf(workerId) + 4;
+        for (String name : sketches.keySet()) {
+            size += sizeOf(name) + 4;
+        }
+
+        ByteBuffer hello = ByteBuffer.allocate(size);
+        hello.putInt(size - 4);
+        hello.putInt(MAGIC);
+        hello.put(VERSION);
+        putString(hello, workerId);
+        hello.putInt(sketches.size());
+        for (Map.Entry<String, RegisterCounter> sketch : sketches.entrySet()) {
+            putString(hello, sketch.getKey());
+            hello.putInt(sketch.getValue().getRegisterCount());
+        }
+        hello.flip();
+        return hello;
+    }
+
+    /**
+     * Reads a hello and checks that it describes the given sketches.
+     *
+     * @return
+     *          The id of the worker.
+     *
+     * @throws IOException
+     *          If the hello is malformed or its sketches differ.
+     */
+    static String decodeHello(ByteBuffer hello, Map<String, RegisterCounter> sketches) throws IOException {
+        if (hello.getInt() != MAGIC) throw new IOException("Not a sketch worker");
+        byte version = hello.get();
+        if (version != VERSION) throw new IOException("Unsupported protocol version " + version);
+
+        String workerId = getString(hello);
+        if (hello.getInt() != sketches.size()) throw new IOException("Expected " + sketches.size() + " sketches");
+        for (Map.Entry<String, RegisterCounter> sketch : sketches.entrySet()) {
+            String name = getString(hello);
+            int registers = hello.getInt();
+            if (!name.equals(sketch.getKey()) || registers != sketch.getValue().getRegisterCount()) {
+                throw new IOException("Expected sketch " + sketch.getKey() + " with "
+                        + sketch.getValue().getRegisterCount() + " registers, not " + name + " with " + registers);
+            }
+        }
+        return workerId;
+    }
+
+    /**
+     * @param error
+     *          Why the worker was refused, or null if it was accepted.
+     */
+    static ByteBuffer encodeAck(String error) {
+        String message = error == null ? "" : error;
+        ByteBuffer ack = ByteBuffer.allocate(4 + 1 + sizeOf(message));
+        ack.putInt(ack.capacity() - 4);
+        ack.put((byte) (error == null ? 1 : 0));
+        putString(ack, message);
+        ack.flip();
+        return ack;
+    }
+
+    /**
+     * @throws IOException
+     *          With the coordinator's reason, if the worker was refused.
+     */
+    static void decodeAck(ByteBuffer ack) throws IOException {
+        boolean accepted = ack.get() != 0;
+        String message = getString(ack);
+        if (!accepted) throw new IOException("Coordinator refused worker: " + message);
+    }
+
+    /**
+     * @return
+     *          The most bytes a delta of the given sketches can take.
+     */
+    static int maxDeltaSize(Map<String, RegisterCounter> sketches) {
+        int size = 4 + 8;
+        for (RegisterCounter sketch : sketches.values()) {
+            size += 5 + sketch.getRegisterCount() * (5 + MAX_VARINT_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * Writes the registers that differ from those last shipped, and records
+     * them as shipped.
+     *
+     * @param dst
+     *          The buffer to write to, with at least maxDeltaSize(sketches) remaining.
+     * @param shipped
+     *          The register values last shipped, per sketch in order.
+     *
+     * @return
+     *          The number of registers written.
+     */
+    static int encodeDelta(ByteBuffer dst, long elementCount, Map<String, RegisterCounter> sketches,
+                           long[][] shipped) {
+        int start = dst.position();
+        dst.putInt(0);
+        dst.putLong(elementCount);
+
+        int total = 0;
+        int i = 0;
+        for (RegisterCounter sketch : sketches.values()) {
+            long[] last = shipped[i++];
+
+            // Step 1: Count the changed registers, so the count can precede them
+            int changed = 0;
+            for (int j = 0; j < last.length; j++) {
+                if (sketch.getRegister(j) != last[j]) changed++;
+            }
+            putVarLong(dst, changed);
+
+            // Step 2: Write each as the gap from the previous one and its value
+            int previous = 0;
+            for (int j = 0; j < last.length && changed > 0; j++) {
+                long value = sketch.getRegister(j);
+                if (value == last[j]) continue;
+
+                putVarLong(dst, j - previous);
+                putVarLong(dst, value);
+                last[j] = value;
+                previous = j;
+                changed--;
+                total++;
+            }
+        }
+
+        dst.putInt(start, dst.position() - start - 4);
+        return total;
+    }
+
+    /**
+     * Merges every register of a delta into the given sketches.
+     *
+     * @return
+     *          The worker's total element count.
+     */
+    static long applyDelta(ByteBuffer delta, Map<String, RegisterCounter> sketches) {
+        long elementCount = delta.getLong();
+        for (RegisterCounter sketch : sketches.values()) {
+            long changed = getVarLong(delta);
+
+            int j = 0;
+            for (long k = 0; k < changed; k++) {
+                j += (int) getVarLong(delta);
+                if (j < 0 || j >= sketch.getRegisterCount()) {
+                    throw new IllegalArgumentException("Register " + j + " out of range");
+                }
+                sketch.mergeRegister(j, getVarLong(delta));
+            }
+        }
+        return elementCount;
+    }
+
+    /**
+     * Reads the next message, without its length.
+     *
+     * @throws EOFException
+     *          If the channel ends before or within the message.
+     */
+    static ByteBuffer readMessage(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length);
+        int size = length.getInt(0);
+        if (size < 0 || size > MAX_MESSAGE_SIZE) throw new IOException("Message of " + size + " bytes");
+
+        ByteBuffer message = ByteBuffer.allocate(size);
+        readFully(channel, message);
+        message.flip();
+        return message;
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) throw new EOFException();
+        }
+    }
+
+    private static int sizeOf(String s) {
+        return 2 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer dst, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dst.putShort((short) bytes.length);
+        dst.put(bytes);
+    }
+
+    private static String getString(ByteBuffer src) {
+        byte[] bytes = new byte[src.getShort() & 0xffff];
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes value as an unsigned LEB128 varint: seven bits per byte, low
+     * bits first, with the high bit set on every byte but the last.
+     */
+    private static void putVarLong(ByteBuffer dst, long value) {
+        while ((value & ~0x7fL) != 0) {
+            dst.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer src) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 64) throw new IllegalArgumentException("Malformed varint");
+            b = src.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
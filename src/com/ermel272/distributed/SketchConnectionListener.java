@@ -0,0 +1,52 @@
+package com.ermel272.distributed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Class:       SketchConnectionListener.java
+ *
+ * Purpose:     Receives the connection failures of a {@link SketchCoordinator}
+ *              or {@link SketchWorker}, so that the application decides how to
+ *              report them.
+ *
+ * Description: Neither failure stops counting: a coordinator keeps serving its
+ *              other workers, and a worker keeps counting and ships every
+ *              register once it reconnects. Every method is ignored by default,
+ *              and is called on the thread that found the failure, a
+ *              coordinator's serving thread or a worker's ingestion thread, so
+ *              it should return quickly.
+ */
+public interface SketchConnectionListener {
+
+    /**
+     * A listener that ignores every failure.
+     */
+    SketchConnectionListener NONE = new SketchConnectionListener() {
+    };
+
+    /**
+     * Called by a coordinator when a connected worker fails, other than by
+     * disconnecting cleanly.
+     *
+     * @param workerId
+     *          The worker's id, or null if it failed before introducing itself.
+     * @param cause
+     *          The I/O error, or the malformed message's exception.
+     */
+    default void onWorkerDropped(String workerId, Exception cause) {
+    }
+
+    /**
+     * Called by a worker when shipping a delta, or reconnecting to ship one, fails.
+     *
+     * @param workerId
+     *          The worker's id.
+     * @param coordinator
+     *          The address of the coordinator that could not be reached.
+     * @param cause
+     *          The I/O error.
+     */
+    default void onCoordinatorLost(String workerId, InetSocketAddress coordinator, IOException cause) {
+    }
+}
@@ -0,0 +1,233 @@
+package com.ermel272.distributed;
+
+import com.ermel272.algorithms.RegisterCounter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class:       SketchCoordinator.java
+ *
+ * Purpose:     Merges the sketches of any number of {@link SketchWorker}s, each
+ *              counting its own partition of a stream, into global estimates.
+ *
+ * Description: Accepts workers on a socket, serving each on its own thread,
+ *              which suits the handful of workers a host runs. A worker whose
+ *              sketches differ from the coordinator's is refused. Each delta
+ *              the worker sends is merged register by register into the global
+ *              sketches, under a lock shared with readers of the estimates, and
+ *              its element count replaces the worker's previous one. Since only
+ *              registers are ever merged, a worker that reconnects and ships
+ *              every register again changes nothing it had already shipped.
+ *              Workers that fail are counted and passed to a
+ *              {@link SketchConnectionListener}.
+ */
+public class SketchCoordinator {
+
+    private final Map<String, RegisterCounter> sketches;
+    private final ServerSocketChannel serverChannel;
+    private final SketchConnectionListener listener;
+
+    // Total elements counted by each worker, by worker id, guarded by sketches
+    private final Map<String, Long> elementCounts;
+    private final Set<SocketChannel> connected;
+    private final AtomicLong droppedWorkers;
+
+    private volatile boolean running;
+    private Thread acceptThread;
+
+    /**
+     * Binds the coordinator's socket, which does not accept workers until
+     * the coordinator is started.
+     *
+     * @param address
+     *          The address to listen on, with port 0 for any free port.
+     * @param sketches
+     *          The empty global sketches, by name, the same as every worker's.
+     */
+    public SketchCoordinator(InetSocketAddress address, Map<String, RegisterCounter> sketches) {
+        this(address, sketches, SketchConnectionListener.NONE);
+    }
+
+    /**
+     * Binds the coordinator's socket, which does not accept workers until
+     * the coordinator is started.
+     *
+     * @param address
+     *          The address to listen on, with port 0 for any free port.
+     * @param sketches
+     *          The empty global sketches, by name, the same as every worker's.
+     * @param listener
+     *          Told of each worker that fails.
+     */
+    public SketchCoordinator(InetSocketAddress address, Map<String, RegisterCounter> sketches,
+                             SketchConnectionListener listener) {
+        this.sketches = new LinkedHashMap<>(sketches);
+        this.listener = listener;
+        this.droppedWorkers = new AtomicLong();
+        this.elementCounts = new HashMap<>();
+        this.connected = ConcurrentHashMap.newKeySet();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return
+     *          The port workers connect to.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts accepting workers on a new thread.
+     */
+    public synchronized void start() {
+        if (acceptThread != null) throw new IllegalStateException("Coordinator has already been started");
+
+        running = true;
+        acceptThread = new Thread(this::accept, "sketch-coordinator-" + getPort());
+        acceptThread.start();
+    }
+
+    /**
+     * Stops accepting workers and disconnects every connected one.
+     */
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (SocketChannel channel : connected) {
+            close(channel);
+        }
+    }
+
+    /**
+     * @return
+     *          The estimate of every global sketch, by name.
+     */
+    public Map<String, Double> getEstimates() {
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        synchronized (sketches) {
+            for (Map.Entry<String, RegisterCounter> sketch : sketches.entrySet()) {
+                estimates.put(sketch.getKey(), sketch.getValue().reportDistinctElements());
+            }
+        }
+        return estimates;
+    }
+
+    /**
+     * @return
+     *          The total number of elements counted by every worker, as of
+     *          each worker's latest delta.
+     */
+    public long getElementCount() {
+        long count = 0;
+        synchronized (sketches) {
+            for (long workerCount : elementCounts.values()) {
+                count += workerCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return
+     *          The number of workers ever seen, connected or not.
+     */
+    public int getWorkerCount() {
+        synchronized (sketches) {
+            return elementCounts.size();
+        }
+    }
+
+    public int getConnectedWorkerCount() {
+        return connected.size();
+    }
+
+    /**
+     * @return
+     *          The number of times a worker has failed, other than by
+     *          disconnecting cleanly.
+     */
+    public long getDroppedWorkerCount() {
+        return droppedWorkers.get();
+    }
+
+    private void accept() {
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+
+            connected.add(channel);
+            Thread worker = new Thread(() -> serve(channel), "sketch-coordinator-worker");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Introduces a worker and merges its deltas until it disconnects.
+     */
+    private void serve(SocketChannel channel) {
+        String workerId = null;
+        try {
+            // Step 1: Check the worker counts into the same sketches as this coordinator
+            try {
+                workerId = RegisterDeltaProtocol.decodeHello(RegisterDeltaProtocol.readMessage(channel), sketches);
+            } catch (IOException | RuntimeException e) {
+                RegisterDeltaProtocol.writeFully(channel, RegisterDeltaProtocol.encodeAck(String.valueOf(e.getMessage())));
+                return;
+            }
+            RegisterDeltaProtocol.writeFully(channel, RegisterDeltaProtocol.encodeAck(null));
+
+            // Step 2: Merge each delta, until the worker disconnects
+            while (running) {
+                ByteBuffer delta = RegisterDeltaProtocol.readMessage(channel);
+                synchronized (sketches) {
+                    elementCounts.put(workerId, RegisterDeltaProtocol.applyDelta(delta, sketches));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The worker disconnected, or sent a malformed delta
+            if (running && !(e instanceof EOFException)) {
+                droppedWorkers.incrementAndGet();
+                listener.onWorkerDropped(workerId, e);
+            }
+        } finally {
+            connected.remove(channel);
+            close(channel);
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more can be read from it either way
+        }
+    }
+}
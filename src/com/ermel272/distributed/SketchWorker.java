@@ -0,0 +1,267 @@
+package com.ermel272.distributed;
+
+import com.ermel272.algorithms.DistinctCounterDispatcher;
+import com.ermel272.algorithms.RegisterCounter;
+import com.ermel272.util.StreamElementListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       SketchWorker.java
+ *
+ * Purpose:     Counts one partition of a stream into local sketches, and ships
+ *              the registers that change to a {@link SketchCoordinator}, which
+ *              merges every worker's partition into a global estimate.
+ *
+ * Description: Listens to a stream source like any other consumer, hashing each
+ *              element, or each batch of elements, once into every sketch. Once a ship interval has passed,
+ *              checked every CHECK_INTERVAL elements and whenever the source goes
+ *              idle, the registers that differ from those last shipped are sent
+ *              as a delta of the {@link RegisterDeltaProtocol}, so the raw elements
+ *              never leave the worker and a quiet sketch costs next to nothing.
+ *              Merging registers is idempotent, so if the coordinator cannot be
+ *              reached the worker keeps counting, tells its
+ *              {@link SketchConnectionListener}, and on reconnecting ships every
+ *              register afresh. Shipping blocks the ingestion thread, which is
+ *              acceptable for a coordinator on the same host or network.
+ */
+public class SketchWorker implements StreamElementListener {
+
+    // Must be a power of two so the check is a mask
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final InetSocketAddress coordinator;
+    private final String workerId;
+    private final Map<String, RegisterCounter> sketches;
+    private final DistinctCounterDispatcher dispatcher;
+    private final long shipNanos;
+    private final SketchConnectionListener listener;
+
+    private final ByteBuffer delta;
+    private final long[][] shipped;
+    private SocketChannel channel;
+
+    private long elementCount;
+    private long lastShipNanos;
+    private long shippedRegisters;
+    private long lostConnections;
+    private final CountDownLatch endOfStream;
+
+    /**
+     * Connects to the coordinator, which must accept the sketches.
+     *
+     * @param coordinator
+     *          The address of the coordinator.
+     * @param workerId
+     *          The name the coordinator knows this worker by, unique among
+     *          its workers.
+     * @param sketches
+     *          The empty sketches to count into, by name, the same as the
+     *          coordinator's.
+     * @param shipMillis
+     *          How often the changed registers are shipped.
+     *
+     * @throws UncheckedIOException
+     *          If the coordinator cannot be reached or refuses the sketches.
+     */
+    public SketchWorker(InetSocketAddress coordinator, String workerId, Map<String, RegisterCounter> sketches,
+                        long shipMillis) {
+        this(coordinator, workerId, sketches, shipMillis, SketchConnectionListener.NONE);
+    }
+
+    /**
+     * Connects to the coordinator, which must accept the sketches.
+     *
+     * @param coordinator
+     *          The address of the coordinator.
+     * @param workerId
+     *          The name the coordinator knows this worker by, unique among
+     *          its workers.
+     * @param sketches
+     *          The empty sketches to count into, by name, the same as the
+     *          coordinator's.
+     * @param shipMillis
+     *          How often the changed registers are shipped.
+     * @param listener
+     *          Told each time the coordinator is lost after connecting.
+     *
+     * @throws UncheckedIOException
+     *          If the coordinator cannot be reached or refuses the sketches.
+     */
+    public SketchWorker(InetSocketAddress coordinator, String workerId, Map<String, RegisterCounter> sketches,
+                        long shipMillis, SketchConnectionListener listener) {
+        if (shipMillis < 1) throw new IllegalArgumentException("shipMillis must be positive");
+
+        this.coordinator = coordinator;
+        this.workerId = workerId;
+        this.sketches = new LinkedHashMap<>(sketches);
+        this.shipNanos = TimeUnit.MILLISECONDS.toNanos(shipMillis);
+        this.listener = listener;
+        this.endOfStream = new CountDownLatch(1);
+
+        this.dispatcher = new DistinctCounterDispatcher();
+        this.shipped = new long[sketches.size()][];
+        int i = 0;
+        for (RegisterCounter sketch : sketches.values()) {
+            dispatcher.register(sketch);
+            shipped[i++] = new long[sketch.getRegisterCount()];
+        }
+        this.delta = ByteBuffer.allocate(RegisterDeltaProtocol.maxDeltaSize(sketches));
+
+        try {
+            connect();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lastShipNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onElement(String element) {
+        dispatcher.processInput(element);
+        onElementProcessed();
+    }
+
+    @Override
+    public void onElement(ByteBuffer buffer, int offset, int length) {
+        dispatcher.processInput(buffer, offset, length);
+        onElementProcessed();
+    }
+
+    @Override
+    public void onElement(long element) {
+        dispatcher.processInput(element);
+        onElementProcessed();
+    }
+
+    @Override
+    public void onBatch(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+        dispatcher.processBatch(buffer, offsets, lengths, count);
+
+        long previous = elementCount;
+        elementCount += count;
+        if (previous / CHECK_INTERVAL != elementCount / CHECK_INTERVAL
+                && System.nanoTime() - lastShipNanos >= shipNanos) ship();
+    }
+
+    @Override
+    public void onIdle() {
+        if (System.nanoTime() - lastShipNanos >= shipNanos) ship();
+    }
+
+    /**
+     * Ships the final registers and disconnects.
+     */
+    @Override
+    public void onEndOfStream() {
+        try {
+            ship();
+            disconnect();
+        } finally {
+            endOfStream.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the source has ended and the final registers are shipped.
+     */
+    public void awaitEndOfStream() throws InterruptedException {
+        endOfStream.await();
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * @return
+     *          The number of register values shipped so far, across reconnects.
+     */
+    public long getShippedRegisters() {
+        return shippedRegisters;
+    }
+
+    /**
+     * @return
+     *          The number of times shipping, or reconnecting to ship, has failed.
+     */
+    public long getLostConnectionCount() {
+        return lostConnections;
+    }
+
+    /**
+     * @return
+     *          An unmodifiable view of the local sketches, by name. Only safe
+     *          to read from the ingestion thread, or once the stream has ended.
+     */
+    public Map<String, RegisterCounter> getSketches() {
+        return Collections.unmodifiableMap(sketches);
+    }
+
+    private void onElementProcessed() {
+        elementCount++;
+        if ((elementCount & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() - lastShipNanos >= shipNanos) ship();
+    }
+
+    /**
+     * Sends the registers changed since the last delta, reconnecting first
+     * if the previous attempt failed.
+     */
+    private void ship() {
+        lastShipNanos = System.nanoTime();
+        try {
+            if (channel == null) connect();
+
+            delta.clear();
+            shippedRegisters += RegisterDeltaProtocol.encodeDelta(delta, elementCount, sketches, shipped);
+            delta.flip();
+            RegisterDeltaProtocol.writeFully(channel, delta);
+        } catch (IOException e) {
+            // Keep counting, and ship everything once the coordinator is back
+            lostConnections++;
+            disconnect();
+            listener.onCoordinatorLost(workerId, coordinator, e);
+        }
+    }
+
+    /**
+     * Connects and introduces the worker, after which every register
+     * counts as unshipped.
+     */
+    private void connect() throws IOException {
+        SocketChannel connected = SocketChannel.open(coordinator);
+        try {
+            RegisterDeltaProtocol.writeFully(connected, RegisterDeltaProtocol.encodeHello(workerId, sketches));
+            RegisterDeltaProtocol.decodeAck(RegisterDeltaProtocol.readMessage(connected));
+        } catch (IOException e) {
+            connected.close();
+            throw e;
+        }
+
+        for (long[] registers : shipped) {
+            Arrays.fill(registers, 0);
+        }
+        channel = connected;
+    }
+
+    private void disconnect() {
+        if (channel == null) return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more can be shipped on it either way
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,192 @@
+package com.ermel272.grouping;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class:       FileSpillStore.java
+ *
+ * Purpose:     Holds serialized counters evicted from memory in a local file.
+ *
+ * Description: Records are appended to a single scratch file and located
+ *              through an in-memory index of key to (position, length).
+ *              Replacing or removing a record leaves its bytes behind as
+ *              garbage; once garbage outweighs the live records, the live
+ *              records are slid down to the front of the file in position
+ *              order and the file is truncated. The file is deleted when the
+ *              store is closed. Not thread safe.
+ */
+public class FileSpillStore implements AutoCloseable {
+
+    // Do not bother compacting files smaller than this
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final Map<String, Record> index;
+
+    private long end;
+    private long liveBytes;
+    private long garbageBytes;
+
+    /**
+     * @param file
+     *          The scratch file, created or truncated, and deleted on close.
+     */
+    public FileSpillStore(Path file) {
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.index = new HashMap<>();
+    }
+
+    /**
+     * Stores the remaining bytes of data under key, replacing any earlier record.
+     */
+    public void put(String key, ByteBuffer data) {
+        Record previous = index.remove(key);
+        if (previous != null) discard(previous);
+
+        Record record = new Record(end, data.remaining());
+        try {
+            long position = end;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        end += record.length;
+        liveBytes += record.length;
+        index.put(key, record);
+    }
+
+    /**
+     * @return
+     *          A new buffer holding the record stored under key, or null.
+     */
+    public ByteBuffer get(String key) {
+        Record record = index.get(key);
+        return record == null ? null : read(record);
+    }
+
+    /**
+     * Removes the record stored under key.
+     *
+     * @return
+     *          A new buffer holding the removed record, or null.
+     */
+    public ByteBuffer remove(String key) {
+        Record record = index.remove(key);
+        if (record == null) return null;
+
+        ByteBuffer data = read(record);
+        discard(record);
+        return data;
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public Set<String> keys() {
+        return index.keySet();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return
+     *          The current length of the file, live records and garbage.
+     */
+    public long getFileBytes() {
+        return end;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer read(Record record) {
+        ByteBuffer data = ByteBuffer.allocate(record.length);
+        try {
+            long position = record.position;
+            while (data.hasRemaining()) {
+                int read = channel.read(data, position);
+                if (read < 0) throw new IOException("Spill file truncated");
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        data.flip();
+        return data;
+    }
+
+    private void discard(Record record) {
+        liveBytes -= record.length;
+        garbageBytes += record.length;
+        if (garbageBytes > liveBytes && end >= MIN_COMPACTION_BYTES) compact();
+    }
+
+    /**
+     * Moves every live record down over the garbage before it, then truncates the file.
+     */
+    private void compact() {
+        List<Record> records = new ArrayList<>(index.values());
+        records.sort((a, b) -> Long.compare(a.position, b.position));
+
+        long position = 0;
+        try {
+            for (Record record : records) {
+                // A record only ever moves towards the front, so reading it first is safe
+                if (record.position != position) {
+                    ByteBuffer data = read(record);
+                    long target = position;
+                    while (data.hasRemaining()) {
+                        target += channel.write(data, target);
+                    }
+                    record.position = position;
+                }
+                position += record.length;
+            }
+            channel.truncate(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        end = position;
+        garbageBytes = 0;
+    }
+
+    private static final class Record {
+
+        long position;
+        final int length;
+
+        Record(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
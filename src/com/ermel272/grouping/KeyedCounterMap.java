@@ -0,0 +1,219 @@
+package com.ermel272.grouping;
+
+import com.ermel272.algorithms.HybridHyperLogLogAlgorithm;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.hashes.HashBundle;
+import com.ermel272.hashes.Murmur3Hash;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class:       KeyedCounterMap.java
+ *
+ * Purpose:     Counts distinct elements separately for each of a large number
+ *              of groups, such as hashtags, languages or countries, within a
+ *              fixed memory budget.
+ *
+ * Description: Holds a {@link HybridHyperLogLogAlgorithm} per group, which counts
+ *              exactly while the group is small, then switches to a HyperLogLog++
+ *              sketch that stays sparse until the group is hot. The sizes of the resident
+ *              counters are tracked as they grow, and whenever they exceed the
+ *              memory budget the least recently used groups are serialized to
+ *              a {@link FileSpillStore} and dropped from memory. A spilled group
+ *              is read back into memory when it is next updated, while reporting
+ *              its estimate only decodes a temporary copy, so that scanning every
+ *              group does not churn the resident set. Not thread safe.
+ */
+public class KeyedCounterMap implements AutoCloseable {
+
+    // Rough cost of a resident group's key, map entry and counter object beyond its registers
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private final int precision;
+    private final long memoryBudget;
+    private final FileSpillStore spillStore;
+
+    // Iterates from the least to the most recently used group
+    private final LinkedHashMap<String, HybridHyperLogLogAlgorithm> resident;
+    private long residentBytes;
+
+    private long spills;
+    private long loads;
+
+    /**
+     * @param memoryBudget
+     *          The number of bytes the resident counters may occupy.
+     * @param spillStore
+     *          Where counters evicted from memory are kept. Closed by close().
+     */
+    public KeyedCounterMap(final long memoryBudget, final FileSpillStore spillStore) {
+        this(HyperLogLogPlusPlusAlgorithm.DEFAULT_PRECISION, memoryBudget, spillStore);
+    }
+
+    /**
+     * @param precision
+     *          The precision of every group's counter.
+     * @param memoryBudget
+     *          The number of bytes the resident counters may occupy.
+     * @param spillStore
+     *          Where counters evicted from memory are kept. Closed by close().
+     */
+    public KeyedCounterMap(final int precision, final long memoryBudget, final FileSpillStore spillStore) {
+        if (memoryBudget < 1) throw new IllegalArgumentException("memoryBudget must be positive");
+
+        this.precision = precision;
+        this.memoryBudget = memoryBudget;
+        this.spillStore = spillStore;
+        this.resident = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Counts element s in the given group.
+     */
+    public void processInput(String group, String s) {
+        processHash(group, Murmur3Hash.hash64Utf8(s));
+    }
+
+    /**
+     * Counts a pre-hashed element in the given group.
+     */
+    public void processHashes(String group, HashBundle hashes) {
+        processHash(group, hashes.getHash64());
+    }
+
+    /**
+     * Counts the element with the given 64 bit hash in the given group.
+     */
+    public void processHash(String group, long hash) {
+        // Step 1: Find the group's counter, reading it back or creating it if not resident
+        HybridHyperLogLogAlgorithm counter = acquire(group);
+
+        // Step 2: Update it, accounting for any growth of its representation
+        long before = counter.getSizeInBytes();
+        counter.processHash(hash);
+        residentBytes += counter.getSizeInBytes() - before;
+
+        // Step 3: Spill the least recently used groups until back within budget
+        if (residentBytes > memoryBudget) evict();
+    }
+
+    /**
+     * @return
+     *          The number of distinct elements in the group, exact while it is
+     *          small and estimated after, or 0 if nothing has been counted in it.
+     */
+    public double reportDistinctElements(String group) {
+        HybridHyperLogLogAlgorithm counter = resident.get(group);
+        if (counter != null) {
+            // Reporting a sparse sketch folds its buffer into its list, which may grow it past the budget
+            long before = counter.getSizeInBytes();
+            double estimate = counter.reportDistinctElements();
+            residentBytes += counter.getSizeInBytes() - before;
+            if (residentBytes > memoryBudget) evict();
+            return estimate;
+        }
+
+        ByteBuffer spilled = spillStore.get(group);
+        return spilled == null ? 0 : HybridHyperLogLogAlgorithm.readFrom(spilled).reportDistinctElements();
+    }
+
+    /**
+     * @return
+     *          A new set of every group counted in, resident or spilled.
+     */
+    public Set<String> getGroups() {
+        Set<String> groups = new HashSet<>(resident.keySet());
+        groups.addAll(spillStore.keys());
+        return groups;
+    }
+
+    public int getGroupCount() {
+        return resident.size() + spillStore.size();
+    }
+
+    public int getResidentGroupCount() {
+        return resident.size();
+    }
+
+    /**
+     * @return
+     *          The estimated number of bytes held by resident groups.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return
+     *          The number of times a group has been written to the spill store.
+     */
+    public long getSpillCount() {
+        return spills;
+    }
+
+    /**
+     * @return
+     *          The number of times a group has been read back from the spill store.
+     */
+    public long getLoadCount() {
+        return loads;
+    }
+
+    @Override
+    public void close() {
+        spillStore.close();
+    }
+
+    private HybridHyperLogLogAlgorithm acquire(String group) {
+        HybridHyperLogLogAlgorithm counter = resident.get(group);
+        if (counter != null) return counter;
+
+        ByteBuffer spilled = spillStore.remove(group);
+        if (spilled != null) {
+            counter = HybridHyperLogLogAlgorithm.readFrom(spilled);
+            loads++;
+        } else {
+            counter = new HybridHyperLogLogAlgorithm(precision);
+        }
+
+        resident.put(group, counter);
+        residentBytes += entrySize(group, counter);
+        return counter;
+    }
+
+    /**
+     * Spills groups, least recently used first, until the resident groups
+     * fit the budget. The most recently used group is always kept.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, HybridHyperLogLogAlgorithm>> groups = resident.entrySet().iterator();
+
+        while (residentBytes > memoryBudget && resident.size() > 1) {
+            Map.Entry<String, HybridHyperLogLogAlgorithm> eldest = groups.next();
+            HybridHyperLogLogAlgorithm counter = eldest.getValue();
+            long size = entrySize(eldest.getKey(), counter);
+
+            ByteBuffer serialized = ByteBuffer.allocate(counter.getSerializedSize());
+            counter.writeTo(serialized);
+            serialized.flip();
+            spillStore.put(eldest.getKey(), serialized);
+            spills++;
+
+            residentBytes -= size;
+            groups.remove();
+        }
+    }
+
+    private static long entrySize(String group, HybridHyperLogLogAlgorithm counter) {
+        return ENTRY_OVERHEAD_BYTES + 2L * group.length() + counter.getSizeInBytes();
+    }
+}
@@ -0,0 +1,107 @@
+package com.ermel272.hashes;
+
+/**
+ * Class:       BatchKernel.java
+ *
+ * Purpose:     Provides the column-wise loops of batch ingestion, using the
+ *              Vector API when the JVM offers it and plain loops otherwise.
+ *
+ * Description: create() returns a kernel backed by jdk.incubator.vector if that
+ *              module is in the boot layer, i.e. the JVM was started with
+ *              --add-modules jdk.incubator.vector, and the batch.vector system
+ *              property is not false; otherwise, or if the vector kernel is not
+ *              on the class path or fails to load, it returns a kernel of
+ *              scalar loops giving the same results. The vector kernel lives in
+ *              the separate vector module, the only one compiled against the
+ *              incubator module, and is only ever loaded reflectively, so
+ *              without either the application runs unchanged. Both kernels
+ *              cover hashing numeric elements, the HyperLogLog register index
+ *              and rank of each hash, which registers a batch raises, and the
+ *              Flajolet-Martin maximum tail length. The register updates
+ *              themselves are left to the caller: lanes of a batch may share a
+ *              register, which a vector scatter cannot resolve, so the kernel
+ *              only selects the elements that raise their register, which once
+ *              the registers fill up are few.
+ */
+public abstract class BatchKernel {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "com.ermel272.hashes.VectorBatchKernel";
+
+    BatchKernel() {
+    }
+
+    /**
+     * Creates the fastest kernel this JVM supports. Every method except
+     * hashDecimal(...) is stateless, so a kernel used only for those may be
+     * shared between threads.
+     */
+    public static BatchKernel create() {
+        if (Boolean.parseBoolean(System.getProperty("batch.vector", "true"))
+                && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return (BatchKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall back to the scalar loops, which give the same results
+            }
+        }
+        return new ScalarBatchKernel();
+    }
+
+    /**
+     * @return
+     *          True if this kernel uses the Vector API.
+     */
+    public abstract boolean isVectorized();
+
+    /**
+     * Hashes the decimal representations of elements [offset, offset + length)
+     * exactly as {@link HashBundle#compute(long)} does, writing the hashes of
+     * element offset + i at index i of each column. Uses scratch arrays owned
+     * by the kernel.
+     */
+    abstract void hashDecimal(long[] elements, int offset, int length, int[] javaHashes, int[] fnv1aHashes,
+                              int[] fnvHashes, int[] morinHashes, long[] hash64s);
+
+    /**
+     * Computes the HyperLogLog register index of each 32 bit hash, its top
+     * indexBits bits, and its rank, the position of the leftmost one bit
+     * of the remaining bits less indexBits, or 1 - indexBits if they are
+     * all zero.
+     *
+     * @param hashes
+     *          The hashes, at [offset, offset + length).
+     * @param indexes
+     *          Receives the index of hashes[offset + i] at i.
+     * @param ranks
+     *          Receives the rank of hashes[offset + i] at i.
+     */
+    public abstract void registerIndexesAndRanks(int[] hashes, int offset, int length, int indexBits,
+                                                 int[] indexes, int[] ranks);
+
+    /**
+     * Selects the elements whose rank exceeds the current value of their
+     * register. An element sharing a register with an earlier one of the
+     * batch may be selected even though the earlier one raised it further,
+     * so the caller must compare again as it applies each.
+     *
+     * @param selected
+     *          Receives the positions i in [0, length) for which
+     *          ranks[i] > registers[indexes[i]], ascending.
+     *
+     * @return
+     *          The number of positions selected.
+     */
+    public abstract int selectRegisterUpdates(int[] registers, int[] indexes, int[] ranks, int length,
+                                              int[] selected);
+
+    /**
+     * @param hashes
+     *          The hashes, at [offset, offset + length).
+     *
+     * @return
+     *          The largest number of trailing zeros of any hash, counting a
+     *          hash of 0 as having none.
+     */
+    public abstract int maxTailLength(int[] hashes, int offset, int length);
+}
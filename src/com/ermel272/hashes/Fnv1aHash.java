@@ -1,33 +1,73 @@
 package com.ermel272.hashes;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class:       Fnv1aHash.java
  *
- * Purpose:     Implements the FNV1a hashing algorithm for 32 bit hashing
+ * Purpose:     Implements the FNV1a hashing algorithm for 32 and 64 bit hashing
  *              described here: http://www.isthe.com/chongo/tech/comp/fnv/index.html.
  *
- * Description: Implementation of FNV1a hash by Prasanth Jayachandran.
+ * Description: Implementation of FNV1a hash by Prasanth Jayachandran, extended
+ *              to hash byte ranges of arrays and (heap or direct) byte buffers
+ *              without copying.
  *
- * @author Prasanth Jayachandran
+ * @author Prasanth Jayachandran & Chris Ermel
  * @since 2016-11-26.
  * @link https://github.com/prasanthj/hasher/blob/master/src/main/java/hasher/FNV1a.java
  */
 public class Fnv1aHash {
 
-    private static final int FNV1_32_INIT = 0x811c9dc5;
-    private static final int FNV1_PRIME_32 = 16777619;
+    static final int FNV1_32_INIT = 0x811c9dc5;
+    static final int FNV1_PRIME_32 = 16777619;
+    private static final long FNV1_64_INIT = 0xcbf29ce484222325L;
+    private static final long FNV1_PRIME_64 = 0x100000001b3L;
 
     public static int hash32(byte[] data) {
-        return hash32(data, data.length);
+        return hash32(data, 0, data.length);
     }
 
-    private static int hash32(byte[] data, int length) {
+    public static int hash32(byte[] data, int offset, int length) {
         int hash = FNV1_32_INIT;
-        for (int i = 0; i < length; i++) {
+        for (int i = offset; i < offset + length; i++) {
             hash ^= (data[i] & 0xff);
             hash *= FNV1_PRIME_32;
         }
 
         return hash;
     }
+
+    public static int hash32(ByteBuffer data, int offset, int length) {
+        int hash = FNV1_32_INIT;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= (data.get(i) & 0xff);
+            hash *= FNV1_PRIME_32;
+        }
+
+        return hash;
+    }
+
+    public static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    public static long hash64(byte[] data, int offset, int length) {
+        long hash = FNV1_64_INIT;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= (data[i] & 0xff);
+            hash *= FNV1_PRIME_64;
+        }
+
+        return hash;
+    }
+
+    public static long hash64(ByteBuffer data, int offset, int length) {
+        long hash = FNV1_64_INIT;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= (data.get(i) & 0xff);
+            hash *= FNV1_PRIME_64;
+        }
+
+        return hash;
+    }
 }
@@ -8,7 +8,8 @@ package com.ermel272.hashes;
  *
  * Description: Implementation of FNV hash by Makoto YUI (yuin405+xbird@gmail.com),
  *              modified slightly to swap order of xor and multiplication to make this
- *              an FNV1 hashing algorithm.
+ *              an FNV1 hashing algorithm. Hashes UTF-16 characters of any
+ *              CharSequence or char range without copying.
  *
  * @author Makoto YUI & Chris Ermel
  * @since 2016-11-26.
@@ -16,10 +17,10 @@ package com.ermel272.hashes;
  */
 public class FnvHash {
 
-    private static final int FNV_32_INIT = 0x811c9dc5;
-    private static final int FNV_32_PRIME = 0x01000193;
+    static final int FNV_32_INIT = 0x811c9dc5;
+    static final int FNV_32_PRIME = 0x01000193;
 
-    public static int hash32(final String k) {
+    public static int hash32(final CharSequence k) {
         int rv = FNV_32_INIT;
         final int len = k.length();
         for(int i = 0; i < len; i++) {
@@ -29,4 +30,14 @@ public class FnvHash {
         }
         return rv;
     }
+
+    public static int hash32(final char[] k, int offset, int length) {
+        int rv = FNV_32_INIT;
+        for(int i = offset; i < offset + length; i++) {
+            // Swapped order of xor and multiplication
+            rv *= FNV_32_PRIME;
+            rv ^= k[i];
+        }
+        return rv;
+    }
 }
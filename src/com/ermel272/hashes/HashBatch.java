@@ -0,0 +1,203 @@
+package com.ermel272.hashes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class:       HashBatch.java
+ *
+ * Purpose:     Holds every hash value the estimators need for a batch of
+ *              stream elements, so that estimators can process the whole batch
+ *              in one call instead of one virtual call per element.
+ *
+ * Description: A reusable, mutable holder laid out column by column: one int
+ *              array per 32 bit hash and one long array of 64 bit hashes, each
+ *              holding the hash of element i at index i. Each compute(...) call
+ *              hashes every element of the batch exactly as a {@link HashBundle}
+ *              would and overwrites the previous contents, growing the columns
+ *              if the batch is larger than any before. Strings and buffer ranges
+ *              are hashed one element at a time, their lengths and encodings
+ *              varying too much to share lanes; numeric elements are hashed by
+ *              the batch's {@link BatchKernel}, which uses the Vector API when
+ *              it is available. Estimators then run their own kernels over the
+ *              column they use. The elements themselves are only materialized
+ *              as Strings if getElement(i) is called, and buffer contents must
+ *              remain unchanged until then.
+ */
+public class HashBatch {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final HashBundle bundle;
+    private final BatchKernel kernel;
+
+    private int[] javaHashes;
+    private int[] fnv1aHashes;
+    private int[] fnvHashes;
+    private int[] morinHashes;
+    private long[] hash64s;
+    private int size;
+
+    // Exactly one of these describes the current elements
+    private String[] strings;
+    private int stringOffset;
+    private ByteBuffer buffer;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] longs;
+    private int longOffset;
+
+    public HashBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *          The number of elements the columns initially hold.
+     */
+    public HashBatch(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+
+        bundle = new HashBundle();
+        kernel = BatchKernel.create();
+        allocate(capacity);
+    }
+
+    /**
+     * Hashes the elements [offset, offset + length) of the array with every
+     * supported hash function.
+     *
+     * @return
+     *          This batch, for chaining.
+     */
+    public HashBatch compute(String[] elements, int offset, int length) {
+        clear(length);
+        strings = elements;
+        stringOffset = offset;
+
+        for (int i = 0; i < length; i++) {
+            store(i, bundle.compute(elements[offset + i]));
+        }
+        return this;
+    }
+
+    /**
+     * Hashes count UTF-8 encoded elements held in the (heap or direct) buffer,
+     * element i at [offsets[i], offsets[i] + lengths[i]), with every supported
+     * hash function. The buffer's position and limit are not modified.
+     *
+     * @return
+     *          This batch, for chaining.
+     */
+    public HashBatch compute(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+        clear(count);
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+
+        for (int i = 0; i < count; i++) {
+            store(i, bundle.compute(buffer, offsets[i], lengths[i]));
+        }
+        return this;
+    }
+
+    /**
+     * Hashes the decimal representations of the numeric elements
+     * [offset, offset + length) of the array.
+     *
+     * @return
+     *          This batch, for chaining.
+     */
+    public HashBatch compute(long[] elements, int offset, int length) {
+        clear(length);
+        longs = elements;
+        longOffset = offset;
+
+        kernel.hashDecimal(elements, offset, length, javaHashes, fnv1aHashes, fnvHashes, morinHashes, hash64s);
+        return this;
+    }
+
+    /**
+     * @return
+     *          The number of elements in the batch. Every column holds
+     *          the batch's hashes in [0, size()) and may be longer.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int[] getJavaHashes() {
+        return javaHashes;
+    }
+
+    public int[] getFnv1aHashes() {
+        return fnv1aHashes;
+    }
+
+    public int[] getFnvHashes() {
+        return fnvHashes;
+    }
+
+    public int[] getMorinHashes() {
+        return morinHashes;
+    }
+
+    public long[] getHash64s() {
+        return hash64s;
+    }
+
+    /**
+     * Returns element i, creating a String for it if it was not given as one.
+     */
+    public String getElement(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Element " + i + " of " + size);
+
+        if (strings != null) return strings[stringOffset + i];
+        if (longs != null) return Long.toString(longs[longOffset + i]);
+
+        byte[] bytes = new byte[lengths[i]];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = buffer.get(offsets[i] + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads the hashes of element i into a bundle owned by this batch, for
+     * estimators that process one element at a time.
+     *
+     * @return
+     *          The bundle, overwritten by the next call to getBundle(i)
+     *          or compute(...).
+     */
+    public HashBundle getBundle(int i) {
+        return bundle.load(this, i);
+    }
+
+    private void clear(int count) {
+        if (javaHashes.length < count) allocate(Math.max(count, 2 * javaHashes.length));
+
+        size = count;
+        strings = null;
+        buffer = null;
+        offsets = null;
+        lengths = null;
+        longs = null;
+    }
+
+    private void store(int i, HashBundle hashes) {
+        javaHashes[i] = hashes.getJavaHash();
+        fnv1aHashes[i] = hashes.getFnv1aHash();
+        fnvHashes[i] = hashes.getFnvHash();
+        morinHashes[i] = hashes.getMorinHash();
+        hash64s[i] = hashes.getHash64();
+    }
+
+    private void allocate(int capacity) {
+        javaHashes = new int[capacity];
+        fnv1aHashes = new int[capacity];
+        fnvHashes = new int[capacity];
+        morinHashes = new int[capacity];
+        hash64s = new long[capacity];
+    }
+}
@@ -0,0 +1,230 @@
+package com.ermel272.hashes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       HashBundle.java
+ *
+ * Purpose:     Holds every hash value the estimators need for a single
+ *              stream element so that each element is hashed exactly once.
+ *
+ * Description: A reusable, mutable holder. Each compute(...) call overwrites
+ *              the previous contents with the Java string hashcode, the FNV1a,
+ *              FNV1 and Morin 32 bit hashes, and a 64 bit Murmur3 hash of the
+ *              element's UTF-8 bytes. Elements may be given as characters or as
+ *              UTF-8 bytes; the other form is produced in scratch arrays owned by
+ *              the bundle, so hashing allocates nothing once the scratch arrays
+ *              have grown to fit the longest element. Numeric elements are
+ *              hashed as their decimal digits. The element is only
+ *              materialized as a String if getElement() is called, and byte
+ *              buffer contents must remain unchanged until then.
+ */
+public class HashBundle {
+
+    private static final int INITIAL_SCRATCH_SIZE = 64;
+
+    // Enough for the sign and 19 digits of any long
+    static final int LONG_DIGITS = 20;
+
+    private byte[] byteScratch;
+    private char[] charScratch;
+
+    // Exactly one of these describes the current element
+    private CharSequence sourceChars;
+    private int decodedLength;
+    private String element;
+    private HashBatch batch;
+    private int batchIndex;
+
+    private int javaHash;
+    private int fnv1aHash;
+    private int fnvHash;
+    private int morinHash;
+    private long hash64;
+
+    public HashBundle() {
+        byteScratch = new byte[INITIAL_SCRATCH_SIZE];
+        charScratch = new char[INITIAL_SCRATCH_SIZE];
+    }
+
+    /**
+     * Hashes the character sequence s with every supported hash function,
+     * replacing the values currently held by this bundle.
+     *
+     * @param s
+     *          The stream element to be hashed.
+     *
+     * @return
+     *          This bundle, for chaining.
+     */
+    public HashBundle compute(CharSequence s) {
+        // Step 1: Encode the characters once for all byte oriented hashes
+        int maxLength = Utf8.maxEncodedLength(s.length());
+        if (byteScratch.length < maxLength) byteScratch = new byte[Math.max(maxLength, 2 * byteScratch.length)];
+        int length = Utf8.encode(s, byteScratch);
+
+        // Step 2: Hash the element with each hash function
+        sourceChars = s;
+        element = s instanceof String ? (String) s : null;
+        batch = null;
+        javaHash = JavaStringHash.hash32(s);
+        fnvHash = FnvHash.hash32(s);
+        hashBytes(byteScratch, 0, length);
+
+        return this;
+    }
+
+    /**
+     * Hashes the UTF-8 encoded element held in bytes [offset, offset + length)
+     * with every supported hash function, replacing the values currently
+     * held by this bundle.
+     *
+     * @return
+     *          This bundle, for chaining.
+     */
+    public HashBundle compute(byte[] bytes, int offset, int length) {
+        // Step 1: Decode the bytes once for all character oriented hashes
+        ensureCharScratch(length);
+        decodedLength = Utf8.decode(bytes, offset, length, charScratch);
+
+        // Step 2: Hash the element with each hash function
+        hashChars();
+        hashBytes(bytes, offset, length);
+
+        return this;
+    }
+
+    /**
+     * Hashes the decimal representation of a numeric element, giving the same
+     * values as compute(Long.toString(element)) without creating a String.
+     *
+     * @return
+     *          This bundle, for chaining.
+     */
+    public HashBundle compute(long element) {
+        // Step 1: Write the digits backwards into the end of the byte scratch
+        final int end = LONG_DIGITS;
+        int start = writeDigits(element, byteScratch, end);
+
+        // Step 2: Hash the digits as a UTF-8 element
+        return compute(byteScratch, start, end - start);
+    }
+
+    /**
+     * Writes the decimal representation of element so that it ends just
+     * before dst[end], which must leave room for LONG_DIGITS bytes.
+     *
+     * @return
+     *          The index of its first byte.
+     */
+    static int writeDigits(long element, byte[] dst, int end) {
+        int start = end;
+        boolean negative = element < 0;
+        long remaining = negative ? element : -element;
+        do {
+            // Work with negative values so that Long.MIN_VALUE needs no special case
+            dst[--start] = (byte) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) dst[--start] = '-';
+        return start;
+    }
+
+    /**
+     * Hashes the UTF-8 encoded element held in the (heap or direct) buffer at
+     * [offset, offset + length) with every supported hash function, replacing
+     * the values currently held by this bundle. The buffer's position and
+     * limit are not modified.
+     *
+     * @return
+     *          This bundle, for chaining.
+     */
+    public HashBundle compute(ByteBuffer buffer, int offset, int length) {
+        // Step 1: Decode the bytes once for all character oriented hashes
+        ensureCharScratch(length);
+        decodedLength = Utf8.decode(buffer, offset, length, charScratch);
+
+        // Step 2: Hash the element with each hash function
+        hashChars();
+        fnv1aHash = Fnv1aHash.hash32(buffer, offset, length);
+        morinHash = MorinHash.hash32(buffer, offset, length);
+        hash64 = Murmur3Hash.hash64(buffer, offset, length);
+
+        return this;
+    }
+
+    /**
+     * Returns the current element, creating a String for it on the
+     * first call if it was not given as one.
+     *
+     * @return
+     *          The stream element most recently hashed.
+     */
+    public String getElement() {
+        if (element == null) {
+            if (batch != null) {
+                element = batch.getElement(batchIndex);
+            } else {
+                element = sourceChars != null ? sourceChars.toString() : new String(charScratch, 0, decodedLength);
+            }
+        }
+        return element;
+    }
+
+    public int getJavaHash() {
+        return javaHash;
+    }
+
+    public int getFnv1aHash() {
+        return fnv1aHash;
+    }
+
+    public int getFnvHash() {
+        return fnvHash;
+    }
+
+    public int getMorinHash() {
+        return morinHash;
+    }
+
+    public long getHash64() {
+        return hash64;
+    }
+
+    private void ensureCharScratch(int length) {
+        // A UTF-8 byte never decodes to more than one character
+        if (charScratch.length < length) charScratch = new char[Math.max(length, 2 * charScratch.length)];
+    }
+
+    /**
+     * Loads the hashes of element i of a batch, which are not recomputed,
+     * replacing the values currently held by this bundle.
+     */
+    HashBundle load(HashBatch batch, int i) {
+        this.sourceChars = null;
+        this.element = null;
+        this.batch = batch;
+        this.batchIndex = i;
+
+        javaHash = batch.getJavaHashes()[i];
+        fnv1aHash = batch.getFnv1aHashes()[i];
+        fnvHash = batch.getFnvHashes()[i];
+        morinHash = batch.getMorinHashes()[i];
+        hash64 = batch.getHash64s()[i];
+        return this;
+    }
+
+    private void hashChars() {
+        sourceChars = null;
+        element = null;
+        batch = null;
+        javaHash = JavaStringHash.hash32(charScratch, 0, decodedLength);
+        fnvHash = FnvHash.hash32(charScratch, 0, decodedLength);
+    }
+
+    private void hashBytes(byte[] bytes, int offset, int length) {
+        fnv1aHash = Fnv1aHash.hash32(bytes, offset, length);
+        morinHash = MorinHash.hash32(bytes, offset, length);
+        hash64 = Murmur3Hash.hash64(bytes, offset, length);
+    }
+}
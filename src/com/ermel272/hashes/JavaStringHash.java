@@ -0,0 +1,36 @@
+package com.ermel272.hashes;
+
+/**
+ * Class:       JavaStringHash.java
+ *
+ * Purpose:     Computes the Java string hashcode of character data
+ *              that is not held in a String.
+ *
+ * Description: Evaluates s[0]*31^(n-1) + s[1]*31^(n-2) + ... + s[n-1], as
+ *              documented for String.hashCode(), so that a CharSequence or
+ *              char range hashes identically to the equivalent String.
+ *
+ * @link http://docs.oracle.com/javase/7/docs/api/java/lang/String.html#hashCode()
+ */
+public class JavaStringHash {
+
+    public static int hash32(final CharSequence s) {
+        // Strings cache their hashcode
+        if (s instanceof String) return s.hashCode();
+
+        int h = 0;
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    public static int hash32(final char[] s, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + s[i];
+        }
+        return h;
+    }
+}
@@ -1,5 +1,7 @@
 package com.ermel272.hashes;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class:       MorinHash.java
  *
@@ -8,6 +10,8 @@ package com.ermel272.hashes;
  *
  * Description: Implementation of hash function by Pat Morin,
  *              modified slightly to account for string data type.
+ *              Operates on primitive byte ranges so that callers
+ *              need not box each byte.
  *
  * @author Pat Morin & Chris Ermel
  * @since 2016-11-26.
@@ -15,19 +19,50 @@ package com.ermel272.hashes;
  */
 public class MorinHash {
 
+    static final long P = (1L<<32)-5;   // prime: 2^32 - 5
+    static final long Z = 0x64b6055aL;  // 32 bits from random.org
+    static final int Z2 = 0x5067d19d;   // random odd 32 bit number
+
     public static int hash32(final Byte[] x) {
-        long p = (1L<<32)-5;   // prime: 2^32 - 5
-        long z = 0x64b6055aL;  // 32 bits from random.org
-        int z2 = 0x5067d19d;   // random odd 32 bit number
         long s = 0;
         long zi = 1;
         for (Byte aX : x) {
             // reduce to 31 bits
-            long xi = (aX.hashCode() * z2) >>> 1;
-            s = (s + zi * xi) % p;
-            zi = (zi * z) % p;
+            long xi = (aX.hashCode() * Z2) >>> 1;
+            s = (s + zi * xi) % P;
+            zi = (zi * Z) % P;
+        }
+        s = (s + zi * (P-1)) % P;
+        return (int)s;
+    }
+
+    public static int hash32(final byte[] x) {
+        return hash32(x, 0, x.length);
+    }
+
+    public static int hash32(final byte[] x, int offset, int length) {
+        long s = 0;
+        long zi = 1;
+        for (int i = offset; i < offset + length; i++) {
+            // reduce to 31 bits
+            long xi = (x[i] * Z2) >>> 1;
+            s = (s + zi * xi) % P;
+            zi = (zi * Z) % P;
+        }
+        s = (s + zi * (P-1)) % P;
+        return (int)s;
+    }
+
+    public static int hash32(final ByteBuffer x, int offset, int length) {
+        long s = 0;
+        long zi = 1;
+        for (int i = offset; i < offset + length; i++) {
+            // reduce to 31 bits
+            long xi = (x.get(i) * Z2) >>> 1;
+            s = (s + zi * xi) % P;
+            zi = (zi * Z) % P;
         }
-        s = (s + zi * (p-1)) % p;
+        s = (s + zi * (P-1)) % P;
         return (int)s;
     }
 }
@@ -0,0 +1,246 @@
+package com.ermel272.hashes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class:       Murmur3Hash.java
+ *
+ * Purpose:     Implements Austin Appleby's MurmurHash3 (x64, 128 bit variant)
+ *              for fast, well distributed 64 bit hashing.
+ *
+ * Description: Returns the low 64 bits of MurmurHash3_x64_128 with a seed of 0.
+ *              Byte arrays and (heap or direct) byte buffers are read eight
+ *              bytes at a time in little endian order without copying. A
+ *              CharSequence is hashed either as its UTF-16LE code units, four
+ *              characters per 64 bit word, or as its UTF-8 encoding, which is
+ *              produced on the fly.
+ *
+ * @link https://github.com/aappleby/smhasher/blob/master/src/MurmurHash3.cpp
+ */
+public class Murmur3Hash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    public static long hash64(byte[] data, int offset, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocksEnd = offset + (length & ~15);
+
+        // Step 1: Mix each 16 byte block
+        for (int i = offset; i < blocksEnd; i += 16) {
+            long k1 = (long) LONG_LE.get(data, i);
+            long k2 = (long) LONG_LE.get(data, i + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Step 2: Mix the remaining 0 to 15 bytes
+        long k1 = 0;
+        long k2 = 0;
+        final int remaining = length & 15;
+        for (int i = remaining - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (data[blocksEnd + i] & 0xff);
+        }
+        for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (data[blocksEnd + i] & 0xff);
+        }
+        if (remaining > 8) h2 ^= mixK2(k2);
+        if (remaining > 0) h1 ^= mixK1(k1);
+
+        return finish(h1, h2, length);
+    }
+
+    public static long hash64(ByteBuffer data, int offset, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocksEnd = offset + (length & ~15);
+        final boolean littleEndian = data.order() == ByteOrder.LITTLE_ENDIAN;
+
+        // Step 1: Mix each 16 byte block
+        for (int i = offset; i < blocksEnd; i += 16) {
+            long k1 = data.getLong(i);
+            long k2 = data.getLong(i + 8);
+            if (!littleEndian) {
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Step 2: Mix the remaining 0 to 15 bytes
+        long k1 = 0;
+        long k2 = 0;
+        final int remaining = length & 15;
+        for (int i = remaining - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (data.get(blocksEnd + i) & 0xff);
+        }
+        for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (data.get(blocksEnd + i) & 0xff);
+        }
+        if (remaining > 8) h2 ^= mixK2(k2);
+        if (remaining > 0) h1 ^= mixK1(k1);
+
+        return finish(h1, h2, length);
+    }
+
+    public static long hash64(CharSequence data) {
+        long h1 = 0;
+        long h2 = 0;
+        final int length = data.length();
+        final int blocksEnd = length & ~7;
+
+        // Step 1: Mix each block of 8 characters (16 bytes)
+        for (int i = 0; i < blocksEnd; i += 8) {
+            long k1 = charsToLong(data, i, 4);
+            long k2 = charsToLong(data, i + 4, 4);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Step 2: Mix the remaining 0 to 7 characters
+        final int remaining = length & 7;
+        if (remaining > 4) h2 ^= mixK2(charsToLong(data, blocksEnd + 4, remaining - 4));
+        if (remaining > 0) h1 ^= mixK1(charsToLong(data, blocksEnd, Math.min(remaining, 4)));
+
+        return finish(h1, h2, 2 * length);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of data, encoding it on the fly. Equivalent to
+     * hash64(bytes) where bytes holds the output of {@link Utf8#encode}, but
+     * without needing a scratch array.
+     */
+    public static long hash64Utf8(CharSequence data) {
+        long h1 = 0;
+        long h2 = 0;
+        long k1 = 0;
+        long k2 = 0;
+        int blockLength = 0;
+        int totalLength = 0;
+        final int length = data.length();
+
+        for (int i = 0; i < length; i++) {
+            // Step 1: Encode the next code point into up to four bytes, first byte lowest
+            char c = data.charAt(i);
+            int encoded;
+            int count;
+            if (c < 0x80) {
+                encoded = c;
+                count = 1;
+            } else if (c < 0x800) {
+                encoded = (0xc0 | (c >> 6)) | (0x80 | (c & 0x3f)) << 8;
+                count = 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(data.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, data.charAt(++i));
+                    encoded = (0xf0 | (cp >> 18)) | (0x80 | ((cp >> 12) & 0x3f)) << 8
+                            | (0x80 | ((cp >> 6) & 0x3f)) << 16 | (0x80 | (cp & 0x3f)) << 24;
+                    count = 4;
+                } else {
+                    encoded = '?';
+                    count = 1;
+                }
+            } else {
+                encoded = (0xe0 | (c >> 12)) | (0x80 | ((c >> 6) & 0x3f)) << 8 | (0x80 | (c & 0x3f)) << 16;
+                count = 3;
+            }
+
+            // Step 2: Append the bytes to the current block, mixing it once full
+            for (int b = 0; b < count; b++) {
+                long v = (encoded >>> (8 * b)) & 0xff;
+                if (blockLength < 8) k1 |= v << (8 * blockLength);
+                else k2 |= v << (8 * (blockLength - 8));
+
+                if (++blockLength == 16) {
+                    h1 ^= mixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27) + h2;
+                    h1 = h1 * 5 + 0x52dce729;
+                    h2 ^= mixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31) + h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+                    k1 = 0;
+                    k2 = 0;
+                    blockLength = 0;
+                }
+            }
+            totalLength += count;
+        }
+
+        // Step 3: Mix the remaining 0 to 15 bytes
+        if (blockLength > 8) h2 ^= mixK2(k2);
+        if (blockLength > 0) h1 ^= mixK1(k1);
+
+        return finish(h1, h2, totalLength);
+    }
+
+    /**
+     * Packs count (at most 4) characters starting at offset into
+     * a long, the first character in the lowest 16 bits.
+     */
+    private static long charsToLong(CharSequence data, int offset, int count) {
+        long k = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            k = (k << 16) | data.charAt(offset + i);
+        }
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long finish(long h1, long h2, int length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    /**
+     * The MurmurHash3 64 bit finalizer. Also useful on its own to spread
+     * the bits of an already numeric key, e.g. a user id.
+     */
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
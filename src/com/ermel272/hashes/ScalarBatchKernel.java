@@ -0,0 +1,69 @@
+package com.ermel272.hashes;
+
+/**
+ * Class:       ScalarBatchKernel.java
+ *
+ * Purpose:     Implements the batch kernels as plain loops, for JVMs
+ *              without the Vector API.
+ *
+ * Description: Each loop is branch free where the computation allows, so
+ *              that C2 can unroll it and, for the index, rank and tail
+ *              length loops, auto-vectorize it on its own.
+ */
+final class ScalarBatchKernel extends BatchKernel {
+
+    private static final int MAX_BITS = 32;
+
+    private HashBundle bundle;
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+
+    @Override
+    void hashDecimal(long[] elements, int offset, int length, int[] javaHashes, int[] fnv1aHashes,
+                     int[] fnvHashes, int[] morinHashes, long[] hash64s) {
+        if (bundle == null) bundle = new HashBundle();
+
+        for (int i = 0; i < length; i++) {
+            bundle.compute(elements[offset + i]);
+            javaHashes[i] = bundle.getJavaHash();
+            fnv1aHashes[i] = bundle.getFnv1aHash();
+            fnvHashes[i] = bundle.getFnvHash();
+            morinHashes[i] = bundle.getMorinHash();
+            hash64s[i] = bundle.getHash64();
+        }
+    }
+
+    @Override
+    public void registerIndexesAndRanks(int[] hashes, int offset, int length, int indexBits,
+                                        int[] indexes, int[] ranks) {
+        for (int i = 0; i < length; i++) {
+            int x = hashes[offset + i];
+            indexes[i] = x >>> (MAX_BITS - indexBits);
+
+            // A w of 0 has 32 leading zeros, for which the rank is that of a leading one bit
+            ranks[i] = (Integer.numberOfLeadingZeros((x << indexBits) >>> indexBits) & (MAX_BITS - 1)) + 1 - indexBits;
+        }
+    }
+
+    @Override
+    public int selectRegisterUpdates(int[] registers, int[] indexes, int[] ranks, int length, int[] selected) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (ranks[i] > registers[indexes[i]]) selected[count++] = i;
+        }
+        return count;
+    }
+
+    @Override
+    public int maxTailLength(int[] hashes, int offset, int length) {
+        int max = 0;
+        for (int i = offset; i < offset + length; i++) {
+            // A hash of 0 has 32 trailing zeros, which count as none
+            max = Math.max(max, Integer.numberOfTrailingZeros(hashes[i]) & (MAX_BITS - 1));
+        }
+        return max;
+    }
+}
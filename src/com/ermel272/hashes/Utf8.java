@@ -0,0 +1,231 @@
+package com.ermel272.hashes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       Utf8.java
+ *
+ * Purpose:     Converts between UTF-16 characters and UTF-8 bytes using
+ *              caller supplied arrays, so that no garbage is produced.
+ *
+ * Description: encode(...) matches String.getBytes(UTF_8), replacing unpaired
+ *              surrogates with '?'. decode(...) replaces malformed input with
+ *              U+FFFD one byte at a time.
+ */
+public final class Utf8 {
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private Utf8() {
+    }
+
+    /**
+     * @return
+     *          An upper bound on the number of bytes needed to
+     *          encode length UTF-16 characters.
+     */
+    public static int maxEncodedLength(int length) {
+        return length * 3;
+    }
+
+    /**
+     * @return
+     *          The number of bytes encode(s, dst) writes.
+     */
+    public static int encodedLength(CharSequence s) {
+        final int length = s.length();
+        int n = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                    n += 4;
+                } else {
+                    n++;
+                }
+            } else {
+                n += 3;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Encodes s as UTF-8 into dst, which must hold at least
+     * maxEncodedLength(s.length()) bytes.
+     *
+     * @return
+     *          The number of bytes written.
+     */
+    public static int encode(CharSequence s, byte[] dst) {
+        return encode(s, dst, 0);
+    }
+
+    /**
+     * Encodes s as UTF-8 into dst starting at offset, which must leave room
+     * for at least maxEncodedLength(s.length()) bytes.
+     *
+     * @return
+     *          The number of bytes written.
+     */
+    public static int encode(CharSequence s, byte[] dst, int offset) {
+        final int length = s.length();
+        int n = offset;
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+
+            if (c < 0x80) {
+                dst[n++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[n++] = (byte) (0xc0 | (c >> 6));
+                dst[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Only a high surrogate followed by a low surrogate is encodable
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    dst[n++] = (byte) (0xf0 | (cp >> 18));
+                    dst[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    dst[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    dst[n++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    dst[n++] = '?';
+                }
+            } else {
+                dst[n++] = (byte) (0xe0 | (c >> 12));
+                dst[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dst[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        return n - offset;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes [offset, offset + length) of src into dst,
+     * which must hold at least length characters.
+     *
+     * @return
+     *          The number of characters written.
+     */
+    public static int decode(byte[] src, int offset, int length, char[] dst) {
+        final int end = offset + length;
+        int n = 0;
+
+        for (int i = offset; i < end; ) {
+            int b = src[i] & 0xff;
+            int needed = continuationBytes(b);
+
+            if (needed < 0) {
+                dst[n++] = REPLACEMENT_CHAR;
+                i++;
+                continue;
+            }
+
+            if (needed == 0) {
+                dst[n++] = (char) b;
+                i++;
+                continue;
+            }
+
+            int cp = b & (0x3f >> needed);
+            int j = i + 1;
+            while (j <= i + needed && j < end && (src[j] & 0xc0) == 0x80) {
+                cp = (cp << 6) | (src[j++] & 0x3f);
+            }
+
+            if (j != i + needed + 1 || !isValid(cp, needed)) {
+                dst[n++] = REPLACEMENT_CHAR;
+                i++;
+            } else {
+                n += Character.toChars(cp, dst, n);
+                i = j;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes [offset, offset + length) of src into dst,
+     * which must hold at least length characters. The buffer's position
+     * and limit are not modified.
+     *
+     * @return
+     *          The number of characters written.
+     */
+    public static int decode(ByteBuffer src, int offset, int length, char[] dst) {
+        final int end = offset + length;
+        int n = 0;
+
+        for (int i = offset; i < end; ) {
+            int b = src.get(i) & 0xff;
+            int needed = continuationBytes(b);
+
+            if (needed < 0) {
+                dst[n++] = REPLACEMENT_CHAR;
+                i++;
+                continue;
+            }
+
+            if (needed == 0) {
+                dst[n++] = (char) b;
+                i++;
+                continue;
+            }
+
+            int cp = b & (0x3f >> needed);
+            int j = i + 1;
+            while (j <= i + needed && j < end && (src.get(j) & 0xc0) == 0x80) {
+                cp = (cp << 6) | (src.get(j++) & 0x3f);
+            }
+
+            if (j != i + needed + 1 || !isValid(cp, needed)) {
+                dst[n++] = REPLACEMENT_CHAR;
+                i++;
+            } else {
+                n += Character.toChars(cp, dst, n);
+                i = j;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * @return
+     *          The number of continuation bytes announced by the lead
+     *          byte b, 0 for ASCII, or -1 if b cannot start a sequence.
+     */
+    private static int continuationBytes(int b) {
+        if (b < 0x80) return 0;
+        if (b >= 0xc2 && b < 0xe0) return 1;
+        if (b >= 0xe0 && b < 0xf0) return 2;
+        if (b >= 0xf0 && b < 0xf5) return 3;
+        return -1;
+    }
+
+    /**
+     * Rejects overlong encodings, surrogates and out of range code points.
+     */
+    private static boolean isValid(int cp, int continuationBytes) {
+        switch (continuationBytes) {
+            case 1:
+                return cp >= 0x80;
+            case 2:
+                return cp >= 0x800 && !Character.isSurrogate((char) cp);
+            case 3:
+                return cp >= 0x10000 && cp <= Character.MAX_CODE_POINT;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.ermel272.hashes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class:       XxHash64.java
+ *
+ * Purpose:     Implements Yann Collet's xxHash64 for fast 64 bit hashing.
+ *
+ * Description: Hashes byte ranges of arrays and (heap or direct) byte buffers
+ *              with a seed of 0, reading eight bytes at a time in little
+ *              endian order without copying.
+ *
+ * @link https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md
+ */
+public class XxHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    public static long hash64(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        int i = offset;
+        long h;
+
+        // Step 1: Accumulate 32 byte stripes into four lanes
+        if (length >= 32) {
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+            for (; i <= end - 32; i += 32) {
+                v1 = round(v1, (long) LONG_LE.get(data, i));
+                v2 = round(v2, (long) LONG_LE.get(data, i + 8));
+                v3 = round(v3, (long) LONG_LE.get(data, i + 16));
+                v4 = round(v4, (long) LONG_LE.get(data, i + 24));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = P5;
+        }
+        h += length;
+
+        // Step 2: Consume the remaining 0 to 31 bytes
+        for (; i <= end - 8; i += 8) {
+            h ^= round(0, (long) LONG_LE.get(data, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i <= end - 4) {
+            h ^= ((int) INT_LE.get(data, i) & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (data[i] & 0xff) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        return avalanche(h);
+    }
+
+    public static long hash64(ByteBuffer data, int offset, int length) {
+        final int end = offset + length;
+        final boolean littleEndian = data.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = offset;
+        long h;
+
+        // Step 1: Accumulate 32 byte stripes into four lanes
+        if (length >= 32) {
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+            for (; i <= end - 32; i += 32) {
+                v1 = round(v1, getLong(data, i, littleEndian));
+                v2 = round(v2, getLong(data, i + 8, littleEndian));
+                v3 = round(v3, getLong(data, i + 16, littleEndian));
+                v4 = round(v4, getLong(data, i + 24, littleEndian));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = P5;
+        }
+        h += length;
+
+        // Step 2: Consume the remaining 0 to 31 bytes
+        for (; i <= end - 8; i += 8) {
+            h ^= round(0, getLong(data, i, littleEndian));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i <= end - 4) {
+            int k = data.getInt(i);
+            if (!littleEndian) k = Integer.reverseBytes(k);
+            h ^= (k & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (data.get(i) & 0xff) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        return avalanche(h);
+    }
+
+    private static long getLong(ByteBuffer data, int index, boolean littleEndian) {
+        long k = data.getLong(index);
+        return littleEndian ? k : Long.reverseBytes(k);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = mergeRound(h, v1);
+        h = mergeRound(h, v2);
+        h = mergeRound(h, v3);
+        return mergeRound(h, v4);
+    }
+
+    private static long mergeRound(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * P1 + P4;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ermel272.metrics;
+
+import com.ermel272.algorithms.DistinctCounter;
+
+/**
+ * Class:       EstimatorMetrics.java
+ *
+ * Purpose:     Publishes the metrics of a single counter, read on the
+ *              ingestion thread, for other threads to read.
+ *
+ * Description: Counters are not thread safe, so they are only ever read by
+ *              refresh(exact) on the ingestion thread, which copies the
+ *              results into volatile fields.
+ */
+public class EstimatorMetrics implements EstimatorMetricsMXBean {
+
+    private final String name;
+    private final DistinctCounter counter;
+    private final LatencyHistogram latencies;
+
+    private volatile double estimate;
+    private volatile double relativeError;
+    private volatile long sizeInBytes;
+
+    /**
+     * @param latencies
+     *          The counter's sampled update latencies, or null if they are
+     *          not sampled.
+     */
+    public EstimatorMetrics(String name, DistinctCounter counter, LatencyHistogram latencies) {
+        this.name = name;
+        this.counter = counter;
+        this.latencies = latencies == null ? new LatencyHistogram() : latencies;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Reads the counter. Must only be called by the ingestion thread.
+     *
+     * @param exact
+     *          The exact number of distinct elements.
+     */
+    void refresh(double exact) {
+        estimate = counter.reportDistinctElements();
+        relativeError = exact == 0 ? 0 : (estimate - exact) / exact;
+        sizeInBytes = counter.getSizeInBytes();
+    }
+
+    @Override
+    public double getEstimate() {
+        return estimate;
+    }
+
+    @Override
+    public double getRelativeError() {
+        return relativeError;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public long getSampledUpdates() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getUpdateNanosMean() {
+        return latencies.getMean();
+    }
+
+    @Override
+    public long getUpdateNanosP50() {
+        return latencies.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getUpdateNanosP99() {
+        return latencies.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getUpdateNanosP999() {
+        return latencies.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getUpdateNanosMax() {
+        return latencies.getMax();
+    }
+
+    @Override
+    public void resetLatencies() {
+        latencies.reset();
+    }
+}
@@ -0,0 +1,51 @@
+package com.ermel272.metrics;
+
+/**
+ * Class:       EstimatorMetricsMXBean.java
+ *
+ * Purpose:     Exposes the accuracy, footprint and update cost of a single
+ *              counter through JMX.
+ *
+ * Description: Estimates, errors and sizes are refreshed by the ingestion
+ *              thread about once per refresh interval. Latencies are those
+ *              of the elements sampled by the dispatcher, in nanoseconds.
+ */
+public interface EstimatorMetricsMXBean {
+
+    double getEstimate();
+
+    /**
+     * @return
+     *          (estimate - exact) / exact, against the pipeline's exact
+     *          counter, or 0 while the exact count is 0.
+     */
+    double getRelativeError();
+
+    /**
+     * @return
+     *          The number of bytes held by the counter, or -1 if it does
+     *          not track its size.
+     */
+    long getSizeInBytes();
+
+    /**
+     * @return
+     *          The number of sampled updates.
+     */
+    long getSampledUpdates();
+
+    double getUpdateNanosMean();
+
+    long getUpdateNanosP50();
+
+    long getUpdateNanosP99();
+
+    long getUpdateNanosP999();
+
+    long getUpdateNanosMax();
+
+    /**
+     * Clears the sampled latencies, e.g. after warm up.
+     */
+    void resetLatencies();
+}
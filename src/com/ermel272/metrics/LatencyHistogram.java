@@ -0,0 +1,149 @@
+package com.ermel272.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class:       LatencyHistogram.java
+ *
+ * Purpose:     Records a distribution of latencies on a hot path without
+ *              allocating, so that percentiles can be read from another thread.
+ *
+ * Description: Buckets values in the log-linear layout of HdrHistogram: values
+ *              below 2^SUB_BUCKET_BITS have a bucket each, and every power of two
+ *              above that is split into 2^(SUB_BUCKET_BITS - 1) equal buckets, so
+ *              a value is always recorded to within 1/64 of itself. The layout
+ *              covers every non-negative long in 3712 counts. There must be a
+ *              single recording thread, which updates each count with an ordered
+ *              store rather than an atomic increment; readers see every count as
+ *              of some recent moment, though not all counts as of the same one.
+ *
+ * @link http://hdrhistogram.org
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+    // Enough buckets to hold Long.MAX_VALUE
+    private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * Records one value. Must only be called by the recording thread.
+     *
+     * @param value
+     *          The value, e.g. a latency in nanoseconds. Negative values
+     *          are recorded as 0.
+     */
+    public void record(long value) {
+        int index = indexOf(Math.max(value, 0));
+        counts.lazySet(index, counts.get(index) + 1);
+    }
+
+    /**
+     * Clears every count. Values recorded while resetting may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+    }
+
+    /**
+     * @return
+     *          The number of values recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return
+     *          The mean of the recorded values, each taken as the middle
+     *          of its bucket, or 0 if none have been recorded.
+     */
+    public double getMean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n == 0) continue;
+
+            count += n;
+            total += n * ((double) lowestValueAt(i) + highestValueAt(i)) / 2;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @return
+     *          The largest recorded value, to within its bucket, or 0 if
+     *          none have been recorded.
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) return highestValueAt(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @param percentile
+     *          The percentile, between 0 and 100.
+     *
+     * @return
+     *          The smallest value, to within its bucket, that is at least as
+     *          large as the given percentage of the recorded values, or 0 if
+     *          none have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+        // Step 1: Snapshot the counts, so the total and the walk agree
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+
+        // Step 2: Walk the buckets until the rank of the percentile is reached
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return highestValueAt(i);
+        }
+        return getMax();
+    }
+
+    /**
+     * Maps a value to its bucket. Values below 2^SUB_BUCKET_BITS map to
+     * themselves; larger values are shifted right until they fit in
+     * SUB_BUCKET_BITS bits, and each shift adds HALF_SUB_BUCKETS buckets.
+     */
+    private static int indexOf(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long lowestValueAt(int index) {
+        int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+        return (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+    }
+
+    private static long highestValueAt(int index) {
+        int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+}
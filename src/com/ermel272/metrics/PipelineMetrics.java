@@ -0,0 +1,281 @@
+package com.ermel272.metrics;
+
+import com.ermel272.algorithms.DistinctCounter;
+import com.ermel272.algorithms.DistinctCounterDispatcher;
+import com.ermel272.grouping.KeyedCounterMap;
+import com.ermel272.persistence.Checkpointer;
+import com.ermel272.reporting.EstimateReporter;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class:       PipelineMetrics.java
+ *
+ * Purpose:     Instruments a running stream: its throughput, the accuracy,
+ *              footprint and update latency of each counter, and the depth
+ *              of the report queue, all exposed as JMX MBeans.
+ *
+ * Description: The ingestion thread calls onElement(count) after each element,
+ *              or onBatch(previousCount, count) after each batch, which costs
+ *              an ordered store, plus a clock read every CHECK_INTERVAL
+ *              elements. Once a refresh interval has passed, the
+ *              ingestion thread computes the throughput over the interval and
+ *              reads every counter, comparing its estimate with the exact
+ *              counter's, and publishes the results in volatile fields. JMX
+ *              reads only those fields, the latency histograms and the
+ *              reporter's queue, so it never touches a counter concurrently
+ *              with the ingestion thread.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    public static final String DOMAIN = "com.ermel272";
+
+    // Must be a power of two so the check is a mask
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final long refreshNanos;
+    private final DistinctCounter exactCounter;
+    private final List<EstimatorMetrics> estimators;
+    private final EstimateReporter reporter;
+    private final Checkpointer checkpointer;
+    private final KeyedCounterMap groups;
+
+    private final AtomicLong elementCount;
+    private final AtomicLong skippedKeyCount;
+    private volatile double elementsPerSecond;
+    private volatile long checkpointCount;
+    private volatile double lastCheckpointMillis;
+    private volatile int groupCount;
+    private volatile long groupResidentBytes;
+
+    // Start of the current throughput interval, only touched by the ingestion thread
+    private boolean started;
+    private long intervalStartNanos;
+    private long intervalStartCount;
+
+    private final List<ObjectName> registered;
+
+    /**
+     * @param counters
+     *          The counters to instrument, by name.
+     * @param exactCounter
+     *          The counter errors are measured against.
+     * @param dispatcher
+     *          The dispatcher whose sampled latencies are exposed.
+     * @param reporter
+     *          The reporter whose queue is exposed.
+     * @param checkpointer
+     *          The checkpointer whose timings are exposed. May be null.
+     * @param groups
+     *          The per group counters whose footprint is exposed. May be null.
+     * @param refreshMillis
+     *          How often the counters are read and the throughput computed.
+     */
+    public PipelineMetrics(Map<String, DistinctCounter> counters, DistinctCounter exactCounter,
+                           DistinctCounterDispatcher dispatcher, EstimateReporter reporter,
+                           Checkpointer checkpointer, KeyedCounterMap groups, long refreshMillis) {
+        if (refreshMillis < 1) throw new IllegalArgumentException("refreshMillis must be positive");
+
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.exactCounter = exactCounter;
+        this.reporter = reporter;
+        this.checkpointer = checkpointer;
+        this.groups = groups;
+        this.elementCount = new AtomicLong();
+        this.skippedKeyCount = new AtomicLong();
+        this.registered = new ArrayList<>();
+
+        this.estimators = new ArrayList<>();
+        for (Map.Entry<String, DistinctCounter> counter : counters.entrySet()) {
+            estimators.add(new EstimatorMetrics(counter.getKey(), counter.getValue(),
+                    dispatcher.getLatencies(counter.getValue())));
+        }
+    }
+
+    /**
+     * Called by the ingestion thread after each element is processed.
+     *
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void onElement(long count) {
+        onBatch(count - 1, count);
+    }
+
+    /**
+     * Called by the ingestion thread after a batch of elements is processed,
+     * reading the clock if the batch crossed a multiple of CHECK_INTERVAL.
+     *
+     * @param previousCount
+     *          The number of elements processed before the batch.
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void onBatch(long previousCount, long count) {
+        elementCount.lazySet(count);
+
+        if (!started) {
+            started = true;
+            intervalStartNanos = System.nanoTime();
+            intervalStartCount = count;
+        } else if (previousCount / CHECK_INTERVAL != count / CHECK_INTERVAL) {
+            long now = System.nanoTime();
+            if (now - intervalStartNanos >= refreshNanos) refresh(count, now);
+        }
+    }
+
+    /**
+     * Called by the ingestion thread for each element skipped because its
+     * key could not be parsed, such as a line that is not a user id.
+     */
+    public void onSkippedKey() {
+        // Only the ingestion thread writes, so an ordered store suffices
+        skippedKeyCount.lazySet(skippedKeyCount.get() + 1);
+    }
+
+    /**
+     * Reads every counter now, e.g. at the end of the stream. Must only be
+     * called by the ingestion thread.
+     *
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void refresh(long count) {
+        elementCount.lazySet(count);
+        refresh(count, System.nanoTime());
+    }
+
+    /**
+     * @return
+     *          An unmodifiable view of the metrics of each counter.
+     */
+    public List<EstimatorMetrics> getEstimators() {
+        return Collections.unmodifiableList(estimators);
+    }
+
+    /**
+     * Registers this bean as DOMAIN:type=Pipeline, and each counter's metrics
+     * as DOMAIN:type=Estimator,name=name, with the platform MBean server.
+     *
+     * @throws IllegalStateException
+     *          If the beans cannot be registered, e.g. because another
+     *          pipeline in this JVM already has.
+     */
+    public synchronized void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Pipeline"), this);
+            for (EstimatorMetrics estimator : estimators) {
+                register(server, new ObjectName(DOMAIN + ":type=Estimator,name=" + estimator.getName()), estimator);
+            }
+        } catch (JMException e) {
+            unregisterMBeans();
+            throw new IllegalStateException("Could not register pipeline MBeans", e);
+        }
+    }
+
+    /**
+     * Unregisters every bean registered by registerMBeans().
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // Already unregistered by someone else
+            }
+        }
+        registered.clear();
+    }
+
+    @Override
+    public long getElementCount() {
+        return elementCount.get();
+    }
+
+    @Override
+    public long getSkippedKeyCount() {
+        return skippedKeyCount.get();
+    }
+
+    @Override
+    public double getElementsPerSecond() {
+        return elementsPerSecond;
+    }
+
+    @Override
+    public int getReportQueueDepth() {
+        return reporter.getQueueDepth();
+    }
+
+    @Override
+    public int getReportQueueCapacity() {
+        return reporter.getQueueCapacity();
+    }
+
+    @Override
+    public long getDroppedReports() {
+        return reporter.getDroppedReports();
+    }
+
+    @Override
+    public long getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    @Override
+    public double getLastCheckpointMillis() {
+        return lastCheckpointMillis;
+    }
+
+    @Override
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    @Override
+    public long getGroupResidentBytes() {
+        return groupResidentBytes;
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        server.registerMBean(bean, name);
+        registered.add(name);
+    }
+
+    private void refresh(long count, long now) {
+        // Step 1: Compute the throughput over the interval, and start the next one
+        if (now > intervalStartNanos) {
+            elementsPerSecond = (count - intervalStartCount) * (double) TimeUnit.SECONDS.toNanos(1)
+                    / (now - intervalStartNanos);
+        }
+        intervalStartNanos = now;
+        intervalStartCount = count;
+
+        // Step 2: Read every counter against the exact count
+        double exact = exactCounter.reportDistinctElements();
+        for (EstimatorMetrics estimator : estimators) {
+            estimator.refresh(exact);
+        }
+
+        // Step 3: Copy the state only safe to read on this thread
+        if (checkpointer != null) {
+            checkpointCount = checkpointer.getCheckpointCount();
+            lastCheckpointMillis = checkpointer.getLastCheckpointNanos() / 1e6;
+        }
+        if (groups != null) {
+            groupCount = groups.getGroupCount();
+            groupResidentBytes = groups.getResidentBytes();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.ermel272.metrics;
+
+/**
+ * Class:       PipelineMetricsMXBean.java
+ *
+ * Purpose:     Exposes the health of the ingestion pipeline through JMX.
+ *
+ * Description: Rates and sizes are refreshed by the ingestion thread about
+ *              once per refresh interval, so they lag the stream slightly;
+ *              queue depths are read live.
+ */
+public interface PipelineMetricsMXBean {
+
+    /**
+     * @return
+     *          The number of elements processed.
+     */
+    long getElementCount();
+
+    /**
+     * @return
+     *          The number of elements skipped because their key could not
+     *          be parsed, e.g. non-numeric lines when counting user ids.
+     */
+    long getSkippedKeyCount();
+
+    /**
+     * @return
+     *          The number of elements processed per second over the
+     *          last refresh interval.
+     */
+    double getElementsPerSecond();
+
+    /**
+     * @return
+     *          The number of report rows waiting for the writer thread.
+     */
+    int getReportQueueDepth();
+
+    int getReportQueueCapacity();
+
+    /**
+     * @return
+     *          The number of report rows dropped because the queue was full.
+     */
+    long getDroppedReports();
+
+    long getCheckpointCount();
+
+    /**
+     * @return
+     *          How long the last checkpoint took to write, in milliseconds.
+     */
+    double getLastCheckpointMillis();
+
+    /**
+     * @return
+     *          The number of groups counted in, resident or spilled.
+     */
+    int getGroupCount();
+
+    /**
+     * @return
+     *          The estimated number of bytes held by resident group counters.
+     */
+    long getGroupResidentBytes();
+}
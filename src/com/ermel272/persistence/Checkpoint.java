@@ -0,0 +1,157 @@
+package com.ermel272.persistence;
+
+import com.ermel272.algorithms.DistinctCounter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Class:       Checkpoint.java
+ *
+ * Purpose:     Saves a set of named counters, and the number of elements
+ *              they have seen, to a file from which they can be restored.
+ *
+ * Description: The file holds a magic number, file version, element count,
+ *              entry count and a CRC32 of the entries, followed by each
+ *              counter's name and its {@link SketchFormat} bytes. Both writing
+ *              and reading go through a memory mapping of the file, so that
+ *              restoring dense sketches costs little more than copying their
+ *              registers. A checkpoint is written to a temporary file which
+ *              then atomically replaces the previous one, so a crash while
+ *              writing leaves the previous checkpoint intact.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x44534350;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4 + 4;
+
+    private final long elementCount;
+    private final Map<String, DistinctCounter> counters;
+
+    /**
+     * @param elementCount
+     *          The number of elements the counters have seen.
+     * @param counters
+     *          The counters by name, in the order they are to be written.
+     */
+    public Checkpoint(long elementCount, Map<String, DistinctCounter> counters) {
+        this.elementCount = elementCount;
+        this.counters = Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    public Map<String, DistinctCounter> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Writes this checkpoint to file, replacing any previous one.
+     */
+    public void write(Path file) throws IOException {
+        // Step 1: Size the file, so it can be mapped in one piece
+        long size = HEADER_SIZE;
+        for (Map.Entry<String, DistinctCounter> entry : counters.entrySet()) {
+            size += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length
+                    + 4 + SketchFormat.serializedSize(entry.getValue());
+        }
+        if (size > Integer.MAX_VALUE) throw new IOException("Checkpoint of " + size + " bytes is too large to map");
+
+        // Step 2: Write the entries into a mapping of a temporary file
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.position(HEADER_SIZE);
+            for (Map.Entry<String, DistinctCounter> entry : counters.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+
+                int lengthPosition = buffer.position();
+                buffer.position(lengthPosition + 4);
+                SketchFormat.write(entry.getValue(), buffer);
+                buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+            }
+
+            // Step 3: Fill in the header, checksumming the entries
+            buffer.putInt(0, MAGIC);
+            buffer.put(4, (byte) FILE_VERSION);
+            buffer.putLong(5, elementCount);
+            buffer.putInt(13, counters.size());
+            buffer.putInt(17, checksum(buffer, HEADER_SIZE, (int) size));
+
+            buffer.force();
+        }
+
+        // Step 4: Replace the previous checkpoint
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the checkpoint held in file.
+     *
+     * @return
+     *          The checkpoint, or null if file does not exist.
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) throw new IOException("Not a checkpoint: " + file);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            // Step 1: Validate the header and checksum
+            if (buffer.getInt(0) != MAGIC) throw new IOException("Not a checkpoint: " + file);
+            int version = buffer.get(4);
+            if (version != FILE_VERSION) throw new IOException("Unsupported checkpoint version " + version);
+            if (buffer.getInt(17) != checksum(buffer, HEADER_SIZE, (int) size)) {
+                throw new IOException("Checkpoint is corrupt: " + file);
+            }
+
+            long elementCount = buffer.getLong(5);
+            int entries = buffer.getInt(13);
+
+            // Step 2: Read each counter
+            Map<String, DistinctCounter> counters = new LinkedHashMap<>();
+            buffer.position(HEADER_SIZE);
+            for (int i = 0; i < entries; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                counters.put(new String(name, StandardCharsets.UTF_8), SketchFormat.read(buffer));
+                if (buffer.position() != end) throw new IOException("Checkpoint is corrupt: " + file);
+            }
+
+            return new Checkpoint(elementCount, counters);
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int to) {
+        ByteBuffer entries = buffer.duplicate();
+        entries.position(from).limit(to);
+
+        CRC32 crc = new CRC32();
+        crc.update(entries);
+        return (int) crc.getValue();
+    }
+}
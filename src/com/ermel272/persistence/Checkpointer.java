@@ -0,0 +1,111 @@
+package com.ermel272.persistence;
+
+import com.ermel272.algorithms.DistinctCounter;
+import com.ermel272.reporting.ReportSampler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Class:       Checkpointer.java
+ *
+ * Purpose:     Periodically saves the counters of a running stream to a
+ *              {@link Checkpoint} file, and restores them at startup.
+ *
+ * Description: Checkpoints are taken on the ingestion thread between two
+ *              elements, whenever the {@link ReportSampler} says one is due,
+ *              so the counters are captured in a consistent state without
+ *              any locking.
+ */
+public class Checkpointer {
+
+    private final Path file;
+    private final ReportSampler sampler;
+
+    private long checkpoints;
+    private long lastCheckpointNanos;
+
+    /**
+     * @param file
+     *          The checkpoint file.
+     * @param sampler
+     *          Decides after which elements a checkpoint is taken.
+     */
+    public Checkpointer(Path file, ReportSampler sampler) {
+        this.file = file;
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return
+     *          The last checkpoint written to the file, or null if there is none.
+     */
+    public Checkpoint restore() {
+        try {
+            return Checkpoint.read(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Called by the ingestion thread after each element is processed.
+     *
+     * @param elementCount
+     *          The number of elements processed so far.
+     * @param counters
+     *          The counters to save, by name.
+     */
+    public void onElement(long elementCount, Map<String, DistinctCounter> counters) {
+        if (sampler.shouldReport(elementCount)) checkpoint(elementCount, counters);
+    }
+
+    /**
+     * Called by the ingestion thread after a batch of elements is processed,
+     * checkpointing the counters as of the end of the batch if one was due
+     * after any of its elements.
+     *
+     * @param previousCount
+     *          The number of elements processed before the batch.
+     * @param elementCount
+     *          The number of elements processed so far.
+     * @param counters
+     *          The counters to save, by name.
+     */
+    public void onBatch(long previousCount, long elementCount, Map<String, DistinctCounter> counters) {
+        if (sampler.shouldReport(previousCount, elementCount)) checkpoint(elementCount, counters);
+    }
+
+    /**
+     * Saves the counters now.
+     */
+    public void checkpoint(long elementCount, Map<String, DistinctCounter> counters) {
+        long start = System.nanoTime();
+        try {
+            new Checkpoint(elementCount, counters).write(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        lastCheckpointNanos = System.nanoTime() - start;
+        checkpoints++;
+    }
+
+    /**
+     * @return
+     *          The number of checkpoints written.
+     */
+    public long getCheckpointCount() {
+        return checkpoints;
+    }
+
+    /**
+     * @return
+     *          How long the last checkpoint took to write, in nanoseconds.
+     */
+    public long getLastCheckpointNanos() {
+        return lastCheckpointNanos;
+    }
+}
@@ -0,0 +1,198 @@
+package com.ermel272.persistence;
+
+import com.ermel272.algorithms.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       SketchFormat.java
+ *
+ * Purpose:     Defines the versioned binary format in which counters
+ *              are persisted.
+ *
+ * Description: A serialized counter is a format version byte, a type byte
+ *              identifying the counter's class, and the counter's own compact
+ *              form as written by its writeTo(dst), which copies registers
+ *              and tail lengths directly rather than going through Java
+ *              serialization. Readers reject versions newer than their own,
+ *              so the format can evolve without misreading old checkpoints.
+ */
+public final class SketchFormat {
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 2;
+
+    private static final byte FLAJOLET_MARTIN = 1;
+    private static final byte AVERAGED_FLAJOLET_MARTIN = 2;
+    private static final byte BOUNDED_AVERAGED_FLAJOLET_MARTIN = 3;
+    private static final byte FOUR_BY_ONE_FLAJOLET_MARTIN = 4;
+    private static final byte TWO_BY_TWO_FLAJOLET_MARTIN = 5;
+    private static final byte HYPER_LOG_LOG = 6;
+    private static final byte HYPER_LOG_LOG_PLUS_PLUS = 7;
+    private static final byte DETERMINISTIC = 8;
+    private static final byte FINGERPRINT_SET = 9;
+    private static final byte ROARING_BITMAP = 10;
+    private static final byte HYBRID_HYPER_LOG_LOG = 11;
+    private static final byte PCSA_FLAJOLET_MARTIN = 12;
+
+    private SketchFormat() {
+    }
+
+    /**
+     * @return
+     *          True if counter can be written by write(counter, dst).
+     */
+    public static boolean isSupported(DistinctCounter counter) {
+        return typeOf(counter) != 0;
+    }
+
+    /**
+     * @return
+     *          The number of bytes write(counter, dst) will write.
+     */
+    public static long serializedSize(DistinctCounter counter) {
+        switch (typeOf(counter)) {
+            case FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((FlajoletMartinAlgorithm) counter).getSerializedSize();
+            case AVERAGED_FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((AveragedFlajoletMartinAlgorithm) counter).getSerializedSize();
+            case BOUNDED_AVERAGED_FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((BoundedAveragedFlajoletMartinAlgorithm) counter).getSerializedSize();
+            case FOUR_BY_ONE_FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((FourByOneFlajoletMartinAlgorithm) counter).getSerializedSize();
+            case TWO_BY_TWO_FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((TwoByTwoFlajoletMartinAlgorithm) counter).getSerializedSize();
+            case HYPER_LOG_LOG:
+                return HEADER_SIZE + ((HyperLogLogAlgorithm) counter).getSerializedSize();
+            case HYPER_LOG_LOG_PLUS_PLUS:
+                return HEADER_SIZE + ((HyperLogLogPlusPlusAlgorithm) counter).getSerializedSize();
+            case DETERMINISTIC:
+                return HEADER_SIZE + ((DeterministicAlgorithm) counter).getSerializedSize();
+            case FINGERPRINT_SET:
+                return HEADER_SIZE + ((FingerprintSetAlgorithm) counter).getSerializedSize();
+            case ROARING_BITMAP:
+                return HEADER_SIZE + ((RoaringBitmapAlgorithm) counter).getSerializedSize();
+            case HYBRID_HYPER_LOG_LOG:
+                return HEADER_SIZE + ((HybridHyperLogLogAlgorithm) counter).getSerializedSize();
+            case PCSA_FLAJOLET_MARTIN:
+                return HEADER_SIZE + ((PcsaFlajoletMartinAlgorithm) counter).getSerializedSize();
+            default:
+                throw unsupported(counter);
+        }
+    }
+
+    /**
+     * Writes counter to dst, which must have at least serializedSize(counter)
+     * bytes remaining.
+     */
+    public static void write(DistinctCounter counter, ByteBuffer dst) {
+        byte type = typeOf(counter);
+        if (type == 0) throw unsupported(counter);
+
+        dst.put((byte) VERSION);
+        dst.put(type);
+
+        switch (type) {
+            case FLAJOLET_MARTIN:
+                ((FlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+            case AVERAGED_FLAJOLET_MARTIN:
+                ((AveragedFlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+            case BOUNDED_AVERAGED_FLAJOLET_MARTIN:
+                ((BoundedAveragedFlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+            case FOUR_BY_ONE_FLAJOLET_MARTIN:
+                ((FourByOneFlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+            case TWO_BY_TWO_FLAJOLET_MARTIN:
+                ((TwoByTwoFlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+            case HYPER_LOG_LOG:
+                ((HyperLogLogAlgorithm) counter).writeTo(dst);
+                break;
+            case HYPER_LOG_LOG_PLUS_PLUS:
+                ((HyperLogLogPlusPlusAlgorithm) counter).writeTo(dst);
+                break;
+            case DETERMINISTIC:
+                ((DeterministicAlgorithm) counter).writeTo(dst);
+                break;
+            case FINGERPRINT_SET:
+                ((FingerprintSetAlgorithm) counter).writeTo(dst);
+                break;
+            case ROARING_BITMAP:
+                ((RoaringBitmapAlgorithm) counter).writeTo(dst);
+                break;
+            case HYBRID_HYPER_LOG_LOG:
+                ((HybridHyperLogLogAlgorithm) counter).writeTo(dst);
+                break;
+            case PCSA_FLAJOLET_MARTIN:
+                ((PcsaFlajoletMartinAlgorithm) counter).writeTo(dst);
+                break;
+        }
+    }
+
+    /**
+     * Reads a counter written by write(counter, dst), advancing src past it.
+     *
+     * @return
+     *          A counter equal to the one written.
+     */
+    public static DistinctCounter read(ByteBuffer src) {
+        int version = src.get();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch format version " + version);
+        }
+
+        byte type = src.get();
+        switch (type) {
+            case FLAJOLET_MARTIN:
+                return FlajoletMartinAlgorithm.readFrom(src);
+            case AVERAGED_FLAJOLET_MARTIN:
+                return AveragedFlajoletMartinAlgorithm.readFrom(src);
+            case BOUNDED_AVERAGED_FLAJOLET_MARTIN:
+                return BoundedAveragedFlajoletMartinAlgorithm.readFrom(src);
+            case FOUR_BY_ONE_FLAJOLET_MARTIN:
+                return FourByOneFlajoletMartinAlgorithm.readFrom(src);
+            case TWO_BY_TWO_FLAJOLET_MARTIN:
+                return TwoByTwoFlajoletMartinAlgorithm.readFrom(src);
+            case HYPER_LOG_LOG:
+                return HyperLogLogAlgorithm.readFrom(src);
+            case HYPER_LOG_LOG_PLUS_PLUS:
+                return HyperLogLogPlusPlusAlgorithm.readFrom(src);
+            case DETERMINISTIC:
+                return DeterministicAlgorithm.readFrom(src);
+            case FINGERPRINT_SET:
+                return FingerprintSetAlgorithm.readFrom(src);
+            case ROARING_BITMAP:
+                return RoaringBitmapAlgorithm.readFrom(src);
+            case HYBRID_HYPER_LOG_LOG:
+                return HybridHyperLogLogAlgorithm.readFrom(src);
+            case PCSA_FLAJOLET_MARTIN:
+                return PcsaFlajoletMartinAlgorithm.readFrom(src);
+            default:
+                throw new IllegalArgumentException("Unknown sketch type " + type);
+        }
+    }
+
+    private static byte typeOf(DistinctCounter counter) {
+        if (counter instanceof FlajoletMartinAlgorithm) return FLAJOLET_MARTIN;
+        if (counter instanceof AveragedFlajoletMartinAlgorithm) return AVERAGED_FLAJOLET_MARTIN;
+        if (counter instanceof BoundedAveragedFlajoletMartinAlgorithm) return BOUNDED_AVERAGED_FLAJOLET_MARTIN;
+        if (counter instanceof FourByOneFlajoletMartinAlgorithm) return FOUR_BY_ONE_FLAJOLET_MARTIN;
+        if (counter instanceof TwoByTwoFlajoletMartinAlgorithm) return TWO_BY_TWO_FLAJOLET_MARTIN;
+        if (counter instanceof HyperLogLogAlgorithm) return HYPER_LOG_LOG;
+        if (counter instanceof HyperLogLogPlusPlusAlgorithm) return HYPER_LOG_LOG_PLUS_PLUS;
+        if (counter instanceof DeterministicAlgorithm) return DETERMINISTIC;
+        if (counter instanceof FingerprintSetAlgorithm) return FINGERPRINT_SET;
+        if (counter instanceof RoaringBitmapAlgorithm) return ROARING_BITMAP;
+        if (counter instanceof HybridHyperLogLogAlgorithm) return HYBRID_HYPER_LOG_LOG;
+        if (counter instanceof PcsaFlajoletMartinAlgorithm) return PCSA_FLAJOLET_MARTIN;
+        return 0;
+    }
+
+    private static IllegalArgumentException unsupported(DistinctCounter counter) {
+        return new IllegalArgumentException("Cannot serialize " + counter.getClass().getName());
+    }
+}
@@ -0,0 +1,143 @@
+package com.ermel272.query;
+
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.algorithms.SlidingHyperLogLogAlgorithm;
+import com.ermel272.rollup.RollupStore;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Class:       EstimateSnapshot.java
+ *
+ * Purpose:     Holds the estimates of a running stream as of one moment, to be
+ *              read by any number of threads while the stream goes on.
+ *
+ * Description: Built by a {@link SnapshotPublisher} on the ingestion thread and
+ *              never modified after. The estimates and group counts are copied
+ *              values, and window and range queries are answered by private
+ *              copies of the sliding window sketch and the rollup store, which
+ *              queries only read. The window copy may be shared with earlier
+ *              snapshots, and windows end when it was taken, which may be a
+ *              little before the snapshot.
+ */
+public final class EstimateSnapshot {
+
+    private final long elementCount;
+    private final long timestampMillis;
+    private final Map<String, Double> estimates;
+    private final Map<String, Double> groups;
+    private final SlidingHyperLogLogAlgorithm window;
+    private final long windowTimestampMillis;
+    private final RollupStore<HyperLogLogPlusPlusAlgorithm> rollups;
+
+    /**
+     * @param estimates
+     *          The estimate of each counter by name, no longer modified.
+     * @param groups
+     *          The count of each group by name, no longer modified.
+     * @param window
+     *          A copy of the sliding window sketch whose clock is stopped
+     *          at windowTimestampMillis, no longer modified. May be null.
+     * @param windowTimestampMillis
+     *          When the window sketch was copied.
+     * @param rollups
+     *          A snapshot of the rollup store. May be null.
+     */
+    EstimateSnapshot(long elementCount, long timestampMillis, Map<String, Double> estimates,
+                     Map<String, Double> groups, SlidingHyperLogLogAlgorithm window, long windowTimestampMillis,
+                     RollupStore<HyperLogLogPlusPlusAlgorithm> rollups) {
+        this.elementCount = elementCount;
+        this.timestampMillis = timestampMillis;
+        this.estimates = Collections.unmodifiableMap(estimates);
+        this.groups = Collections.unmodifiableMap(groups);
+        this.window = window;
+        this.windowTimestampMillis = windowTimestampMillis;
+        this.rollups = rollups;
+    }
+
+    /**
+     * @return
+     *          The number of elements processed when the snapshot was taken.
+     */
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * @return
+     *          When the snapshot was taken, in epoch milliseconds.
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return
+     *          The estimate of each counter, by name, in report order.
+     */
+    public Map<String, Double> getEstimates() {
+        return estimates;
+    }
+
+    /**
+     * @return
+     *          The number of distinct users of each group, by name.
+     */
+    public Map<String, Double> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return
+     *          The longest window that may be queried, or 0 if windows
+     *          are not tracked.
+     */
+    public long getMaxWindowMillis() {
+        return window == null ? 0 : window.getMaxWindowMillis();
+    }
+
+    /**
+     * @return
+     *          When the windows queried end, in epoch milliseconds, at or
+     *          a little before getTimestampMillis().
+     */
+    public long getWindowTimestampMillis() {
+        return windowTimestampMillis;
+    }
+
+    /**
+     * @return
+     *          True if range queries are tracked.
+     */
+    public boolean hasRanges() {
+        return rollups != null;
+    }
+
+    /**
+     * Estimates the number of distinct elements in the window of the given
+     * length ending when the snapshot was taken.
+     *
+     * @param windowMillis
+     *          The length of the window, at most getMaxWindowMillis().
+     */
+    public double distinctInWindow(long windowMillis) {
+        if (window == null) throw new IllegalStateException("Windows are not tracked");
+        return window.reportDistinctElements(windowMillis);
+    }
+
+    /**
+     * Estimates the number of distinct elements that arrived in [from, to),
+     * rounded out as described by RollupStore.distinctBetween(from, to).
+     *
+     * @param from
+     *          The start of the range, in epoch milliseconds.
+     * @param to
+     *          The end of the range, in epoch milliseconds.
+     */
+    public double distinctBetween(long from, long to) {
+        if (rollups == null) throw new IllegalStateException("Ranges are not tracked");
+        if (to < from) throw new IllegalArgumentException("to must not precede from");
+        return rollups.distinctBetween(from, to);
+    }
+}
@@ -0,0 +1,163 @@
+package com.ermel272.query;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Class:       GroupCounts.java
+ *
+ * Purpose:     Holds the count of every group as of one snapshot, sharing the
+ *              counts that have not changed with the snapshots before it.
+ *
+ * Description: An immutable map made of layers: a base layer holding every
+ *              group as of some earlier snapshot, and above it one small layer
+ *              per later snapshot holding only the groups updated in between.
+ *              A lookup reads the layers newest first. Publishing a snapshot
+ *              thus costs a copy of its updated groups only, until the layers
+ *              above the base hold half as many entries as the base, or number
+ *              MAX_LAYERS, when they are flattened into a new base. Flattening
+ *              costs a copy of every group, but happens only after the updates
+ *              since the last one were at least half that many, or after
+ *              MAX_LAYERS snapshots. Iteration skips entries replaced by a
+ *              newer layer, so it costs at most MAX_LAYERS lookups per entry.
+ */
+final class GroupCounts extends AbstractMap<String, Double> {
+
+    static final GroupCounts EMPTY = new GroupCounts(null, Collections.emptyMap(), 0);
+
+    private static final int MAX_LAYERS = 16;
+
+    // The older layers, null for a base layer
+    private final GroupCounts parent;
+    private final Map<String, Double> layer;
+    private final int size;
+
+    // The number of layers, and of entries in them, from this one down to but excluding the base
+    private final int depth;
+    private final int changes;
+
+    private GroupCounts(GroupCounts parent, Map<String, Double> layer, int size) {
+        this.parent = parent;
+        this.layer = layer;
+        this.size = size;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.changes = parent == null ? 0 : parent.changes + layer.size();
+    }
+
+    /**
+     * @param updated
+     *          The new counts of the groups updated since this snapshot,
+     *          no longer modified by the caller.
+     *
+     * @return
+     *          The counts of the next snapshot, sharing this one's where
+     *          possible.
+     */
+    GroupCounts with(Map<String, Double> updated) {
+        if (updated.isEmpty()) return this;
+
+        // Step 1: Flatten once the layers would rival the base in size, or grow too deep to read quickly
+        if (depth + 1 >= MAX_LAYERS || 2L * (changes + updated.size()) > base().size) {
+            Map<String, Double> flattened = new HashMap<>(this);
+            flattened.putAll(updated);
+            return new GroupCounts(null, flattened, flattened.size());
+        }
+
+        // Step 2: Otherwise stack the updates on top of this snapshot's layers
+        int added = 0;
+        for (String group : updated.keySet()) {
+            if (!containsKey(group)) added++;
+        }
+        return new GroupCounts(this, updated, size + added);
+    }
+
+    @Override
+    public Double get(Object key) {
+        for (GroupCounts counts = this; counts != null; counts = counts.parent) {
+            Double count = counts.layer.get(key);
+            if (count != null) return count;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Double>> entrySet() {
+        return new AbstractSet<Entry<String, Double>>() {
+            @Override
+            public Iterator<Entry<String, Double>> iterator() {
+                return new LayerIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private GroupCounts base() {
+        GroupCounts counts = this;
+        while (counts.parent != null) {
+            counts = counts.parent;
+        }
+        return counts;
+    }
+
+    /**
+     * Walks the layers newest first, skipping the entries of each that a
+     * newer layer replaces.
+     */
+    private final class LayerIterator implements Iterator<Entry<String, Double>> {
+
+        private GroupCounts current = GroupCounts.this;
+        private Iterator<Entry<String, Double>> entries = layer.entrySet().iterator();
+        private Entry<String, Double> next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                while (!entries.hasNext()) {
+                    if (current.parent == null) return false;
+                    current = current.parent;
+                    entries = current.layer.entrySet().iterator();
+                }
+
+                Entry<String, Double> candidate = entries.next();
+                if (!isReplaced(candidate.getKey())) next = candidate;
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<String, Double> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            Entry<String, Double> entry = new SimpleImmutableEntry<>(next);
+            next = null;
+            return entry;
+        }
+
+        private boolean isReplaced(String group) {
+            for (GroupCounts counts = GroupCounts.this; counts != current; counts = counts.parent) {
+                if (counts.layer.containsKey(group)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.ermel272.query;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class:       QueryServer.java
+ *
+ * Purpose:     Serves the estimates of a running stream as JSON over HTTP, for
+ *              dashboards to poll.
+ *
+ * Description: An embedded {@link HttpServer} answering GET requests from the
+ *              latest {@link EstimateSnapshot} of a {@link SnapshotPublisher}.
+ *              A query reads one volatile field and then only immutable state,
+ *              so however many run at once they neither wait on the ingestion
+ *              thread nor slow it down. Requests are handled on virtual threads
+ *              where the JVM has them, and otherwise on a cached pool of daemon
+ *              threads. The endpoints are:
+ *
+ *              /estimates                  every counter's estimate
+ *              /groups[?name=g]            every group's count, or one group's
+ *              /window?millis=w            distinct elements in the w ms before windowEnd
+ *              /range?from=t1&to=t2        distinct elements in [t1, t2), epoch ms;
+ *                                          either end may be left open
+ *
+ *              Every response carries the snapshot's element count and time.
+ *              Requests before the first snapshot get 503 Service Unavailable.
+ */
+public class QueryServer {
+
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final SnapshotPublisher publisher;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Binds the server, which does not answer requests until started.
+     *
+     * @param address
+     *          The address to listen on, e.g. a loopback address, with
+     *          port 0 for any free port.
+     * @param publisher
+     *          Publishes the snapshots queries are answered from.
+     */
+    public QueryServer(InetSocketAddress address, SnapshotPublisher publisher) {
+        this.publisher = publisher;
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.executor = newExecutor();
+
+        server.setExecutor(executor);
+        server.createContext("/estimates", handler(this::estimates));
+        server.createContext("/groups", handler(this::groups));
+        server.createContext("/window", handler(this::window));
+        server.createContext("/range", handler(this::range));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to delaySeconds for those in
+     * progress to finish.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return
+     *          The port the server is listening on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers a query from a snapshot, appending the body of the response's
+     * JSON object to json.
+     */
+    private interface Query {
+
+        void answer(EstimateSnapshot snapshot, Map<String, String> parameters, StringBuilder json);
+    }
+
+    private void estimates(EstimateSnapshot snapshot, Map<String, String> parameters, StringBuilder json) {
+        json.append(",\"estimates\":");
+        appendObject(json, snapshot.getEstimates());
+    }
+
+    private void groups(EstimateSnapshot snapshot, Map<String, String> parameters, StringBuilder json) {
+        String name = parameters.get("name");
+        if (name == null) {
+            json.append(",\"groups\":");
+            appendObject(json, snapshot.getGroups());
+            return;
+        }
+
+        Double count = snapshot.getGroups().get(name);
+        json.append(",\"name\":");
+        appendString(json, name);
+        json.append(",\"estimate\":");
+        appendNumber(json, count == null ? 0 : count);
+    }
+
+    private void window(EstimateSnapshot snapshot, Map<String, String> parameters, StringBuilder json) {
+        if (snapshot.getMaxWindowMillis() == 0) throw new IllegalArgumentException("Windows are not tracked");
+
+        long millis = longParameter(parameters, "millis");
+        if (millis < 0 || millis > snapshot.getMaxWindowMillis()) {
+            throw new IllegalArgumentException("millis must be between 0 and " + snapshot.getMaxWindowMillis());
+        }
+
+        json.append(",\"windowMillis\":").append(millis)
+                .append(",\"windowEnd\":").append(snapshot.getWindowTimestampMillis()).append(",\"estimate\":");
+        appendNumber(json, snapshot.distinctInWindow(millis));
+    }
+
+    private void range(EstimateSnapshot snapshot, Map<String, String> parameters, StringBuilder json) {
+        if (!snapshot.hasRanges()) throw new IllegalArgumentException("Ranges are not tracked");
+
+        long from = parameters.containsKey("from") ? longParameter(parameters, "from") : Long.MIN_VALUE;
+        long to = parameters.containsKey("to") ? longParameter(parameters, "to") : Long.MAX_VALUE;
+        json.append(",\"from\":").append(from).append(",\"to\":").append(to).append(",\"estimate\":");
+        appendNumber(json, snapshot.distinctBetween(from, to));
+    }
+
+    /**
+     * Wraps a query in the handling common to every endpoint: only GET is
+     * allowed, the snapshot is read once, bad parameters are answered with
+     * 400 Bad Request, and the response is sent as a single JSON object.
+     */
+    private HttpHandler handler(Query query) {
+        return exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    sendError(exchange, 405, "Only GET is supported");
+                    return;
+                }
+
+                // Step 1: Read the latest snapshot exactly once, so the whole answer agrees
+                EstimateSnapshot snapshot = publisher.getSnapshot();
+                if (snapshot == null) {
+                    sendError(exchange, 503, "No snapshot has been published yet");
+                    return;
+                }
+
+                // Step 2: Answer the query from it
+                StringBuilder json = new StringBuilder();
+                json.append("{\"elementCount\":").append(snapshot.getElementCount())
+                        .append(",\"timestamp\":").append(snapshot.getTimestampMillis());
+                try {
+                    query.answer(snapshot, parseQuery(exchange.getRequestURI().getRawQuery()), json);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    sendError(exchange, 400, e.getMessage());
+                    return;
+                }
+                json.append('}');
+
+                send(exchange, 200, json);
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        send(exchange, status, json.append('}'));
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Decodes a raw query string of name=value pairs separated by '&'.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return parameters;
+
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return parameters;
+    }
+
+    private static long longParameter(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing parameter " + name);
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer");
+        }
+    }
+
+    private static void appendObject(StringBuilder json, Map<String, Double> values) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+
+            appendString(json, entry.getKey());
+            json.append(':');
+            appendNumber(json, entry.getValue());
+        }
+        json.append('}');
+    }
+
+    /**
+     * Appends value, or null if it has no JSON representation.
+     */
+    private static void appendNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else {
+            json.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * @return
+     *          A virtual thread per task executor if the JVM has one, looked up
+     *          reflectively so the code still runs on older JVMs, and otherwise
+     *          a cached pool of daemon threads.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "query-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.ermel272.query;
+
+import com.ermel272.algorithms.DistinctCounter;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.algorithms.SlidingHyperLogLogAlgorithm;
+import com.ermel272.grouping.KeyedCounterMap;
+import com.ermel272.rollup.RollupStore;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       SnapshotPublisher.java
+ *
+ * Purpose:     Periodically captures the estimates of a running stream as an
+ *              immutable {@link EstimateSnapshot}, so that queries never touch
+ *              the counters the ingestion thread is updating.
+ *
+ * Description: The ingestion thread calls onElement(count) after each element,
+ *              or onBatch(previousCount, count) after each batch, which reads
+ *              the clock every CHECK_INTERVAL elements, and
+ *              onIdle(count) whenever its source goes quiet. Once a refresh
+ *              interval has passed it reads every counter, snapshots the rollup
+ *              store, and publishes the result through a volatile field. Only
+ *              the groups updated since the previous snapshot are read again,
+ *              so that groups spilled to disk are not decoded on every refresh,
+ *              and only their counts are copied: the rest are shared with the
+ *              previous snapshot through {@link GroupCounts}. Copying the sliding
+ *              window sketch costs as much as its whole history, so it is only
+ *              copied once its own, longer, refresh interval has passed, and
+ *              snapshots in between share the previous copy. Readers on any
+ *              thread get the latest snapshot from getSnapshot() without locking.
+ */
+public class SnapshotPublisher {
+
+    // Must be a power of two so the check is a mask
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final long refreshNanos;
+    private final long windowRefreshNanos;
+    private final Map<String, DistinctCounter> counters;
+    private final KeyedCounterMap groups;
+    private final SlidingHyperLogLogAlgorithm window;
+    private final RollupStore<HyperLogLogPlusPlusAlgorithm> rollups;
+
+    // Groups updated since the last snapshot, only touched by the ingestion thread
+    private final Set<String> updatedGroups;
+    private GroupCounts groupCounts;
+    private long lastPublishNanos;
+
+    // The latest copy of the window sketch, and when it was taken
+    private SlidingHyperLogLogAlgorithm windowCopy;
+    private long windowCopyMillis;
+    private long lastWindowCopyNanos;
+
+    private volatile EstimateSnapshot snapshot;
+
+    /**
+     * @param counters
+     *          The counters whose estimates are published, by name.
+     * @param groups
+     *          The per group counters. May be null.
+     * @param window
+     *          The sketch answering window queries. May be null.
+     * @param rollups
+     *          The store answering range queries. May be null.
+     * @param refreshMillis
+     *          How often a new snapshot is published, and the window sketch
+     *          copied.
+     */
+    public SnapshotPublisher(Map<String, DistinctCounter> counters, KeyedCounterMap groups,
+                             SlidingHyperLogLogAlgorithm window, RollupStore<HyperLogLogPlusPlusAlgorithm> rollups,
+                             long refreshMillis) {
+        this(counters, groups, window, rollups, refreshMillis, refreshMillis);
+    }
+
+    /**
+     * @param counters
+     *          The counters whose estimates are published, by name.
+     * @param groups
+     *          The per group counters. May be null.
+     * @param window
+     *          The sketch answering window queries. May be null.
+     * @param rollups
+     *          The store answering range queries. May be null.
+     * @param refreshMillis
+     *          How often a new snapshot is published.
+     * @param windowRefreshMillis
+     *          How often the window sketch is copied, at least refreshMillis.
+     */
+    public SnapshotPublisher(Map<String, DistinctCounter> counters, KeyedCounterMap groups,
+                             SlidingHyperLogLogAlgorithm window, RollupStore<HyperLogLogPlusPlusAlgorithm> rollups,
+                             long refreshMillis, long windowRefreshMillis) {
+        if (refreshMillis < 1) throw new IllegalArgumentException("refreshMillis must be positive");
+        if (windowRefreshMillis < refreshMillis) {
+            throw new IllegalArgumentException("windowRefreshMillis must be at least refreshMillis");
+        }
+
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.windowRefreshNanos = TimeUnit.MILLISECONDS.toNanos(windowRefreshMillis);
+        this.counters = counters;
+        this.groups = groups;
+        this.window = window;
+        this.rollups = rollups;
+        this.updatedGroups = new HashSet<>();
+        this.groupCounts = GroupCounts.EMPTY;
+    }
+
+    /**
+     * Called by the ingestion thread after each element is processed.
+     *
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void onElement(long count) {
+        onBatch(count - 1, count);
+    }
+
+    /**
+     * Called by the ingestion thread after a batch of elements is processed.
+     *
+     * @param previousCount
+     *          The number of elements processed before the batch.
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void onBatch(long previousCount, long count) {
+        if (previousCount / CHECK_INTERVAL != count / CHECK_INTERVAL
+                && System.nanoTime() - lastPublishNanos >= refreshNanos) {
+            publish(count, false);
+        }
+    }
+
+    /**
+     * Called by the ingestion thread while no elements are arriving, so that
+     * the snapshot keeps up with the last elements and with windows moving on.
+     *
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void onIdle(long count) {
+        if (System.nanoTime() - lastPublishNanos >= refreshNanos) publish(count, false);
+    }
+
+    /**
+     * Called by the ingestion thread after an element is counted in a group.
+     */
+    public void onGroupedElement(String group) {
+        updatedGroups.add(group);
+    }
+
+    /**
+     * Captures and publishes a snapshot now, e.g. at the start or end of the
+     * stream, copying the window sketch afresh. Must only be called by the
+     * ingestion thread.
+     *
+     * @param count
+     *          The number of elements processed so far.
+     */
+    public void publish(long count) {
+        publish(count, true);
+    }
+
+    /**
+     * @return
+     *          The latest published snapshot, or null if none has been
+     *          published yet. Safe to call from any thread.
+     */
+    public EstimateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private void publish(long count, boolean copyWindow) {
+        lastPublishNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        // Step 1: Read every counter
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        for (Map.Entry<String, DistinctCounter> counter : counters.entrySet()) {
+            estimates.put(counter.getKey(), counter.getValue().reportDistinctElements());
+        }
+
+        // Step 2: Read only the groups updated since, sharing every other count with the previous snapshot
+        if (groups != null && !updatedGroups.isEmpty()) {
+            Map<String, Double> updated = new HashMap<>();
+            for (String group : updatedGroups) {
+                updated.put(group, groups.reportDistinctElements(group));
+            }
+            groupCounts = groupCounts.with(updated);
+        }
+        updatedGroups.clear();
+
+        // Step 3: Copy the window sketch, with its clock stopped at now, if asked to or its interval has passed
+        if (window != null && (copyWindow || windowCopy == null
+                || lastPublishNanos - lastWindowCopyNanos >= windowRefreshNanos)) {
+            windowCopy = new SlidingHyperLogLogAlgorithm(window.getPrecision(), window.getMaxWindowMillis(), () -> now);
+            windowCopy.merge(window);
+            windowCopyMillis = now;
+            lastWindowCopyNanos = lastPublishNanos;
+        }
+
+        // Step 4: Snapshot the rollups
+        RollupStore<HyperLogLogPlusPlusAlgorithm> rollupSnapshot = rollups == null ? null : rollups.snapshot();
+
+        snapshot = new EstimateSnapshot(count, now, estimates, groupCounts, windowCopy, windowCopyMillis,
+                rollupSnapshot);
+    }
+}
@@ -0,0 +1,271 @@
+package com.ermel272.reporting;
+
+import com.ermel272.algorithms.DistinctCounter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class:       EstimateReporter.java
+ *
+ * Purpose:     Writes the estimates of a set of counters as CSV rows without
+ *              stalling the ingestion thread on output.
+ *
+ * Description: The ingestion thread calls onElement(count) after each element.
+ *              When the {@link ReportSampler} says a report is due, the estimates
+ *              are read into a preallocated slot of an {@link EstimateRingBuffer}.
+ *              A dedicated writer thread formats published rows into a direct
+ *              byte buffer and writes it to the output channel whenever it fills
+ *              up or the ring runs dry. When the ring is full the
+ *              {@link OverflowPolicy} either drops the row or makes the
+ *              ingestion thread wait.
+ */
+public class EstimateReporter {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final List<String> columnNames;
+    private final List<DistinctCounter> counters;
+    private final List<Boolean> integerColumns;
+    private boolean[] integerColumnFlags;
+
+    private final ReportSampler sampler;
+    private final OverflowPolicy overflowPolicy;
+    private final WritableByteChannel output;
+    private final int capacity;
+    private final AtomicLong droppedReports;
+
+    private EstimateRingBuffer ring;
+    private Thread writerThread;
+    private volatile boolean closed;
+    private long lastReportedCount = -1;
+
+    /**
+     * @param sampler
+     *          Decides after which elements a row is reported.
+     * @param overflowPolicy
+     *          What to do when the writer falls behind.
+     * @param output
+     *          The channel the CSV is written to. Closed by close().
+     */
+    public EstimateReporter(ReportSampler sampler, OverflowPolicy overflowPolicy, WritableByteChannel output) {
+        this(sampler, overflowPolicy, output, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *          The number of rows that may be waiting to be written.
+     */
+    public EstimateReporter(ReportSampler sampler, OverflowPolicy overflowPolicy, WritableByteChannel output,
+                            int capacity) {
+        this.columnNames = new ArrayList<>();
+        this.counters = new ArrayList<>();
+        this.integerColumns = new ArrayList<>();
+        this.sampler = sampler;
+        this.overflowPolicy = overflowPolicy;
+        this.output = output;
+        this.capacity = capacity;
+        this.droppedReports = new AtomicLong();
+    }
+
+    /**
+     * Adds a column reporting the estimate of counter. Must be called before start().
+     */
+    public void addColumn(String name, DistinctCounter counter) {
+        addColumn(name, counter, false);
+    }
+
+    /**
+     * Adds a column reporting the estimate of counter truncated to an integer.
+     * Must be called before start().
+     */
+    public void addIntegerColumn(String name, DistinctCounter counter) {
+        addColumn(name, counter, true);
+    }
+
+    private void addColumn(String name, DistinctCounter counter, boolean integer) {
+        if (ring != null) throw new IllegalStateException("Columns must be added before the reporter is started");
+
+        columnNames.add(name);
+        counters.add(counter);
+        integerColumns.add(integer);
+    }
+
+    /**
+     * Starts the writer thread, which first writes the CSV header.
+     *
+     * @param countColumnName
+     *          The header of the leading element count column.
+     */
+    public void start(String countColumnName) {
+        ring = new EstimateRingBuffer(capacity, counters.size());
+        integerColumnFlags = new boolean[integerColumns.size()];
+        for (int i = 0; i < integerColumnFlags.length; i++) {
+            integerColumnFlags[i] = integerColumns.get(i);
+        }
+
+        StringBuilder header = new StringBuilder(countColumnName);
+        for (String name : columnNames) {
+            header.append(',').append(name);
+        }
+
+        writerThread = new Thread(() -> writeRows(header.toString()), "estimate-reporter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Called by the ingestion thread after each element is processed.
+     *
+     * @param elementCount
+     *          The number of elements processed so far.
+     */
+    public void onElement(long elementCount) {
+        if (sampler.shouldReport(elementCount)) report(elementCount, overflowPolicy);
+    }
+
+    /**
+     * Called by the ingestion thread after a batch of elements is processed,
+     * reporting the estimates as of the end of the batch if any of its
+     * elements was sampled.
+     *
+     * @param previousCount
+     *          The number of elements processed before the batch.
+     * @param elementCount
+     *          The number of elements processed so far.
+     */
+    public void onBatch(long previousCount, long elementCount) {
+        if (sampler.shouldReport(previousCount, elementCount)) report(elementCount, overflowPolicy);
+    }
+
+    /**
+     * Reports a final row unless one was just reported for elementCount,
+     * then drains every pending row to the output and closes it.
+     *
+     * @param elementCount
+     *          The number of elements processed in total.
+     */
+    public void close(long elementCount) throws InterruptedException {
+        if (elementCount != lastReportedCount) report(elementCount, OverflowPolicy.BLOCK);
+
+        closed = true;
+        LockSupport.unpark(writerThread);
+        writerThread.join();
+    }
+
+    /**
+     * @return
+     *          The number of rows discarded because the ring was full.
+     */
+    public long getDroppedReports() {
+        return droppedReports.get();
+    }
+
+    /**
+     * @return
+     *          The number of rows waiting to be written.
+     */
+    public int getQueueDepth() {
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * @return
+     *          The maximum number of rows that may wait to be written.
+     */
+    public int getQueueCapacity() {
+        return ring == null ? capacity : ring.capacity();
+    }
+
+    /**
+     * Reads each counter's estimate into the next ring slot.
+     */
+    private void report(long elementCount, OverflowPolicy policy) {
+        EstimateRingBuffer.Slot slot;
+        while ((slot = ring.tryClaim()) == null) {
+            if (policy == OverflowPolicy.DROP || !writerThread.isAlive()) {
+                droppedReports.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+
+        lastReportedCount = elementCount;
+        slot.elementCount = elementCount;
+        for (int i = 0; i < counters.size(); i++) {
+            slot.estimates[i] = counters.get(i).reportDistinctElements();
+        }
+        ring.publish();
+    }
+
+    /**
+     * Body of the writer thread.
+     */
+    private void writeRows(String header) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        StringBuilder line = new StringBuilder();
+
+        try {
+            line.append(header).append('\n');
+            append(buffer, line);
+
+            while (true) {
+                // Check closed before draining, so rows published before close() are written
+                boolean finished = closed;
+
+                EstimateRingBuffer.Slot slot;
+                while ((slot = ring.peek()) != null) {
+                    line.setLength(0);
+                    line.append(slot.elementCount);
+                    for (int i = 0; i < slot.estimates.length; i++) {
+                        line.append(',');
+                        if (integerColumnFlags[i]) line.append((long) slot.estimates[i]);
+                        else line.append(slot.estimates[i]);
+                    }
+                    line.append('\n');
+                    ring.release();
+
+                    append(buffer, line);
+                }
+
+                // The ring has run dry, so write out whatever has been batched
+                drain(buffer);
+
+                if (finished) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+
+            output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies the ASCII line into the buffer, writing the buffer out first if needed.
+     */
+    private void append(ByteBuffer buffer, CharSequence line) throws IOException {
+        for (int i = 0; i < line.length(); i++) {
+            if (!buffer.hasRemaining()) drain(buffer);
+            buffer.put((byte) line.charAt(i));
+        }
+    }
+
+    private void drain(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,130 @@
+package com.ermel272.reporting;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Class:       EstimateRingBuffer.java
+ *
+ * Purpose:     Hands rows of estimates from the ingestion thread to the
+ *              report writer thread without locks or per-row allocation.
+ *
+ * Description: A bounded single-producer, single-consumer ring of preallocated
+ *              slots. The producer claims the slot at its tail, fills it in place
+ *              and publishes it with a release store of the tail; the consumer
+ *              reads every slot up to the acquired tail and frees them with a
+ *              release store of the head. Each side caches the other's index so
+ *              that the shared indexes are only read when the cache is stale.
+ */
+class EstimateRingBuffer {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(EstimateRingBuffer.class, "head", long.class);
+            TAIL = lookup.findVarHandle(EstimateRingBuffer.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * A single row of the report.
+     */
+    static final class Slot {
+        long elementCount;
+        final double[] estimates;
+
+        Slot(int columns) {
+            estimates = new double[columns];
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    // Next slot the consumer will read, written only by the consumer
+    private volatile long head;
+    // Next slot the producer will write, written only by the producer
+    private volatile long tail;
+
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * @param capacity
+     *          The number of slots, rounded up to a power of two.
+     * @param columns
+     *          The number of estimates in each slot.
+     */
+    EstimateRingBuffer(int capacity, int columns) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(columns);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side. Returns the slot at the tail if there is room,
+     * which must then be filled and published.
+     *
+     * @return
+     *          The claimed slot, or null if the ring is full.
+     */
+    Slot tryClaim() {
+        long t = (long) TAIL.getOpaque(this);
+        if (t - cachedHead == slots.length) {
+            cachedHead = (long) HEAD.getAcquire(this);
+            if (t - cachedHead == slots.length) return null;
+        }
+        return slots[(int) t & mask];
+    }
+
+    /**
+     * Producer side. Makes the most recently claimed slot visible to the consumer.
+     */
+    void publish() {
+        TAIL.setRelease(this, (long) TAIL.getOpaque(this) + 1);
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return
+     *          The next published slot, or null if there is none.
+     *          The slot remains owned by the consumer until release().
+     */
+    Slot peek() {
+        long h = (long) HEAD.getOpaque(this);
+        if (h == cachedTail) {
+            cachedTail = (long) TAIL.getAcquire(this);
+            if (h == cachedTail) return null;
+        }
+        return slots[(int) h & mask];
+    }
+
+    /**
+     * Consumer side. Returns the slot most recently peeked to the producer.
+     */
+    void release() {
+        HEAD.setRelease(this, (long) HEAD.getOpaque(this) + 1);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return
+     *          The number of published slots not yet released. May be
+     *          called from any thread.
+     */
+    int size() {
+        return (int) (tail - head);
+    }
+}
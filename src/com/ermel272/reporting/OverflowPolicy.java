@@ -0,0 +1,21 @@
+package com.ermel272.reporting;
+
+/**
+ * Class:       OverflowPolicy.java
+ *
+ * Purpose:     Defines what the ingestion thread does when the
+ *              reporting ring buffer is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the new report and count it as dropped, so that
+     * ingestion never waits on output.
+     */
+    DROP,
+
+    /**
+     * Wait for the writer to free a slot, so that no report is lost.
+     */
+    BLOCK
+}
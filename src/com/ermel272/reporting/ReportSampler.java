@@ -0,0 +1,85 @@
+package com.ermel272.reporting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class:       ReportSampler.java
+ *
+ * Purpose:     Decides which stream elements are followed by a report
+ *              of the current estimates.
+ *
+ * Description: Triggers every everyElements elements, every everyMillis
+ *              milliseconds, or whichever comes first when both are set.
+ *              A value of 0 disables that trigger. A batch of elements is
+ *              followed by at most one report, due if any of its elements was.
+ *              Not thread safe; it is only consulted by the ingestion thread.
+ */
+public class ReportSampler {
+
+    private final long everyElements;
+    private final long everyNanos;
+
+    private long lastReportNanos;
+
+    /**
+     * @param everyElements
+     *          Report after every everyElements elements, or 0 to disable.
+     * @param everyMillis
+     *          Report once everyMillis milliseconds have passed since the
+     *          last report, or 0 to disable.
+     */
+    public ReportSampler(final long everyElements, final long everyMillis) {
+        if (everyElements < 0 || everyMillis < 0) throw new IllegalArgumentException("Sampling intervals must be non-negative");
+        if (everyElements == 0 && everyMillis == 0) throw new IllegalArgumentException("At least one sampling interval must be set");
+
+        this.everyElements = everyElements;
+        this.everyNanos = TimeUnit.MILLISECONDS.toNanos(everyMillis);
+        this.lastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * @return
+     *          A sampler that reports after every element.
+     */
+    public static ReportSampler everyElement() {
+        return new ReportSampler(1, 0);
+    }
+
+    /**
+     * @param elementCount
+     *          The number of elements processed so far.
+     *
+     * @return
+     *          True if a report should be made now.
+     */
+    public boolean shouldReport(long elementCount) {
+        return shouldReport(elementCount - 1, elementCount);
+    }
+
+    /**
+     * Decides once for a batch of elements, due if any element of the batch
+     * would have been followed by a report.
+     *
+     * @param previousCount
+     *          The number of elements processed before the batch.
+     * @param elementCount
+     *          The number of elements processed so far, including the batch.
+     *
+     * @return
+     *          True if a report should be made now.
+     */
+    public boolean shouldReport(long previousCount, long elementCount) {
+        boolean due = everyElements > 0
+                && Math.floorDiv(previousCount, everyElements) != Math.floorDiv(elementCount, everyElements);
+
+        if (everyNanos > 0) {
+            long now = System.nanoTime();
+            if (due || now - lastReportNanos >= everyNanos) {
+                lastReportNanos = now;
+                due = true;
+            }
+        }
+
+        return due;
+    }
+}
@@ -0,0 +1,308 @@
+package com.ermel272.rollup;
+
+import com.ermel272.algorithms.MergeableDistinctCounter;
+import com.ermel272.hashes.HashBatch;
+import com.ermel272.hashes.HashBundle;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Class:       RollupStore.java
+ *
+ * Purpose:     Keeps distinct counters for minutes, hours and days of a
+ *              timestamped stream, and answers how many distinct elements
+ *              arrived between two times.
+ *
+ * Description: Elements are counted in the counter of the minute they arrive
+ *              in. When a minute ends its counter is merged into that of its
+ *              hour, and when an hour ends its counter is merged into that of
+ *              its day, so an hour or day is complete once its last minute has
+ *              ended. A range query merges the complete days, then complete
+ *              hours, then minutes that cover it, so at most a few hundred
+ *              counters are merged however long the range. Minutes are evicted,
+ *              a whole hour at a time, once they are older than their retention,
+ *              and hours a whole day at a time, so any part of a range older
+ *              than a retention is rounded out to the coarser buckets still kept.
+ *              Times are epoch milliseconds, with days in UTC. Not thread safe.
+ */
+public class RollupStore<T extends MergeableDistinctCounter<T>> {
+
+    public static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    public static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    public static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final long NO_ELEMENTS = Long.MIN_VALUE;
+
+    private final Supplier<T> counterFactory;
+    private final long minuteRetention;
+    private final long hourRetention;
+    private final long dayRetention;
+
+    // Buckets keyed by their start time
+    private final TreeMap<Long, T> minutes;
+    private final TreeMap<Long, T> hours;
+    private final TreeMap<Long, T> days;
+
+    // Start of the minute that is still receiving elements
+    private long openMinute;
+
+    // Every bucket of a level that starts before its horizon has been evicted
+    private long minuteHorizon;
+    private long hourHorizon;
+    private long dayHorizon;
+
+    /**
+     * Keeps minutes for two hours, hours for two days and days forever.
+     *
+     * @param counterFactory
+     *          Creates the empty counter of each bucket and of each query.
+     */
+    public RollupStore(final Supplier<T> counterFactory) {
+        this(counterFactory, 2 * HOUR, 2 * DAY, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param counterFactory
+     *          Creates the empty counter of each bucket and of each query.
+     * @param minuteRetention
+     *          How long, in milliseconds, minute buckets are kept for.
+     * @param hourRetention
+     *          How long hour buckets are kept for, at least minuteRetention.
+     * @param dayRetention
+     *          How long day buckets are kept for, at least hourRetention.
+     */
+    public RollupStore(final Supplier<T> counterFactory, final long minuteRetention, final long hourRetention,
+                       final long dayRetention) {
+        if (minuteRetention < 0 || hourRetention < minuteRetention || dayRetention < hourRetention) {
+            throw new IllegalArgumentException("Retentions must satisfy 0 <= minutes <= hours <= days");
+        }
+
+        this.counterFactory = counterFactory;
+        this.minuteRetention = minuteRetention;
+        this.hourRetention = hourRetention;
+        this.dayRetention = dayRetention;
+
+        this.minutes = new TreeMap<>();
+        this.hours = new TreeMap<>();
+        this.days = new TreeMap<>();
+
+        this.openMinute = NO_ELEMENTS;
+        this.minuteHorizon = Long.MIN_VALUE;
+        this.hourHorizon = Long.MIN_VALUE;
+        this.dayHorizon = Long.MIN_VALUE;
+    }
+
+    /**
+     * Counts the element s as having arrived at timestamp. Timestamps are
+     * expected in non-decreasing order; an element arriving before the
+     * latest minute is counted in the latest minute.
+     */
+    public void processInput(String s, long timestamp) {
+        advanceTo(timestamp);
+        minutes.get(openMinute).processInput(s);
+    }
+
+    /**
+     * Counts a pre-hashed element as having arrived at timestamp.
+     */
+    public void processHashes(HashBundle hashes, long timestamp) {
+        advanceTo(timestamp);
+        minutes.get(openMinute).processHashes(hashes);
+    }
+
+    /**
+     * Counts a batch of pre-hashed elements as having all arrived at timestamp.
+     */
+    public void processBatch(HashBatch batch, long timestamp) {
+        advanceTo(timestamp);
+        minutes.get(openMinute).processBatch(batch);
+    }
+
+    /**
+     * Ends every minute before the one holding timestamp, rolling them up and
+     * evicting expired buckets, even if no element has arrived since.
+     *
+     * @param timestamp
+     *          The current time, in milliseconds.
+     */
+    public void advanceTo(long timestamp) {
+        long minute = floor(timestamp, MINUTE);
+        if (minute <= openMinute) return;
+
+        // Step 1: Roll the ending minute up into its hour, and a completed hour into its day
+        if (openMinute != NO_ELEMENTS) {
+            long hour = floor(openMinute, HOUR);
+            rollUp(minutes.get(openMinute), hours, hour);
+            if (floor(minute, HOUR) != hour) rollUp(hours.get(hour), days, floor(hour, DAY));
+        }
+
+        openMinute = minute;
+        minutes.put(openMinute, counterFactory.get());
+
+        // Step 2: Evict whole hours of minutes and whole days of hours once they expire
+        minuteHorizon = Math.max(minuteHorizon, Math.min(horizon(minuteRetention, HOUR), floor(openMinute, HOUR)));
+        hourHorizon = Math.max(hourHorizon, Math.min(horizon(hourRetention, DAY), floor(openMinute, DAY)));
+        dayHorizon = Math.max(dayHorizon, Math.min(horizon(dayRetention, DAY), floor(openMinute, DAY)));
+
+        minutes.headMap(minuteHorizon).clear();
+        hours.headMap(hourHorizon).clear();
+        days.headMap(dayHorizon).clear();
+    }
+
+    /**
+     * Estimates the number of distinct elements that arrived in [from, to).
+     * The range is rounded out to whole minutes, and to whole hours or
+     * days where it reaches back past the minute or hour retention. Either
+     * end may lie outside the buckets kept, e.g. Long.MIN_VALUE or
+     * Long.MAX_VALUE for an open-ended range.
+     *
+     * @return
+     *          The estimate of the merged counters covering the range.
+     */
+    public double distinctBetween(long from, long to) {
+        return merge(from, to).reportDistinctElements();
+    }
+
+    /**
+     * Merges the coarsest buckets covering [from, to), rounded out as
+     * described by distinctBetween(from, to), into a new counter.
+     *
+     * @return
+     *          A new counter holding the union of the covering buckets.
+     */
+    public T merge(long from, long to) {
+        T merged = counterFactory.get();
+        if (openMinute == NO_ELEMENTS) return merged;
+
+        // Step 1: Clamp the range to the buckets kept, so rounding cannot overflow, then round it out
+        long earliest = earliestBucket();
+        long latest = saturatedAdd(openMinute, MINUTE);
+        long start = roundOut(clamp(from, earliest, latest), false);
+        long end = Math.min(roundOut(clamp(to, earliest, latest), true), latest);
+
+        // Step 2: Greedily take the coarsest complete bucket starting at each point, comparing
+        // distances rather than sums so that buckets near Long.MAX_VALUE cannot overflow
+        long cursor = start;
+        while (cursor < end) {
+            long remaining = Math.min(end, openMinute) - cursor;
+            if (cursor % DAY == 0 && remaining >= DAY) {
+                mergeBucket(merged, days, cursor);
+                cursor += DAY;
+            } else if (cursor % HOUR == 0 && remaining >= HOUR) {
+                mergeBucket(merged, hours, cursor);
+                cursor += HOUR;
+            } else {
+                mergeBucket(merged, minutes, cursor);
+                if (end - cursor <= MINUTE) break;
+                cursor += MINUTE;
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Captures the store as it is now, so that another thread may query it
+     * while this one keeps counting. The snapshot shares every bucket that
+     * has ended, none of which is modified again, and copies the open
+     * minute. The hours and days still being rolled into are also shared,
+     * but merge(from, to) only reads complete ones, so they are never read
+     * through the snapshot. Must be called from the counting thread, and the
+     * snapshot published to others safely, e.g. through a volatile field.
+     *
+     * @return
+     *          A store that must only be queried, never counted into.
+     */
+    public RollupStore<T> snapshot() {
+        RollupStore<T> snapshot = new RollupStore<>(counterFactory, minuteRetention, hourRetention, dayRetention);
+        snapshot.minutes.putAll(minutes);
+        snapshot.hours.putAll(hours);
+        snapshot.days.putAll(days);
+
+        if (openMinute != NO_ELEMENTS) {
+            T open = counterFactory.get();
+            open.merge(minutes.get(openMinute));
+            snapshot.minutes.put(openMinute, open);
+        }
+
+        snapshot.openMinute = openMinute;
+        snapshot.minuteHorizon = minuteHorizon;
+        snapshot.hourHorizon = hourHorizon;
+        snapshot.dayHorizon = dayHorizon;
+        return snapshot;
+    }
+
+    public int getMinuteBucketCount() {
+        return minutes.size();
+    }
+
+    public int getHourBucketCount() {
+        return hours.size();
+    }
+
+    public int getDayBucketCount() {
+        return days.size();
+    }
+
+    /**
+     * Rounds a range endpoint down, or up, to the finest granularity kept at that time.
+     */
+    private long roundOut(long time, boolean up) {
+        long width = time < hourHorizon ? DAY : time < minuteHorizon ? HOUR : MINUTE;
+        long rounded = floor(time, width);
+        return up && rounded != time ? saturatedAdd(rounded, width) : rounded;
+    }
+
+    /**
+     * @return
+     *          The start of the oldest bucket of any level, none of which
+     *          starts before the day horizon. Requires an open minute.
+     */
+    private long earliestBucket() {
+        long earliest = minutes.firstKey();
+        if (!hours.isEmpty()) earliest = Math.min(earliest, hours.firstKey());
+        if (!days.isEmpty()) earliest = Math.min(earliest, days.firstKey());
+        return earliest;
+    }
+
+    /**
+     * @return
+     *          The start of the oldest bucket of the given width still within retention.
+     */
+    private long horizon(long retention, long width) {
+        if (retention >= openMinute) return Long.MIN_VALUE;
+        return floor(openMinute - retention, width);
+    }
+
+    private void rollUp(T counter, TreeMap<Long, T> parents, long parentStart) {
+        T parent = parents.get(parentStart);
+        if (parent == null) {
+            parent = counterFactory.get();
+            parents.put(parentStart, parent);
+        }
+        parent.merge(counter);
+    }
+
+    private static <T extends MergeableDistinctCounter<T>> void mergeBucket(T merged, TreeMap<Long, T> buckets,
+                                                                          long start) {
+        T bucket = buckets.get(start);
+        if (bucket != null) merged.merge(bucket);
+    }
+
+    private static long floor(long time, long width) {
+        return time - Math.floorMod(time, width);
+    }
+
+    private static long clamp(long time, long min, long max) {
+        return Math.max(min, Math.min(time, max));
+    }
+
+    /**
+     * Adds a positive width to a time, giving Long.MAX_VALUE instead of overflowing.
+     */
+    private static long saturatedAdd(long time, long width) {
+        return time > Long.MAX_VALUE - width ? Long.MAX_VALUE : time + width;
+    }
+}
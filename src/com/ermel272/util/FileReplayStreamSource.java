@@ -0,0 +1,152 @@
+package com.ermel272.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class:       FileReplayStreamSource.java
+ *
+ * Purpose:     Replays a recorded stream of newline-delimited elements
+ *              (e.g. usernames or user ids) from a file.
+ *
+ * Description: Maps the file into memory in regions of at most MAX_REGION_SIZE
+ *              bytes and hands the lines to the listener as byte ranges of the
+ *              mapped region, so no copy of the file is made on the heap. Lines
+ *              that straddle two regions are re-read at the start of the next
+ *              region. Empty lines are skipped and a trailing carriage return
+ *              is stripped. Elements are either emitted as fast as possible, in
+ *              batches of consecutive lines, or paced to a fixed number of
+ *              elements per second, one at a time.
+ */
+public class FileReplayStreamSource implements StreamSource {
+
+    // Upper bound on the size of a single mapping, must be less than 2^31
+    private static final long MAX_REGION_SIZE = 1L << 30;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path path;
+    private final long elementsPerSecond;
+
+    private volatile boolean running;
+    private Thread replayThread;
+
+    /**
+     * Creates a source that replays the file as fast as possible.
+     *
+     * @param path
+     *          The newline-delimited file to replay.
+     */
+    public FileReplayStreamSource(final Path path) {
+        this(path, 0);
+    }
+
+    /**
+     * Creates a source that replays the file at a fixed rate.
+     *
+     * @param path
+     *          The newline-delimited file to replay.
+     * @param elementsPerSecond
+     *          The rate at which to emit elements, or 0 to emit
+     *          them as fast as possible.
+     */
+    public FileReplayStreamSource(final Path path, final long elementsPerSecond) {
+        if (elementsPerSecond < 0) throw new IllegalArgumentException("elementsPerSecond must be non-negative");
+
+        this.path = path;
+        this.elementsPerSecond = elementsPerSecond;
+    }
+
+    @Override
+    public synchronized void start(StreamElementListener listener) {
+        if (replayThread != null) throw new IllegalStateException("Replay has already been started");
+
+        running = true;
+        replayThread = new Thread(() -> {
+            try {
+                replay(listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                running = false;
+                listener.onEndOfStream();
+            }
+        }, "file-replay-" + path.getFileName());
+        replayThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Emits every line of the file to the listener, region by region.
+     *
+     * @param listener
+     *          The listener to receive each line.
+     *
+     * @throws IOException
+     *          If the file cannot be read, or contains a line longer
+     *          than MAX_REGION_SIZE.
+     */
+    private void replay(StreamElementListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long startTime = System.nanoTime();
+            long position = 0;
+            long emitted = 0;
+            LineBatch batch = new LineBatch();
+
+            while (position < size && running) {
+                // Step 1: Map the next region of the file
+                int regionSize = (int) Math.min(MAX_REGION_SIZE, size - position);
+                boolean lastRegion = position + regionSize == size;
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+
+                // Step 2: Emit each complete line of the region
+                int lineStart = 0;
+                for (int i = 0; i < regionSize && running; i++) {
+                    if (region.get(i) != '\n') continue;
+
+                    if (batch.add(listener, region, lineStart, i)) {
+                        emitted++;
+                        if (elementsPerSecond > 0) {
+                            batch.flush(listener, region);
+                            pace(startTime, emitted);
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+
+                // Step 3: Emit an unterminated final line, or re-read a split line in the next region
+                if (lastRegion && running) batch.add(listener, region, lineStart, regionSize);
+                batch.flush(listener, region);
+                if (lastRegion) {
+                    position = size;
+                } else if (lineStart == 0) {
+                    throw new IOException("Line at offset " + position + " exceeds " + MAX_REGION_SIZE + " bytes");
+                } else {
+                    position += lineStart;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks the replay thread until the emitted count is no longer
+     * ahead of the configured rate.
+     */
+    private void pace(long startTime, long emitted) {
+        long due = startTime + (long) (emitted * (double) NANOS_PER_SECOND / elementsPerSecond);
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0 && running) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.ermel272.util;
+
+/**
+ * Class:       InputKey.java
+ *
+ * Purpose:     Selects which attribute of a tweet's author is counted
+ *              as the stream element.
+ */
+public enum InputKey {
+
+    /**
+     * The user's screen name, emitted through onElement(String).
+     */
+    SCREEN_NAME,
+
+    /**
+     * The user's numeric id, emitted through onElement(long) so that it can
+     * be counted without any String handling.
+     */
+    USER_ID
+}
@@ -0,0 +1,59 @@
+package com.ermel272.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class:       LineBatch.java
+ *
+ * Purpose:     Collects the lines a source finds in a buffer so that they can
+ *              be emitted to a {@link StreamElementListener} as one batch.
+ *
+ * Description: Each line is recorded as the offset and length of its bytes,
+ *              with any trailing carriage return stripped and empty lines
+ *              skipped. The batch is emitted through onBatch(...) whenever it
+ *              fills, and must be flushed before the buffer's contents change.
+ */
+final class LineBatch {
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final int[] offsets;
+    private final int[] lengths;
+    private int count;
+
+    LineBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    LineBatch(int capacity) {
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+    }
+
+    /**
+     * Adds the line [start, end) of the buffer, emitting the batch if that
+     * fills it.
+     *
+     * @return
+     *          True if the line was non-empty and so was added.
+     */
+    boolean add(StreamElementListener listener, ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') end--;
+        if (end == start) return false;
+
+        offsets[count] = start;
+        lengths[count] = end - start;
+        if (++count == offsets.length) flush(listener, buffer);
+        return true;
+    }
+
+    /**
+     * Emits the lines added since the last flush, if any.
+     */
+    void flush(StreamElementListener listener, ByteBuffer buffer) {
+        if (count == 0) return;
+
+        listener.onBatch(buffer, offsets, lengths, count);
+        count = 0;
+    }
+}
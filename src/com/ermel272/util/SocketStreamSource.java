@@ -0,0 +1,218 @@
+package com.ermel272.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Class:       SocketStreamSource.java
+ *
+ * Purpose:     Accepts newline-delimited elements (e.g. usernames or user ids)
+ *              pushed by any number of producers over TCP.
+ *
+ * Description: A single thread multiplexes the listening socket and every
+ *              producer connection with a {@link Selector}. Each connection
+ *              reads into its own direct buffer, and the complete lines of each
+ *              read are handed to the listener in batches, as byte ranges of
+ *              that buffer, so elements are hashed where they were received
+ *              and no String is made. A line split across reads is moved to the front of the
+ *              buffer and completed by the next read. Empty lines are skipped,
+ *              a trailing carriage return is stripped, and an unterminated
+ *              final line is emitted when its producer closes the connection.
+ *              A producer sending a line longer than the buffer is disconnected.
+ *              Producers are throttled by TCP flow control whenever the listener
+ *              falls behind. The listener's onIdle() is called before each wait
+ *              for producers, and so at least every IDLE_MILLIS while none sends
+ *              anything. The source runs until stop() is called.
+ */
+public class SocketStreamSource implements StreamSource {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_MILLIS = 100;
+
+    private final int bufferSize;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+
+    // Only used by the serving thread, and always flushed before a buffer changes
+    private final LineBatch batch = new LineBatch();
+
+    private volatile boolean running;
+    private Thread acceptThread;
+
+    /**
+     * Binds the listening socket, with a buffer of DEFAULT_BUFFER_SIZE
+     * bytes per connection.
+     *
+     * @param address
+     *          The address to listen on, e.g. a loopback address, with
+     *          port 0 for any free port.
+     */
+    public SocketStreamSource(final InetSocketAddress address) {
+        this(address, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Binds the listening socket, which does not accept producers until
+     * the source is started.
+     *
+     * @param address
+     *          The address to listen on, e.g. a loopback address, with
+     *          port 0 for any free port.
+     * @param bufferSize
+     *          The size of each connection's receive buffer, which bounds
+     *          the length of a line.
+     */
+    public SocketStreamSource(final InetSocketAddress address, final int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize must be positive");
+
+        this.bufferSize = bufferSize;
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            this.selector = Selector.open();
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return
+     *          The port producers connect to.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public synchronized void start(StreamElementListener listener) {
+        if (acceptThread != null) throw new IllegalStateException("Source has already been started");
+
+        running = true;
+        acceptThread = new Thread(() -> {
+            try {
+                serve(listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                running = false;
+                closeAll();
+                listener.onEndOfStream();
+            }
+        }, "socket-ingest-" + getPort());
+        acceptThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Accepts producers and emits their lines until stopped.
+     */
+    private void serve(StreamElementListener listener) throws IOException {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        while (running) {
+            listener.onIdle();
+            selector.select(IDLE_MILLIS);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext() && running) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+
+                if (key.isAcceptable()) {
+                    accept();
+                } else if (key.isReadable()) {
+                    read(key, listener);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Reads what the producer has sent and emits every line it completes.
+     */
+    private void read(SelectionKey key, StreamElementListener listener) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+
+        // Step 1: Append to the partial line left by the previous read
+        int start = buffer.position();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            // The producer reset the connection, so its partial line is lost
+            close(key);
+            return;
+        }
+
+        // Step 2: Emit each complete line, scanning only the bytes just read
+        int lineStart = 0;
+        int end = buffer.position();
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) != '\n') continue;
+
+            batch.add(listener, buffer, lineStart, i);
+            lineStart = i + 1;
+        }
+
+        // Step 3: Emit an unterminated final line once the producer is done
+        if (read < 0) {
+            batch.add(listener, buffer, lineStart, end);
+            batch.flush(listener, buffer);
+            close(key);
+            return;
+        }
+        batch.flush(listener, buffer);
+
+        // Step 4: Move the partial line to the front, dropping a producer whose line cannot fit
+        if (lineStart == 0 && end == buffer.capacity()) {
+            close(key);
+            return;
+        }
+        buffer.limit(end).position(lineStart);
+        buffer.compact();
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Nothing more can be read from it either way
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
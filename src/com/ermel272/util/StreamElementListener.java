@@ -0,0 +1,110 @@
+package com.ermel272.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class:       StreamElementListener.java
+ *
+ * Purpose:     Receives the elements emitted by a {@link StreamSource}.
+ *
+ * Description: Sources that already hold an element as a String call
+ *              onElement(String). Sources that read raw bytes call
+ *              onElement(ByteBuffer, int, int), which by default decodes
+ *              the bytes as UTF-8 and forwards them to onElement(String).
+ *              Sources of numeric keys call onElement(long), which by default
+ *              forwards the key's decimal representation likewise. Sources that
+ *              find many elements in one read call onBatch(...), which by
+ *              default emits each element to onElement(ByteBuffer, int, int).
+ */
+public interface StreamElementListener {
+
+    /**
+     * Called once for each element of the stream.
+     *
+     * @param element
+     *          The stream element.
+     */
+    void onElement(String element);
+
+    /**
+     * Called once for each element of the stream that is held as a range of
+     * UTF-8 encoded bytes. The buffer's position and limit are left untouched,
+     * and its contents are only valid for the duration of the call.
+     *
+     * @param buffer
+     *          The buffer holding the element.
+     * @param offset
+     *          The absolute index of the first byte of the element.
+     * @param length
+     *          The number of bytes in the element.
+     */
+    default void onElement(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        onElement(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Called in place of onElement(ByteBuffer, int, int) for a batch of
+     * elements held in the same buffer, in stream order. The buffer's position
+     * and limit are left untouched, and its contents and the arrays are only
+     * valid for the duration of the call.
+     *
+     * @param buffer
+     *          The buffer holding the elements.
+     * @param offsets
+     *          The absolute index of the first byte of each element.
+     * @param lengths
+     *          The number of bytes in each element.
+     * @param count
+     *          The number of elements, at most the length of the arrays.
+     */
+    default void onBatch(ByteBuffer buffer, int[] offsets, int[] lengths, int count) {
+        for (int i = 0; i < count; i++) {
+            onElement(buffer, offsets[i], lengths[i]);
+        }
+    }
+
+    /**
+     * Called once for each element of the stream that is a numeric key, such
+     * as a user id. By default forwards the key's decimal representation to
+     * onElement(String).
+     *
+     * @param element
+     *          The stream element.
+     */
+    default void onElement(long element) {
+        onElement(Long.toString(element));
+    }
+
+    /**
+     * Called after onElement for each group the element belongs to, such as
+     * a hashtag, language or country of the tweet it came from. Ignored by
+     * default.
+     *
+     * @param group
+     *          The group, prefixed by its kind, e.g. "lang:en".
+     * @param element
+     *          The stream element.
+     */
+    default void onGroupedElement(String group, String element) {
+    }
+
+    /**
+     * Called by sources that may go quiet, such as a socket, whenever they
+     * have emitted every element available and are about to wait for more,
+     * and again at intervals while they wait, so that time-based work is not
+     * held up until the next element arrives. Ignored by default.
+     */
+    default void onIdle() {
+    }
+
+    /**
+     * Called once the source has no more elements to emit.
+     */
+    default void onEndOfStream() {
+    }
+}
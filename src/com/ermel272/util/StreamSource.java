@@ -0,0 +1,27 @@
+package com.ermel272.util;
+
+/**
+ * Class:       StreamSource.java
+ *
+ * Purpose:     Abstracts the origin of the elements fed to the
+ *              distinct counting algorithms.
+ *
+ * Description: A source begins emitting elements to a {@link StreamElementListener}
+ *              on its own thread once start(listener) is called, and stops
+ *              once stop() is called or it runs out of elements.
+ */
+public interface StreamSource {
+
+    /**
+     * Begins asynchronously emitting stream elements to the listener.
+     *
+     * @param listener
+     *          The listener to receive each stream element.
+     */
+    void start(StreamElementListener listener);
+
+    /**
+     * Stops emitting stream elements.
+     */
+    void stop();
+}
@@ -0,0 +1,97 @@
+package com.ermel272.util;
+
+import twitter4j.*;
+
+/**
+ * Class:       TwitterStreamSource.java
+ *
+ * Purpose:     Emits the screen names or ids of the authors of tweets
+ *              from the live Twitter sample stream.
+ *
+ * Description: Wraps the stream provided by {@link TwitterStreamUtil}
+ *              and forwards each status' user screen name, or numeric user id,
+ *              to the listener, followed by the same key grouped by the
+ *              status' language, country and hashtags, so that group counts
+ *              and the overall count agree on what a distinct user is.
+ */
+public class TwitterStreamSource implements StreamSource {
+
+    private TwitterStream twitterStream;
+    private final InputKey inputKey;
+
+    public TwitterStreamSource() {
+        this(InputKey.SCREEN_NAME);
+    }
+
+    /**
+     * @param inputKey
+     *          Whether each user's screen name or id is emitted as the element.
+     */
+    public TwitterStreamSource(InputKey inputKey) {
+        this.inputKey = inputKey;
+        TwitterStreamUtil streamUtil = new TwitterStreamUtil();
+        twitterStream = streamUtil.getTwitterStream();
+    }
+
+    @Override
+    public void start(StreamElementListener elementListener) {
+        StatusListener listener = new StatusListener() {
+            @Override
+            public void onStatus(Status status) {
+                // Grab twitter user name, or the user's id in decimal if that is the key
+                String user;
+                if (inputKey == InputKey.USER_ID) {
+                    long userId = status.getUser().getId();
+                    elementListener.onElement(userId);
+                    user = Long.toString(userId);
+                } else {
+                    user = status.getUser().getScreenName();
+                    elementListener.onElement(user);
+                }
+
+                // Group the same key by language, country and hashtag
+                if (status.getLang() != null) elementListener.onGroupedElement("lang:" + status.getLang(), user);
+
+                Place place = status.getPlace();
+                if (place != null && place.getCountryCode() != null) {
+                    elementListener.onGroupedElement("country:" + place.getCountryCode(), user);
+                }
+
+                HashtagEntity[] hashtags = status.getHashtagEntities();
+                if (hashtags != null) {
+                    for (HashtagEntity hashtag : hashtags) {
+                        elementListener.onGroupedElement("hashtag:" + hashtag.getText().toLowerCase(), user);
+                    }
+                }
+            }
+
+            @Override
+            public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
+            }
+
+            @Override
+            public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+            }
+
+            @Override
+            public void onScrubGeo(long userId, long upToStatusId) {
+            }
+
+            @Override
+            public void onStallWarning(StallWarning warning) {
+            }
+
+            @Override
+            public void onException(Exception ex) {
+            }
+        };
+
+        twitterStream.addListener(listener);
+        twitterStream.sample();
+    }
+
+    @Override
+    public void stop() {
+        twitterStream.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.ermel272.algorithms;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintSetAlgorithmTest {
+
+    // Small enough that a few hundred thousand fingerprints split tables many times over
+    private static final int SEGMENT_CAPACITY = 1024;
+
+    @Test
+    public void splitTablesCountExactly() {
+        FingerprintSetAlgorithm counter = new FingerprintSetAlgorithm(0, SEGMENT_CAPACITY);
+        Set<Long> exact = new HashSet<>();
+        SplittableRandom random = new SplittableRandom(1);
+
+        for (int i = 0; i < 300000; i++) {
+            // Draw from a limited range so that many fingerprints repeat
+            long hash = random.nextLong(200000) * 0x9E3779B97F4A7C15L;
+            counter.processHash(hash);
+            exact.add(hash);
+        }
+
+        assertTrue(exact.contains(0L));
+        assertEquals(exact.size(), counter.reportDistinctElements(), 0);
+
+        // Splitting keeps every table at or under the limit, and the load factor at least a quarter
+        long bytes = counter.getSizeInBytes();
+        assertTrue("Size " + bytes, bytes >= 8L * exact.size() && bytes <= 32L * exact.size());
+    }
+
+    @Test
+    public void mergeOfSplitAndUnsplitSetsIsTheUnion() {
+        FingerprintSetAlgorithm split = new FingerprintSetAlgorithm(0, SEGMENT_CAPACITY);
+        FingerprintSetAlgorithm unsplit = new FingerprintSetAlgorithm();
+        Set<Long> union = new HashSet<>();
+        SplittableRandom random = new SplittableRandom(2);
+
+        for (int i = 0; i < 50000; i++) {
+            long a = random.nextLong();
+            long b = i % 2 == 0 ? a : random.nextLong();
+            split.processHash(a);
+            unsplit.processHash(b);
+            union.add(a);
+            union.add(b);
+        }
+
+        FingerprintSetAlgorithm intoSplit = new FingerprintSetAlgorithm(0, SEGMENT_CAPACITY);
+        intoSplit.merge(split);
+        intoSplit.merge(unsplit);
+        assertEquals(union.size(), intoSplit.reportDistinctElements(), 0);
+
+        unsplit.merge(split);
+        assertEquals(union.size(), unsplit.reportDistinctElements(), 0);
+    }
+
+    @Test
+    public void serializedSetReadsBackExactly() {
+        FingerprintSetAlgorithm counter = new FingerprintSetAlgorithm(0, SEGMENT_CAPACITY);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 20000; i++) {
+            counter.processHash(random.nextLong());
+        }
+        counter.processHash(0);
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) counter.getSerializedSize());
+        counter.writeTo(buffer);
+        buffer.flip();
+
+        FingerprintSetAlgorithm read = FingerprintSetAlgorithm.readFrom(buffer);
+        assertEquals(counter.reportDistinctElements(), read.reportDistinctElements(), 0);
+        assertEquals(0, buffer.remaining());
+
+        read.merge(counter);
+        assertEquals(counter.reportDistinctElements(), read.reportDistinctElements(), 0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.ermel272.algorithms;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HybridHyperLogLogAlgorithmTest {
+
+    private static final int PRECISION = 12;
+
+    @Test
+    public void exactUntilTheSwitchThenMatchesTheSketch() {
+        HybridHyperLogLogAlgorithm hybrid = new HybridHyperLogLogAlgorithm(PRECISION);
+        HyperLogLogPlusPlusAlgorithm sketch = new HyperLogLogPlusPlusAlgorithm(PRECISION);
+        SplittableRandom random = new SplittableRandom(1);
+
+        int switchedAt = -1;
+        for (int i = 1; i <= 100000; i++) {
+            long hash = random.nextLong();
+            hybrid.processHash(hash);
+            sketch.processHash(hash);
+
+            if (hybrid.isExact()) {
+                assertEquals(i, hybrid.reportDistinctElements(), 0);
+            } else {
+                if (switchedAt < 0) switchedAt = i;
+                if (i % 1000 == 0 || i == switchedAt) {
+                    assertEquals("After " + i + " elements", sketch.reportDistinctElements(),
+                            hybrid.reportDistinctElements(), 0);
+                }
+            }
+        }
+
+        assertTrue(switchedAt > 0);
+        assertEquals(sketch.getSizeInBytes(), hybrid.getSizeInBytes());
+    }
+
+    @Test
+    public void mergingAnExactCounterIntoASwitchedOneMatchesTheSketch() {
+        HybridHyperLogLogAlgorithm large = new HybridHyperLogLogAlgorithm(PRECISION);
+        HybridHyperLogLogAlgorithm small = new HybridHyperLogLogAlgorithm(PRECISION);
+        HyperLogLogPlusPlusAlgorithm sketch = new HyperLogLogPlusPlusAlgorithm(PRECISION);
+        SplittableRandom random = new SplittableRandom(2);
+
+        for (int i = 0; i < 20000; i++) {
+            long hash = random.nextLong();
+            large.processHash(hash);
+            sketch.processHash(hash);
+        }
+        for (int i = 0; i < 50; i++) {
+            long hash = random.nextLong();
+            small.processHash(hash);
+            sketch.processHash(hash);
+        }
+        assertFalse(large.isExact());
+        assertTrue(small.isExact());
+
+        small.merge(large);
+        assertFalse(small.isExact());
+        assertEquals(sketch.reportDistinctElements(), small.reportDistinctElements(), 0);
+    }
+
+    @Test
+    public void serializedCountersReadBackInTheSameForm() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int elements : new int[]{0, 100, 50000}) {
+            HybridHyperLogLogAlgorithm counter = new HybridHyperLogLogAlgorithm(PRECISION);
+            for (int i = 0; i < elements; i++) {
+                counter.processHash(random.nextLong());
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(counter.getSerializedSize());
+            counter.writeTo(buffer);
+            buffer.flip();
+            HybridHyperLogLogAlgorithm read = HybridHyperLogLogAlgorithm.readFrom(buffer);
+
+            assertEquals(0, buffer.remaining());
+            assertEquals(counter.isExact(), read.isExact());
+            assertEquals(counter.reportDistinctElements(), read.reportDistinctElements(), 0);
+        }
+    }
+}
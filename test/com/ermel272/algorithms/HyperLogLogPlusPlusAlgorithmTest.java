@@ -0,0 +1,52 @@
+package com.ermel272.algorithms;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogPlusPlusAlgorithmTest {
+
+    private static final int PRECISION = 14;
+
+    // m registers of 6 bits each
+    private static final long DENSE_REGISTER_BYTES = ((1 << PRECISION) * 6 + 7) / 8;
+
+    @Test
+    public void sparseFormNeverOutgrowsDenseRegisters() {
+        HyperLogLogPlusPlusAlgorithm counter = new HyperLogLogPlusPlusAlgorithm(PRECISION);
+        SplittableRandom random = new SplittableRandom(1);
+
+        for (int i = 0; counter.isSparse(); i++) {
+            counter.processHash(random.nextLong());
+
+            // Reporting decodes the list's index cache, which must count towards the size
+            counter.reportDistinctElements();
+            if (counter.isSparse()) {
+                assertTrue("Sparse size " + counter.getSizeInBytes() + " after " + i + " elements",
+                        counter.getSizeInBytes() <= DENSE_REGISTER_BYTES);
+            }
+        }
+        assertFalse(counter.isSparse());
+    }
+
+    @Test
+    public void reportingWhileSparseMatchesReportingOnce() {
+        HyperLogLogPlusPlusAlgorithm reported = new HyperLogLogPlusPlusAlgorithm(PRECISION);
+        HyperLogLogPlusPlusAlgorithm unreported = new HyperLogLogPlusPlusAlgorithm(PRECISION);
+        SplittableRandom random = new SplittableRandom(2);
+
+        for (int i = 0; i < 1000; i++) {
+            long hash = random.nextLong();
+            reported.processHash(hash);
+            unreported.processHash(hash);
+            reported.reportDistinctElements();
+        }
+        assertTrue(reported.isSparse());
+        assertEquals(unreported.reportDistinctElements(), reported.reportDistinctElements(), 0);
+        assertEquals(1000, reported.reportDistinctElements(), 10);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ermel272.algorithms;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class KMinValuesAlgorithmTest {
+
+    @Test
+    public void exactWhileFewerThanK() {
+        KMinValuesAlgorithm a = sketch(0, 100);
+        KMinValuesAlgorithm b = sketch(50, 150);
+
+        assertEquals(100, a.reportDistinctElements(), 0);
+        assertEquals(150, a.estimateUnion(b), 0);
+        assertEquals(50.0 / 150, a.estimateJaccard(b), 1e-12);
+        assertEquals(50, a.estimateIntersection(b), 1e-9);
+    }
+
+    @Test
+    public void overlapOfLargeStreams() {
+        // |A| = |B| = 60000 sharing 30000, so |A union B| = 90000 and J = 1/3
+        KMinValuesAlgorithm a = sketch(0, 60000);
+        KMinValuesAlgorithm b = sketch(30000, 90000);
+
+        assertEquals(60000, a.reportDistinctElements(), 60000 * 0.1);
+        assertEquals(90000, a.estimateUnion(b), 90000 * 0.1);
+        assertEquals(1.0 / 3, a.estimateJaccard(b), 0.05);
+        assertEquals(30000, a.estimateIntersection(b), 30000 * 0.2);
+
+        SetOverlapEstimate overlap = SetOverlapEstimate.of(a, b);
+        assertEquals(a.estimateUnion(b), overlap.getUnion(), 0);
+        assertEquals(a.estimateJaccard(b), overlap.getJaccard(), 1e-9);
+    }
+
+    @Test
+    public void jaccardOfIdenticalAndDisjointStreams() {
+        assertEquals(1, sketch(0, 50000).estimateJaccard(sketch(0, 50000)), 0);
+        assertEquals(0, sketch(0, 50000).estimateJaccard(sketch(50000, 100000)), 0.01);
+        assertEquals(0, new KMinValuesAlgorithm().estimateJaccard(new KMinValuesAlgorithm()), 0);
+    }
+
+    @Test
+    public void mergeMatchesTheUnionEstimate() {
+        KMinValuesAlgorithm a = sketch(0, 60000);
+        KMinValuesAlgorithm b = sketch(30000, 90000);
+        double union = a.estimateUnion(b);
+
+        KMinValuesAlgorithm ab = sketch(0, 60000);
+        ab.merge(b);
+        KMinValuesAlgorithm ba = sketch(30000, 90000);
+        ba.merge(a);
+
+        assertEquals(union, ab.reportDistinctElements(), 0);
+        assertEquals(union, ba.reportDistinctElements(), 0);
+        assertEquals(sketch(0, 90000).reportDistinctElements(), union, 0);
+
+        // Merging a sketch into itself changes nothing
+        ab.merge(ab);
+        assertEquals(union, ab.reportDistinctElements(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sketchesOfDifferentKCannotBeCombined() {
+        new KMinValuesAlgorithm(64).merge(new KMinValuesAlgorithm(128));
+    }
+
+    private static KMinValuesAlgorithm sketch(int from, int to) {
+        KMinValuesAlgorithm sketch = new KMinValuesAlgorithm();
+        for (int i = from; i < to; i++) {
+            sketch.processInput("user-" + i);
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,75 @@
+package com.ermel272.algorithms;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoaringBitmapAlgorithmTest {
+
+    @Test
+    public void malformedIdsAreRejectedWithoutCounting() {
+        RoaringBitmapAlgorithm counter = new RoaringBitmapAlgorithm();
+        counter.processInput("42");
+
+        for (String id : new String[]{"", "abc", "12x", "4.2", " 42", "99999999999999999999"}) {
+            try {
+                counter.processInput(id);
+                fail("Expected \"" + id + "\" to be rejected");
+            } catch (NumberFormatException expected) {
+                // The malformed id must leave the bitmap as it was
+            }
+        }
+
+        counter.processInput("-7");
+        assertEquals(2, counter.reportDistinctElements(), 0);
+        assertTrue(counter.contains(42));
+        assertTrue(counter.contains(-7));
+        assertFalse(counter.contains(0));
+    }
+
+    @Test
+    public void countsExactlyAcrossArrayAndBitmapContainers() {
+        RoaringBitmapAlgorithm counter = new RoaringBitmapAlgorithm();
+        Set<Long> exact = new HashSet<>();
+        SplittableRandom random = new SplittableRandom(1);
+
+        // Dense ids fill bitmap containers, sparse ones leave array containers
+        for (int i = 0; i < 100000; i++) {
+            long id = i % 3 == 0 ? random.nextLong() : random.nextLong(1 << 18);
+            counter.processInput(id);
+            exact.add(id);
+        }
+
+        assertEquals(exact.size(), counter.reportDistinctElements(), 0);
+        for (long id : exact) {
+            assertTrue(counter.contains(id));
+        }
+    }
+
+    @Test
+    public void mergeIsTheUnion() {
+        RoaringBitmapAlgorithm a = new RoaringBitmapAlgorithm();
+        RoaringBitmapAlgorithm b = new RoaringBitmapAlgorithm();
+        Set<Long> union = new HashSet<>();
+        SplittableRandom random = new SplittableRandom(2);
+
+        for (int i = 0; i < 50000; i++) {
+            long x = random.nextLong(1 << 20);
+            long y = random.nextLong(1 << 20);
+            a.processInput(x);
+            b.processInput(y);
+            union.add(x);
+            union.add(y);
+        }
+
+        a.merge(b);
+        assertEquals(union.size(), a.reportDistinctElements(), 0);
+    }
+}
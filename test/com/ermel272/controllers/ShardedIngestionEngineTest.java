@@ -0,0 +1,69 @@
+package com.ermel272.controllers;
+
+import com.ermel272.algorithms.HyperLogLogAlgorithm;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.hashes.HashBatch;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ShardedIngestionEngineTest {
+
+    @Test
+    public void snapshotMatchesSingleCounter() throws InterruptedException {
+        ShardedIngestionEngine<HyperLogLogPlusPlusAlgorithm> engine =
+                new ShardedIngestionEngine<>(3, HyperLogLogPlusPlusAlgorithm::new);
+        HyperLogLogPlusPlusAlgorithm expected = new HyperLogLogPlusPlusAlgorithm();
+
+        for (int i = 0; i < 20000; i++) {
+            String element = Integer.toString(i % 7000);
+            expected.processInput(element);
+            if (i % 2 == 0) {
+                engine.onElement(element);
+            } else {
+                byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+                engine.onElement(ByteBuffer.wrap(bytes), 0, bytes.length);
+            }
+        }
+
+        double estimate = engine.snapshot().reportDistinctElements();
+        assertEquals(7000, estimate, 7000 * 0.05);
+        assertEquals(expected.reportDistinctElements(), estimate, 0);
+        engine.shutdown();
+    }
+
+    @Test
+    public void shardFailureIsRethrownToProducer() throws InterruptedException {
+        IllegalArgumentException thrown = new IllegalArgumentException("broken counter");
+        ShardedIngestionEngine<HyperLogLogAlgorithm> engine = new ShardedIngestionEngine<>(2, () ->
+                new HyperLogLogAlgorithm() {
+                    @Override
+                    public void processBatch(HashBatch batch) {
+                        throw thrown;
+                    }
+                });
+
+        try {
+            engine.onElement("first");
+            engine.snapshot();
+            fail("Expected the shard's failure");
+        } catch (IllegalStateException e) {
+            assertSame(thrown, e.getCause());
+        }
+        assertNotNull(engine.getFailure());
+
+        // Later elements are refused rather than silently dropped
+        try {
+            engine.onElement("second");
+            fail("Expected the shard's failure");
+        } catch (IllegalStateException e) {
+            assertSame(thrown, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ermel272.controllers;
+
+import com.ermel272.reporting.OverflowPolicy;
+import com.ermel272.reporting.ReportSampler;
+import com.ermel272.util.InputKey;
+import com.ermel272.util.StreamElementListener;
+import com.ermel272.util.StreamSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamControllerTest {
+
+    private static final int ELEMENTS = 20000;
+    private static final int BATCH = 256;
+
+    @Test
+    public void batchesCountAsTheirElementsWould() {
+        String[] rows = lastRows(InputKey.SCREEN_NAME);
+        assertEquals(rows[0], rows[1]);
+        assertEquals(ELEMENTS, Long.parseLong(rows[0].split(",")[0]));
+    }
+
+    @Test
+    public void batchesOfUserIdsSkipMalformedLines() {
+        StreamController batched = controller(new ByteArrayOutputStream(), InputKey.USER_ID, true);
+        batched.startSimulation();
+        StreamController single = controller(new ByteArrayOutputStream(), InputKey.USER_ID, false);
+        single.startSimulation();
+
+        assertEquals(single.getMetrics().getSkippedKeyCount(), batched.getMetrics().getSkippedKeyCount());
+        assertEquals(ELEMENTS / 100, batched.getMetrics().getSkippedKeyCount());
+
+        String[] rows = lastRows(InputKey.USER_ID);
+        assertEquals(rows[0], rows[1]);
+        assertEquals(ELEMENTS - ELEMENTS / 100, Long.parseLong(rows[0].split(",")[0]));
+    }
+
+    /**
+     * @return
+     *          The final report row of the stream delivered in batches,
+     *          then of the same stream delivered one element at a time.
+     */
+    private static String[] lastRows(InputKey inputKey) {
+        String[] rows = new String[2];
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            controller(output, inputKey, i == 0).startSimulation();
+
+            String[] lines = new String(output.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+            rows[i] = lines[lines.length - 1];
+        }
+        return rows;
+    }
+
+    private static StreamController controller(ByteArrayOutputStream output, InputKey inputKey, boolean batched) {
+        return new StreamController(new LineSource(batched), new ReportSampler(1000, 0), OverflowPolicy.BLOCK,
+                Channels.newChannel(output), 1 << 20, null, inputKey);
+    }
+
+    /**
+     * Emits the same lines of user ids, one in a hundred malformed, either
+     * in batches or one at a time, on the calling thread.
+     */
+    private static final class LineSource implements StreamSource {
+
+        private final boolean batched;
+
+        private LineSource(boolean batched) {
+            this.batched = batched;
+        }
+
+        @Override
+        public void start(StreamElementListener listener) {
+            Random random = new Random(42);
+            ByteBuffer buffer = ByteBuffer.allocate(BATCH * 24);
+            int[] offsets = new int[BATCH];
+            int[] lengths = new int[BATCH];
+
+            for (int start = 0; start < ELEMENTS; start += BATCH) {
+                int count = Math.min(BATCH, ELEMENTS - start);
+                buffer.clear();
+                for (int i = 0; i < count; i++) {
+                    String line = (start + i) % 100 == 0 ? "user" + i : Long.toString(random.nextInt(5000));
+                    offsets[i] = buffer.position();
+                    lengths[i] = line.length();
+                    buffer.put(line.getBytes(StandardCharsets.US_ASCII));
+                }
+
+                if (batched) {
+                    listener.onBatch(buffer, offsets, lengths, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        listener.onElement(buffer, offsets[i], lengths[i]);
+                    }
+                }
+            }
+            listener.onEndOfStream();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.ermel272.distributed;
+
+import com.ermel272.algorithms.RegisterCounter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegisterDeltaProtocolTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void deltasRoundTripIntoEmptySketches() {
+        Map<String, RegisterCounter> local = RegisterDeltaProtocol.newDefaultSketches();
+        Map<String, RegisterCounter> remote = RegisterDeltaProtocol.newDefaultSketches();
+        long[][] shipped = shippedRegisters(local);
+        ByteBuffer delta = ByteBuffer.allocate(RegisterDeltaProtocol.maxDeltaSize(local));
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20000; i++) {
+                String element = "user-" + (round * 20000 + i);
+                for (RegisterCounter sketch : local.values()) {
+                    sketch.processInput(element);
+                }
+            }
+
+            int registers = encode(delta, 60000L * (round + 1), local, shipped);
+            assertTrue(registers > 0);
+            assertEquals(60000L * (round + 1), RegisterDeltaProtocol.applyDelta(delta, remote));
+            assertSameRegisters(local, remote);
+        }
+
+        // Nothing changed since, so the next delta is empty
+        assertEquals(0, encode(delta, 0, local, shipped));
+    }
+
+    @Test
+    public void helloOfDifferentSketchesIsRefused() throws IOException {
+        Map<String, RegisterCounter> sketches = RegisterDeltaProtocol.newDefaultSketches();
+        ByteBuffer hello = RegisterDeltaProtocol.encodeHello("worker-1", sketches);
+        hello.getInt();
+        assertEquals("worker-1", RegisterDeltaProtocol.decodeHello(hello, sketches));
+
+        sketches.remove("HyperLogLogAlg");
+        ByteBuffer shorter = RegisterDeltaProtocol.encodeHello("worker-2", sketches);
+        shorter.getInt();
+        try {
+            RegisterDeltaProtocol.decodeHello(shorter, RegisterDeltaProtocol.newDefaultSketches());
+            fail("Expected the hello to be refused");
+        } catch (IOException expected) {
+            // Sketch counts differ
+        }
+    }
+
+    @Test
+    public void workerReshipsEverythingAfterReconnecting() throws InterruptedException {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        SketchCoordinator first = new SketchCoordinator(any, RegisterDeltaProtocol.newDefaultSketches());
+        first.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), first.getPort());
+
+        List<IOException> lost = new ArrayList<>();
+        SketchWorker worker = new SketchWorker(address, "worker-1", RegisterDeltaProtocol.newDefaultSketches(), 1,
+                new SketchConnectionListener() {
+                    @Override
+                    public void onCoordinatorLost(String workerId, InetSocketAddress coordinator, IOException cause) {
+                        lost.add(cause);
+                    }
+                });
+
+        // Step 1: Ship to the first coordinator
+        feed(worker, 0, 5000);
+        shipUntil(worker, () -> first.getElementCount() == 5000);
+        assertEquals(estimates(worker), first.getEstimates());
+
+        // Step 2: Keep counting while no coordinator is listening
+        first.stop();
+        feed(worker, 5000, 10000);
+        shipUntil(worker, () -> !lost.isEmpty());
+        assertEquals(lost.size(), worker.getLostConnectionCount());
+
+        // Step 3: A new coordinator on the same port receives every register, not just the later ones
+        SketchCoordinator second = new SketchCoordinator(address, RegisterDeltaProtocol.newDefaultSketches());
+        second.start();
+        try {
+            shipUntil(worker, () -> second.getElementCount() == 10000);
+            assertEquals(estimates(worker), second.getEstimates());
+            assertEquals(0, second.getDroppedWorkerCount());
+
+            worker.onEndOfStream();
+            worker.awaitEndOfStream();
+        } finally {
+            second.stop();
+        }
+    }
+
+    private static int encode(ByteBuffer delta, long elementCount, Map<String, RegisterCounter> sketches,
+                              long[][] shipped) {
+        delta.clear();
+        int registers = RegisterDeltaProtocol.encodeDelta(delta, elementCount, sketches, shipped);
+        delta.flip();
+        assertEquals(delta.remaining() - 4, delta.getInt());
+        return registers;
+    }
+
+    private static long[][] shippedRegisters(Map<String, RegisterCounter> sketches) {
+        long[][] shipped = new long[sketches.size()][];
+        int i = 0;
+        for (RegisterCounter sketch : sketches.values()) {
+            shipped[i++] = new long[sketch.getRegisterCount()];
+        }
+        return shipped;
+    }
+
+    private static void assertSameRegisters(Map<String, RegisterCounter> expected, Map<String, RegisterCounter> actual) {
+        for (Map.Entry<String, RegisterCounter> sketch : expected.entrySet()) {
+            RegisterCounter other = actual.get(sketch.getKey());
+            for (int j = 0; j < sketch.getValue().getRegisterCount(); j++) {
+                assertEquals(sketch.getKey() + " register " + j, sketch.getValue().getRegister(j), other.getRegister(j));
+            }
+        }
+    }
+
+    private static Map<String, Double> estimates(SketchWorker worker) {
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        for (Map.Entry<String, RegisterCounter> sketch : worker.getSketches().entrySet()) {
+            estimates.put(sketch.getKey(), sketch.getValue().reportDistinctElements());
+        }
+        return estimates;
+    }
+
+    private static void feed(SketchWorker worker, int from, int to) {
+        for (int i = from; i < to; i++) {
+            worker.onElement("user-" + i);
+        }
+    }
+
+    /**
+     * Lets the worker's ship interval pass and ships, until the condition holds.
+     */
+    private static void shipUntil(SketchWorker worker, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(5);
+            worker.onIdle();
+        }
+    }
+}
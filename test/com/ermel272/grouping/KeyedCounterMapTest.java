@@ -0,0 +1,73 @@
+package com.ermel272.grouping;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedCounterMapTest {
+
+    private static final int GROUPS = 40;
+
+    private Path file;
+
+    @Before
+    public void createSpillFile() throws IOException {
+        file = Files.createTempFile("keyed-counter-map", ".spill");
+    }
+
+    @After
+    public void deleteSpillFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void spilledGroupsAreReloadedWithTheirCounts() {
+        try (KeyedCounterMap map = new KeyedCounterMap(4096, new FileSpillStore(file))) {
+            // Group g holds g + 1 distinct elements, each counted twice, well under the exact limit
+            for (int pass = 0; pass < 2; pass++) {
+                for (int g = 0; g < GROUPS; g++) {
+                    for (int i = 0; i <= g; i++) {
+                        map.processInput("group-" + g, "element-" + i);
+                    }
+                }
+            }
+
+            assertTrue(map.getSpillCount() > 0);
+            assertTrue(map.getLoadCount() > 0);
+            assertTrue(map.getResidentGroupCount() < GROUPS);
+            assertEquals(GROUPS, map.getGroupCount());
+            assertEquals(GROUPS, map.getGroups().size());
+
+            for (int g = 0; g < GROUPS; g++) {
+                assertEquals(g + 1, map.reportDistinctElements("group-" + g), 0);
+            }
+            assertEquals(0, map.reportDistinctElements("missing"), 0);
+        }
+    }
+
+    @Test
+    public void residentGroupsStayWithinBudgetWhenReporting() {
+        long budget = 64 * 1024;
+
+        try (KeyedCounterMap map = new KeyedCounterMap(budget, new FileSpillStore(file))) {
+            for (int i = 0; i < 20000; i++) {
+                String group = "group-" + (i % 8);
+                map.processInput(group, "element-" + i);
+
+                // Reporting a sparse sketch decodes and keeps its index list, growing it
+                map.reportDistinctElements(group);
+                assertTrue("Resident bytes " + map.getResidentBytes() + " after " + i + " elements",
+                        map.getResidentBytes() <= budget || map.getResidentGroupCount() == 1);
+            }
+
+            assertEquals(2500, map.reportDistinctElements("group-3"), 2500 * 0.05);
+        }
+    }
+}
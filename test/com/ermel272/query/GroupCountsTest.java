@@ -0,0 +1,51 @@
+package com.ermel272.query;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GroupCountsTest {
+
+    @Test
+    public void layeredCountsMatchAFlatMap() {
+        GroupCounts counts = GroupCounts.EMPTY;
+        Map<String, Double> expected = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+
+        for (int publish = 0; publish < 500; publish++) {
+            // A few hot groups change every time, and new groups keep appearing
+            Map<String, Double> updated = new HashMap<>();
+            for (int i = 0; i < 1 + random.nextInt(20); i++) {
+                String group = "group-" + (i < 5 ? i : random.nextInt(publish * 4 + 10));
+                updated.put(group, (double) random.nextInt(1000));
+            }
+
+            GroupCounts previous = counts;
+            Map<String, Double> before = new HashMap<>(expected);
+            counts = counts.with(updated);
+            expected.putAll(updated);
+
+            assertEquals(expected, counts);
+            assertEquals(expected.size(), counts.size());
+            assertEquals(expected, new HashMap<>(counts));
+
+            // Earlier snapshots are unaffected
+            assertEquals(before, previous);
+        }
+
+        assertNull(counts.get("missing"));
+    }
+
+    @Test
+    public void noUpdatesShareTheSnapshot() {
+        GroupCounts counts = GroupCounts.EMPTY.with(Map.of("lang:en", 3.0));
+        assertSame(counts, counts.with(new HashMap<>()));
+        assertEquals(3.0, counts.get("lang:en"), 0);
+    }
+}
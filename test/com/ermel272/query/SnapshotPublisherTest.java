@@ -0,0 +1,98 @@
+package com.ermel272.query;
+
+import com.ermel272.algorithms.DistinctCounter;
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import com.ermel272.algorithms.SlidingHyperLogLogAlgorithm;
+import com.ermel272.grouping.FileSpillStore;
+import com.ermel272.grouping.KeyedCounterMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotPublisherTest {
+
+    private Path file;
+
+    @Before
+    public void createSpillFile() throws IOException {
+        file = Files.createTempFile("snapshot-publisher", ".spill");
+    }
+
+    @After
+    public void deleteSpillFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void snapshotsCarryEveryGroupAndAreNotChangedLater() {
+        HyperLogLogPlusPlusAlgorithm total = new HyperLogLogPlusPlusAlgorithm();
+        Map<String, DistinctCounter> counters = new LinkedHashMap<>();
+        counters.put("total", total);
+
+        try (KeyedCounterMap groups = new KeyedCounterMap(1 << 20, new FileSpillStore(file))) {
+            SnapshotPublisher publisher = new SnapshotPublisher(counters, groups, null, null, 1000);
+            assertNull(publisher.getSnapshot());
+
+            int count = 0;
+            EstimateSnapshot first = null;
+            for (int publish = 0; publish < 50; publish++) {
+                // Group g receives publish - g + 1 distinct elements, one per publish since it first appeared
+                for (int g = 0; g <= publish; g++) {
+                    String group = "group-" + g;
+                    String element = "element-" + publish;
+                    total.processInput(element);
+                    groups.processInput(group, element);
+                    publisher.onGroupedElement(group);
+                    count++;
+                }
+
+                publisher.publish(count);
+                if (first == null) first = publisher.getSnapshot();
+            }
+
+            EstimateSnapshot last = publisher.getSnapshot();
+            assertEquals(count, last.getElementCount());
+            assertEquals(50, last.getGroups().size());
+            for (int g = 0; g < 50; g++) {
+                assertEquals(50 - g, last.getGroups().get("group-" + g), 0);
+            }
+            assertEquals(50, last.getEstimates().get("total"), 1);
+
+            assertEquals(1, first.getGroups().size());
+            assertEquals(1, first.getGroups().get("group-0"), 0);
+        }
+    }
+
+    @Test
+    public void windowIsCopiedAtItsOwnInterval() throws InterruptedException {
+        SlidingHyperLogLogAlgorithm window = new SlidingHyperLogLogAlgorithm(60000);
+        SnapshotPublisher publisher = new SnapshotPublisher(new LinkedHashMap<>(), null, window, null, 1, 60000);
+
+        window.processInput("a");
+        publisher.publish(1);
+        EstimateSnapshot first = publisher.getSnapshot();
+
+        // An interval publish within the window interval reuses the earlier copy
+        window.processInput("b");
+        Thread.sleep(5);
+        publisher.onIdle(2);
+        EstimateSnapshot second = publisher.getSnapshot();
+        assertTrue(second != first);
+        assertEquals(first.getWindowTimestampMillis(), second.getWindowTimestampMillis());
+        assertEquals(1, second.distinctInWindow(60000), 0.1);
+
+        // Publishing explicitly always copies the window afresh
+        publisher.publish(2);
+        assertEquals(2, publisher.getSnapshot().distinctInWindow(60000), 0.1);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ermel272.rollup;
+
+import com.ermel272.algorithms.HyperLogLogPlusPlusAlgorithm;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollupStoreTest {
+
+    // 2016-12-12T00:00:00Z
+    private static final long START = 1481500800000L;
+
+    @Test
+    public void openEndedRangesCoverEveryBucket() {
+        RollupStore<HyperLogLogPlusPlusAlgorithm> store = new RollupStore<>(HyperLogLogPlusPlusAlgorithm::new);
+
+        // Three days of elements, so minutes, hours and days are all merged
+        for (int i = 0; i < 3000; i++) {
+            store.processInput("element-" + i, START + i * 90 * 1000L);
+        }
+        long now = START + 3000 * 90 * 1000L;
+
+        double all = store.distinctBetween(START, now);
+        assertEquals(3000, all, 3000 * 0.05);
+        assertEquals(all, store.distinctBetween(Long.MIN_VALUE, Long.MAX_VALUE), 0);
+        assertEquals(all, store.distinctBetween(Long.MIN_VALUE, now), 0);
+        assertEquals(all, store.distinctBetween(START, Long.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void openEndedRangesHonourTheOtherBound() {
+        RollupStore<HyperLogLogPlusPlusAlgorithm> store = new RollupStore<>(HyperLogLogPlusPlusAlgorithm::new);
+
+        for (int i = 0; i < 600; i++) {
+            store.processInput("element-" + i, START + i * RollupStore.MINUTE);
+        }
+        long middle = START + 300 * RollupStore.MINUTE;
+
+        assertEquals(store.distinctBetween(START, middle), store.distinctBetween(Long.MIN_VALUE, middle), 0);
+        assertEquals(store.distinctBetween(middle, START + 600 * RollupStore.MINUTE),
+                store.distinctBetween(middle, Long.MAX_VALUE), 0);
+        assertEquals(0, store.distinctBetween(Long.MIN_VALUE, START - RollupStore.DAY), 0);
+    }
+
+    @Test
+    public void rangesNearTheEndOfTimeDoNotOverflow() {
+        RollupStore<HyperLogLogPlusPlusAlgorithm> store = new RollupStore<>(HyperLogLogPlusPlusAlgorithm::new);
+        long late = Long.MAX_VALUE - RollupStore.MINUTE / 2;
+
+        for (int i = 0; i < 100; i++) {
+            store.processInput("element-" + i, late);
+        }
+
+        double estimate = store.distinctBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue("Estimate " + estimate, estimate > 90 && estimate < 110);
+        assertEquals(estimate, store.distinctBetween(late, Long.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void emptyStoreCountsNothing() {
+        RollupStore<HyperLogLogPlusPlusAlgorithm> store = new RollupStore<>(HyperLogLogPlusPlusAlgorithm::new);
+        assertEquals(0, store.distinctBetween(Long.MIN_VALUE, Long.MAX_VALUE), 0);
+    }
+}
@@ -0,0 +1,237 @@
+package com.ermel272.hashes;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Class:       VectorBatchKernel.java
+ *
+ * Purpose:     Implements the batch kernels with the incubating Vector API,
+ *              one stream element per lane.
+ *
+ * Description: Only loaded by {@link BatchKernel#create()} once it has checked
+ *              that jdk.incubator.vector is present. Vectors are of the widest
+ *              species the CPU supports, and the elements past the last whole
+ *              vector are handled by scalar loops. JDK 17 has no lanewise
+ *              leading zero count, so one is read from a float exponent, and
+ *              the maximum tail length needs none: the lowest one bit of every
+ *              hash is ORed together and the highest bit of the result gives
+ *              the maximum. The Java, FNV1, FNV1a and Morin hashes
+ *              of numeric elements are computed digit position by digit
+ *              position, each lane left unchanged once its element's digits run
+ *              out, after a scalar pass lays the digits out column by column.
+ *              Morin's multipliers are the powers of Z, the same for every lane,
+ *              and its modulo is taken by folding rather than dividing. Murmur3
+ *              mixes 16 byte blocks and a tail whose layout differs per lane,
+ *              so it is computed by the scalar pass.
+ */
+final class VectorBatchKernel extends BatchKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int MAX_BITS = 32;
+    private static final long LOW_32_BITS = 0xffffffffL;
+
+    // Z^p modulo P, the multiplier of the Morin term of the digit at position p
+    private static final long[] MORIN_POWERS = new long[HashBundle.LONG_DIGITS + 1];
+
+    static {
+        MORIN_POWERS[0] = 1;
+        for (int p = 1; p < MORIN_POWERS.length; p++) {
+            MORIN_POWERS[p] = MORIN_POWERS[p - 1] * MorinHash.Z % MorinHash.P;
+        }
+    }
+
+    private final byte[] digits = new byte[HashBundle.LONG_DIGITS];
+
+    // Digit p of element i, and its Morin term, at [p * length + i] of the columns
+    private int[] digitColumns = new int[0];
+    private long[] morinTerms = new long[0];
+
+    // The number of digits of each element, as ints and as longs, and the Morin sum of each element
+    private int[] digitCounts = new int[0];
+    private long[] longDigitCounts = new long[0];
+    private long[] morinSums = new long[0];
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void hashDecimal(long[] elements, int offset, int length, int[] javaHashes, int[] fnv1aHashes,
+                     int[] fnvHashes, int[] morinHashes, long[] hash64s) {
+        if (digitCounts.length < length) {
+            digitCounts = new int[length];
+            longDigitCounts = new long[length];
+            morinSums = new long[length];
+            digitColumns = new int[HashBundle.LONG_DIGITS * length];
+            morinTerms = new long[HashBundle.LONG_DIGITS * length];
+        }
+
+        // Step 1: Lay out each element's digits, and their Morin terms, column by column
+        int maxDigits = 0;
+        int morinBound = LONG_SPECIES.loopBound(length);
+        for (int i = 0; i < length; i++) {
+            int start = HashBundle.writeDigits(elements[offset + i], digits, digits.length);
+            int count = digits.length - start;
+            for (int p = 0; p < count; p++) {
+                digitColumns[p * length + i] = digits[start + p];
+                morinTerms[p * length + i] = (digits[start + p] * MorinHash.Z2) >>> 1;
+            }
+            digitCounts[i] = count;
+            longDigitCounts[i] = count;
+            maxDigits = Math.max(maxDigits, count);
+
+            // Murmur3 mixes 16 byte blocks and a tail that differ in layout per lane, so stays scalar
+            hash64s[i] = Murmur3Hash.hash64(digits, start, count);
+            if (i >= morinBound) morinHashes[i] = MorinHash.hash32(digits, start, count);
+        }
+
+        // Step 2: Run the Java, FNV1 and FNV1a recurrences for a vector of elements at a time
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector counts = IntVector.fromArray(SPECIES, digitCounts, i);
+            IntVector java = IntVector.zero(SPECIES);
+            IntVector fnv = IntVector.broadcast(SPECIES, FnvHash.FNV_32_INIT);
+            IntVector fnv1a = IntVector.broadcast(SPECIES, Fnv1aHash.FNV1_32_INIT);
+
+            for (int p = 0; p < maxDigits; p++) {
+                VectorMask<Integer> active = counts.compare(VectorOperators.GT, p);
+                IntVector c = IntVector.fromArray(SPECIES, digitColumns, p * length + i);
+
+                java = java.blend(java.mul(31).add(c), active);
+                fnv = fnv.blend(fnv.mul(FnvHash.FNV_32_PRIME).lanewise(VectorOperators.XOR, c), active);
+                fnv1a = fnv1a.blend(fnv1a.lanewise(VectorOperators.XOR, c).mul(Fnv1aHash.FNV1_PRIME_32), active);
+            }
+
+            java.intoArray(javaHashes, i);
+            fnv.intoArray(fnvHashes, i);
+            fnv1a.intoArray(fnv1aHashes, i);
+        }
+
+        for (; i < length; i++) {
+            int java = 0;
+            int fnv = FnvHash.FNV_32_INIT;
+            int fnv1a = Fnv1aHash.FNV1_32_INIT;
+            for (int p = 0; p < digitCounts[i]; p++) {
+                int c = digitColumns[p * length + i];
+                java = 31 * java + c;
+                fnv = (fnv * FnvHash.FNV_32_PRIME) ^ c;
+                fnv1a = (fnv1a ^ c) * Fnv1aHash.FNV1_PRIME_32;
+            }
+            javaHashes[i] = java;
+            fnvHashes[i] = fnv;
+            fnv1aHashes[i] = fnv1a;
+        }
+
+        // Step 3: Sum the Morin terms times the powers of Z, which are the same for every lane
+        for (i = 0; i < morinBound; i += LONG_SPECIES.length()) {
+            LongVector counts = LongVector.fromArray(LONG_SPECIES, longDigitCounts, i);
+            LongVector sum = LongVector.zero(LONG_SPECIES);
+
+            for (int p = 0; p < maxDigits; p++) {
+                VectorMask<Long> active = counts.compare(VectorOperators.GT, p);
+                LongVector term = LongVector.fromArray(LONG_SPECIES, morinTerms, p * length + i);
+                sum = sum.blend(reduceMorin(sum.add(term.mul(MORIN_POWERS[p]))), active);
+            }
+
+            sum.intoArray(morinSums, i);
+        }
+
+        // Add Z^count * (P - 1) as MorinHash does, whose product may overflow and leave a negative remainder
+        for (i = 0; i < morinBound; i++) {
+            morinHashes[i] = (int) ((morinSums[i] + MORIN_POWERS[digitCounts[i]] * (MorinHash.P - 1)) % MorinHash.P);
+        }
+    }
+
+    @Override
+    public void registerIndexesAndRanks(int[] hashes, int offset, int length, int indexBits,
+                                        int[] indexes, int[] ranks) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector x = IntVector.fromArray(SPECIES, hashes, offset + i);
+            x.lanewise(VectorOperators.LSHR, MAX_BITS - indexBits).intoArray(indexes, i);
+
+            // A w of 0 has 32 leading zeros, for which the rank is that of a leading one bit
+            IntVector w = x.lanewise(VectorOperators.LSHL, indexBits).lanewise(VectorOperators.LSHR, indexBits);
+            leadingZeros(w).and(MAX_BITS - 1).add(1 - indexBits).intoArray(ranks, i);
+        }
+
+        for (; i < length; i++) {
+            int x = hashes[offset + i];
+            indexes[i] = x >>> (MAX_BITS - indexBits);
+            ranks[i] = (Integer.numberOfLeadingZeros((x << indexBits) >>> indexBits) & (MAX_BITS - 1)) + 1 - indexBits;
+        }
+    }
+
+    @Override
+    public int selectRegisterUpdates(int[] registers, int[] indexes, int[] ranks, int length, int[] selected) {
+        int count = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            // Gather each lane's register, and keep the lanes whose rank is larger
+            IntVector current = IntVector.fromArray(SPECIES, registers, 0, indexes, i);
+            long raised = IntVector.fromArray(SPECIES, ranks, i).compare(VectorOperators.GT, current).toLong();
+
+            while (raised != 0) {
+                selected[count++] = i + Long.numberOfTrailingZeros(raised);
+                raised &= raised - 1;
+            }
+        }
+
+        for (; i < length; i++) {
+            if (ranks[i] > registers[indexes[i]]) selected[count++] = i;
+        }
+        return count;
+    }
+
+    @Override
+    public int maxTailLength(int[] hashes, int offset, int length) {
+        // The lowest one bit of each hash, whose highest is that of the longest tail; a hash of 0 adds none
+        IntVector lowestBits = IntVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector x = IntVector.fromArray(SPECIES, hashes, offset + i);
+            lowestBits = lowestBits.or(x.and(x.neg()));
+        }
+
+        int bits = lowestBits.reduceLanes(VectorOperators.OR);
+        for (; i < length; i++) {
+            bits |= Integer.lowestOneBit(hashes[offset + i]);
+        }
+        return bits == 0 ? 0 : MAX_BITS - 1 - Integer.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * Reduces each lane, below 2^63, modulo P = 2^32 - 5 without dividing,
+     * since 2^32 is 5 modulo P: folding the high half in twice leaves less
+     * than P + 20, and one conditional subtraction finishes.
+     */
+    private static LongVector reduceMorin(LongVector x) {
+        x = x.and(LOW_32_BITS).add(x.lanewise(VectorOperators.LSHR, 32).mul(5));
+        x = x.and(LOW_32_BITS).add(x.lanewise(VectorOperators.LSHR, 32).mul(5));
+        return x.blend(x.sub(MorinHash.P), x.compare(VectorOperators.GE, MorinHash.P));
+    }
+
+    /**
+     * Counts the leading zeros of each lane without masked operations, which
+     * JDK 17 does not compile to vector instructions: the bits below the
+     * highest one bit are all set, the highest one bit alone is kept, and
+     * its position read from the exponent of its exact float conversion.
+     */
+    private static IntVector leadingZeros(IntVector y) {
+        for (int shift = 1; shift < MAX_BITS; shift <<= 1) {
+            y = y.or(y.lanewise(VectorOperators.LSHR, shift));
+        }
+        IntVector highestBit = y.lanewise(VectorOperators.XOR, y.lanewise(VectorOperators.LSHR, 1));
+
+        // 2^k has the biased exponent 127 + k, and 0 has 0, giving 158 leading zeros, cut to 32
+        IntVector exponent = highestBit.convert(VectorOperators.I2F, 0).reinterpretAsInts()
+                .lanewise(VectorOperators.LSHR, 23).and(0xff);
+        return IntVector.broadcast(SPECIES, 127 + MAX_BITS - 1).sub(exponent).min(MAX_BITS);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ermel272.hashes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VectorBatchKernelTest {
+
+    private static final long[] EDGE_LONGS = {
+            0, -1, 1, 9, 10, -9, -10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            999999999999999999L, 1000000000000000000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+    };
+
+    private static final int[] EDGE_INTS = {
+            0, -1, 1, 2, Integer.MAX_VALUE, Integer.MIN_VALUE, 0x0000ffff, 0xffff0000, 0x00010000,
+            0x0f0f0f0f, 0xf0f0f0f0, 1 << 17, 1 << 16, 1 << 15, 1 << 4, 1 << 3
+    };
+
+    private final BatchKernel vector = new VectorBatchKernel();
+    private final BatchKernel scalar = new ScalarBatchKernel();
+
+    @Test
+    public void hashesDecimalElementsAsTheScalarKernel() {
+        for (long[] elements : inputs(EDGE_LONGS)) {
+            // Every length up to a few vectors, so that every tail length is covered
+            for (int length = 0; length <= elements.length - 1; length++) {
+                assertSameDecimalHashes(elements, 1, length);
+            }
+        }
+    }
+
+    @Test
+    public void computesIndexesAndRanksAsTheScalarKernel() {
+        for (int[] hashes : intInputs()) {
+            for (int indexBits = 4; indexBits <= 16; indexBits++) {
+                for (int length = 0; length <= hashes.length - 1; length += 3) {
+                    int[] vectorIndexes = new int[length];
+                    int[] vectorRanks = new int[length];
+                    int[] scalarIndexes = new int[length];
+                    int[] scalarRanks = new int[length];
+                    vector.registerIndexesAndRanks(hashes, 1, length, indexBits, vectorIndexes, vectorRanks);
+                    scalar.registerIndexesAndRanks(hashes, 1, length, indexBits, scalarIndexes, scalarRanks);
+
+                    assertArrayEquals(scalarIndexes, vectorIndexes);
+                    assertArrayEquals(scalarRanks, vectorRanks);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void selectsRegisterUpdatesAsTheScalarKernel() {
+        Random random = new Random(11);
+        int[] registers = new int[1 << 10];
+        for (int round = 0; round < 50; round++) {
+            int length = random.nextInt(200);
+            int[] indexes = new int[length];
+            int[] ranks = new int[length];
+            for (int i = 0; i < length; i++) {
+                // Few registers, so that lanes share them
+                indexes[i] = random.nextInt(round % 2 == 0 ? 8 : registers.length);
+                ranks[i] = random.nextInt(24) - 3;
+            }
+
+            int[] vectorSelected = new int[length];
+            int[] scalarSelected = new int[length];
+            int count = scalar.selectRegisterUpdates(registers, indexes, ranks, length, scalarSelected);
+            assertEquals(count, vector.selectRegisterUpdates(registers, indexes, ranks, length, vectorSelected));
+            assertArrayEquals(Arrays.copyOf(scalarSelected, count), Arrays.copyOf(vectorSelected, count));
+
+            for (int k = 0; k < count; k++) {
+                int i = scalarSelected[k];
+                registers[indexes[i]] = Math.max(registers[indexes[i]], ranks[i]);
+            }
+        }
+    }
+
+    @Test
+    public void findsTheMaximumTailLengthAsTheScalarKernel() {
+        for (int[] hashes : intInputs()) {
+            for (int length = 0; length <= hashes.length - 1; length++) {
+                assertEquals(scalar.maxTailLength(hashes, 1, length), vector.maxTailLength(hashes, 1, length));
+            }
+        }
+
+        // A lone hash of 0 past the last whole vector adds no tail, and one of MIN_VALUE the longest
+        int[] zeros = new int[67];
+        assertEquals(0, vector.maxTailLength(zeros, 0, zeros.length));
+        zeros[66] = Integer.MIN_VALUE;
+        assertEquals(31, vector.maxTailLength(zeros, 0, zeros.length));
+    }
+
+    @Test
+    public void isOnlyCreatedWithTheVectorModule() {
+        assertTrue(vector.isVectorized());
+        assertEquals(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                BatchKernel.create().isVectorized());
+    }
+
+    private void assertSameDecimalHashes(long[] elements, int offset, int length) {
+        int[][] vectorColumns = new int[4][length];
+        int[][] scalarColumns = new int[4][length];
+        long[] vectorHash64s = new long[length];
+        long[] scalarHash64s = new long[length];
+
+        vector.hashDecimal(elements, offset, length, vectorColumns[0], vectorColumns[1], vectorColumns[2],
+                vectorColumns[3], vectorHash64s);
+        scalar.hashDecimal(elements, offset, length, scalarColumns[0], scalarColumns[1], scalarColumns[2],
+                scalarColumns[3], scalarHash64s);
+
+        for (int c = 0; c < 4; c++) {
+            assertArrayEquals(scalarColumns[c], vectorColumns[c]);
+        }
+        assertArrayEquals(scalarHash64s, vectorHash64s);
+    }
+
+    /**
+     * @return
+     *          The edge values repeated, then mixed with random values, each
+     *          long enough to span several vectors of any species.
+     */
+    private static long[][] inputs(long[] edges) {
+        Random random = new Random(7);
+        long[] repeated = new long[70];
+        long[] mixed = new long[70];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = edges[i % edges.length];
+            mixed[i] = i % 3 == 0 ? edges[random.nextInt(edges.length)] : random.nextLong() >> random.nextInt(64);
+        }
+        return new long[][] {repeated, mixed};
+    }
+
+    private static int[][] intInputs() {
+        long[][] longs = inputs(Arrays.stream(EDGE_INTS).asLongStream().toArray());
+        int[][] ints = new int[longs.length][];
+        for (int k = 0; k < longs.length; k++) {
+            ints[k] = Arrays.stream(longs[k]).mapToInt(x -> (int) x).toArray();
+        }
+        return ints;
+    }
+}